@@ -0,0 +1,80 @@
+package com.marine.secretcamera.rtp;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在真机上测量 {@link SrtpTransformer} 每个包的加密开销, 与发送线程的实际负载一致。
+ * 正确性由 JVM 单元测试中的 SrtpTransformerTest 覆盖。
+ */
+@RunWith(AndroidJUnit4.class)
+public class SrtpTransformerBenchmark {
+    private static final String TAG = "SrtpTransformerBenchmark";
+    private static final int PAYLOAD_SIZE = 1200;
+    private static final int WARMUP_PACKETS = 20_000;
+    private static final int BENCHMARK_PACKETS = 100_000;
+    // 30fps 4Mbps 约 400 包/秒, 每包 50us 也只占发送线程 2% 的时间
+    private static final long MAX_NANOS_PER_PACKET = 50_000;
+
+    // RTP 头 + 一个 one-byte 头部扩展（4 字节）+ 随机负载
+    private static byte[] packet(int ssrc, long seed) {
+        byte[] p = new byte[RtpPacket.MAX_SIZE];
+        p[0] = (byte) 0x90;
+        p[1] = 96;
+        p[8] = (byte) (ssrc >> 24);
+        p[9] = (byte) (ssrc >> 16);
+        p[10] = (byte) (ssrc >> 8);
+        p[11] = (byte) ssrc;
+        p[12] = (byte) 0xBE;
+        p[13] = (byte) 0xDE;
+        p[15] = 1;
+        p[16] = 0x10;
+        byte[] payload = new byte[PAYLOAD_SIZE];
+        new Random(seed).nextBytes(payload);
+        System.arraycopy(payload, 0, p, 20, PAYLOAD_SIZE);
+        return p;
+    }
+
+    @Test
+    public void perPacketOverheadStaysSmall() throws Exception {
+        byte[] masterKey = new byte[16];
+        new Random(1).nextBytes(masterKey);
+        for (SrtpTransformer.Suite suite : SrtpTransformer.Suite.values()) {
+            byte[] masterSalt = new byte[suite.saltLength];
+            new Random(2).nextBytes(masterSalt);
+            SrtpTransformer srtp = new SrtpTransformer(suite, masterKey, masterSalt);
+            byte[] template = packet(0x01020304, 3);
+            byte[] p = new byte[RtpPacket.MAX_SIZE];
+            int sequence = 0;
+            for (int i = 0; i < WARMUP_PACKETS; i++) {
+                sequence = protectNext(srtp, template, p, sequence);
+            }
+            long start = System.nanoTime();
+            for (int i = 0; i < BENCHMARK_PACKETS; i++) {
+                sequence = protectNext(srtp, template, p, sequence);
+            }
+            long nanosPerPacket = (System.nanoTime() - start) / BENCHMARK_PACKETS;
+            Log.i(TAG, suite + ": " + nanosPerPacket / 1000.0 + "us per "
+                    + (20 + PAYLOAD_SIZE) + " byte packet");
+            assertTrue(suite + " " + nanosPerPacket + "ns", nanosPerPacket < MAX_NANOS_PER_PACKET);
+        }
+    }
+
+    // 与发送路径一样: 每个包重新写入明文后原地加密, 序列号递增
+    private static int protectNext(SrtpTransformer srtp, byte[] template, byte[] p, int sequence)
+            throws Exception {
+        System.arraycopy(template, 0, p, 0, 20 + PAYLOAD_SIZE);
+        p[2] = (byte) (sequence >> 8);
+        p[3] = (byte) sequence;
+        srtp.protect(p, 20 + PAYLOAD_SIZE);
+        return (sequence + 1) & 0xFFFF;
+    }
+}
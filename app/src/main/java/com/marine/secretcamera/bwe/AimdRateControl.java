@@ -0,0 +1,152 @@
+package com.marine.secretcamera.bwe;
+
+// 加性增 / 乘性减（AIMD）码率控制。
+//  NORMAL: 增加码率。还不知道链路容量时每秒乘性增加 8%, 接近上次过载时测得的容量后改为加性增加;
+//  OVERUSING: 降到实际吞吐量的 BETA 倍, 每个 RTT 最多降一次;
+//  UNDERUSING: 保持, 等队列排空。
+// 增加时不超过实际吞吐量的 1.5 倍, 避免估计值与真实发送速率脱节。
+public class AimdRateControl {
+  private static final double BETA = 0.85;
+  private static final double MULTIPLICATIVE_INCREASE_PER_SECOND = 1.08;
+  private static final long DEFAULT_RTT_MS = 200;
+  private static final int AVERAGE_PACKET_BITS = 1200 * 8;
+  private static final long MIN_ADDITIVE_INCREASE_BPS = 4_000;
+  private static final long MIN_MULTIPLICATIVE_INCREASE_BPS = 1_000;
+  private static final double MAX_ACKED_FACTOR = 1.5;
+  private static final long ACKED_HEADROOM_BPS = 10_000;
+
+  private enum State {
+    HOLD,
+    INCREASE,
+    DECREASE
+  }
+
+  private final long minBitrate;
+  private final long maxBitrate;
+  private long currentBitrate;
+  private State state = State.HOLD;
+  private long lastChangeMs = -1;
+  private long lastDecreaseMs = -1;
+  private long rttMs = DEFAULT_RTT_MS;
+
+  // 过载时测得的吞吐量（kbps）的滑动平均与归一化方差, 用来判断是否接近链路容量
+  private double linkCapacityKbps = -1;
+  private double linkCapacityVariance = 0.4;
+
+  public AimdRateControl(long startBitrate, long minBitrate, long maxBitrate) {
+    this.minBitrate = minBitrate;
+    this.maxBitrate = maxBitrate;
+    this.currentBitrate = clamp(startBitrate);
+  }
+
+  public void setRtt(long rttMs) {
+    this.rttMs = rttMs;
+  }
+
+  // 用启动探测的结果直接设置当前码率
+  public void setEstimate(long bitrate) {
+    currentBitrate = clamp(bitrate);
+    state = State.HOLD;
+  }
+
+  public long getTargetBitrate() {
+    return currentBitrate;
+  }
+
+  // ackedBitrate 为接收端实际收到的码率, 还没有测量结果时传 -1
+  public long update(BandwidthUsage usage, long ackedBitrate, long nowMs) {
+    switch (usage) {
+      case NORMAL:
+        if (state == State.HOLD) {
+          lastChangeMs = nowMs;
+          state = State.INCREASE;
+        }
+        break;
+      case OVERUSING:
+        if (state != State.DECREASE) {
+          state = State.DECREASE;
+        }
+        break;
+      case UNDERUSING:
+        state = State.HOLD;
+        break;
+    }
+
+    long newBitrate = currentBitrate;
+    switch (state) {
+      case HOLD:
+        break;
+      case INCREASE: {
+        double ackedKbps = ackedBitrate / 1000.0;
+        if (ackedBitrate > 0 && linkCapacityKbps >= 0
+            && ackedKbps > linkCapacityKbps + 3 * linkCapacitySigma()) {
+          // 吞吐量已经明显超过之前测得的容量, 说明链路变好了, 重新乘性探测
+          linkCapacityKbps = -1;
+        }
+        long elapsedMs = lastChangeMs < 0 ? 0 : nowMs - lastChangeMs;
+        if (linkCapacityKbps >= 0) {
+          newBitrate += additiveIncrease(elapsedMs);
+        } else {
+          newBitrate += multiplicativeIncrease(elapsedMs);
+        }
+        lastChangeMs = nowMs;
+        break;
+      }
+      case DECREASE:
+        if (lastDecreaseMs >= 0 && nowMs - lastDecreaseMs < rttMs) {
+          break;
+        }
+        long base = ackedBitrate > 0 ? ackedBitrate : currentBitrate;
+        newBitrate = Math.min(currentBitrate, (long) (BETA * base));
+        if (ackedBitrate > 0) {
+          updateLinkCapacity(ackedBitrate / 1000.0);
+        }
+        lastDecreaseMs = nowMs;
+        lastChangeMs = nowMs;
+        state = State.HOLD;
+        break;
+    }
+
+    if (ackedBitrate > 0 && newBitrate > currentBitrate) {
+      long limit = (long) (MAX_ACKED_FACTOR * ackedBitrate) + ACKED_HEADROOM_BPS;
+      if (newBitrate > limit) {
+        newBitrate = Math.max(currentBitrate, limit);
+      }
+    }
+    currentBitrate = clamp(newBitrate);
+    return currentBitrate;
+  }
+
+  private long multiplicativeIncrease(long elapsedMs) {
+    double alpha = Math.pow(MULTIPLICATIVE_INCREASE_PER_SECOND, Math.min(elapsedMs, 1000) / 1000.0);
+    return Math.max((long) (currentBitrate * (alpha - 1)), MIN_MULTIPLICATIVE_INCREASE_BPS);
+  }
+
+  // 每个响应时间（RTT + 100ms）大约增加一个包
+  private long additiveIncrease(long elapsedMs) {
+    long responseTimeMs = rttMs + 100;
+    long increasePerSecond = Math.max(MIN_ADDITIVE_INCREASE_BPS,
+        AVERAGE_PACKET_BITS * 1000L / responseTimeMs);
+    return increasePerSecond * elapsedMs / 1000;
+  }
+
+  private void updateLinkCapacity(double ackedKbps) {
+    if (linkCapacityKbps < 0) {
+      linkCapacityKbps = ackedKbps;
+    } else {
+      linkCapacityKbps = 0.95 * linkCapacityKbps + 0.05 * ackedKbps;
+    }
+    double error = linkCapacityKbps - ackedKbps;
+    linkCapacityVariance = 0.95 * linkCapacityVariance
+        + 0.05 * error * error / Math.max(linkCapacityKbps, 1);
+    linkCapacityVariance = Math.max(0.4, Math.min(2.5, linkCapacityVariance));
+  }
+
+  private double linkCapacitySigma() {
+    return Math.sqrt(linkCapacityVariance * linkCapacityKbps);
+  }
+
+  private long clamp(long bitrate) {
+    return Math.max(minBitrate, Math.min(maxBitrate, bitrate));
+  }
+}
@@ -0,0 +1,10 @@
+package com.marine.secretcamera.bwe;
+
+// 延迟梯度检测的结果
+public enum BandwidthUsage {
+  NORMAL,
+  // 排队延迟在持续增长, 发送速率超过了链路容量
+  OVERUSING,
+  // 排队正在被清空
+  UNDERUSING
+}
@@ -0,0 +1,132 @@
+package com.marine.secretcamera.bwe;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+// 基于延迟梯度的带宽估计（与 WebRTC GCC 的发送端估计同一思路）。
+//  1. 按发送时间把 BURST_INTERVAL_US 内发出的包归为一组（一帧的多个分片通常在同一组）;
+//  2. 相邻两组之间的 到达间隔 - 发送间隔 交给 TrendlineEstimator 判断是否过载;
+//  3. 用接收端实际收到的吞吐量驱动 AimdRateControl 得到目标码率。
+// 不依赖 Android API, 可以直接在单元测试中用模拟的链路驱动。
+public class DelayBasedBwe {
+  private static final long BURST_INTERVAL_US = 5_000;
+  // 吞吐量统计窗口
+  private static final long THROUGHPUT_WINDOW_US = 500_000;
+
+  private TrendlineEstimator trendline = new TrendlineEstimator();
+  private final AimdRateControl rateControl;
+
+  // 当前组与上一组
+  private long groupFirstSendUs = -1;
+  private long groupLastSendUs;
+  private long groupLastArrivalUs;
+  private long prevGroupLastSendUs = -1;
+  private long prevGroupLastArrivalUs;
+
+  // 最近 THROUGHPUT_WINDOW_US 内收到的包: {到达时间, 大小}
+  private final ArrayDeque<long[]> received = new ArrayDeque<>();
+  private long receivedBytes;
+
+  public DelayBasedBwe(long startBitrate, long minBitrate, long maxBitrate) {
+    rateControl = new AimdRateControl(startBitrate, minBitrate, maxBitrate);
+  }
+
+  // 到 ingest 节点的 RTT, 决定两次降速之间至少间隔多久以及加性增长的步长
+  public synchronized void setRtt(long rttMs) {
+    rateControl.setRtt(rttMs);
+  }
+
+  // results 按 transport-wide 序列号（即发送顺序）排列, 需要已经填写发送时间; 返回新的目标码率
+  public synchronized long onFeedback(List<PacketResult> results, long nowMs) {
+    for (PacketResult result : results) {
+      if (!result.received || result.sendTimeUs < 0) {
+        continue;
+      }
+      addThroughputSample(result.arrivalTimeUs, result.size);
+      onPacketArrival(result.sendTimeUs, result.arrivalTimeUs);
+    }
+    return rateControl.update(trendline.getState(), getAckedBitrate(), nowMs);
+  }
+
+  private void onPacketArrival(long sendTimeUs, long arrivalTimeUs) {
+    if (groupFirstSendUs < 0) {
+      startGroup(sendTimeUs, arrivalTimeUs);
+      return;
+    }
+    if (sendTimeUs < groupFirstSendUs) {
+      // 乱序到达的旧包, 不参与分组
+      return;
+    }
+    if (sendTimeUs - groupFirstSendUs <= BURST_INTERVAL_US) {
+      groupLastSendUs = Math.max(groupLastSendUs, sendTimeUs);
+      groupLastArrivalUs = Math.max(groupLastArrivalUs, arrivalTimeUs);
+      return;
+    }
+    // 当前组结束, 与上一组比较
+    if (prevGroupLastSendUs >= 0) {
+      double sendDeltaMs = (groupLastSendUs - prevGroupLastSendUs) / 1000.0;
+      double arrivalDeltaMs = (groupLastArrivalUs - prevGroupLastArrivalUs) / 1000.0;
+      trendline.update(sendDeltaMs, arrivalDeltaMs, groupLastArrivalUs / 1000.0);
+    }
+    prevGroupLastSendUs = groupLastSendUs;
+    prevGroupLastArrivalUs = groupLastArrivalUs;
+    startGroup(sendTimeUs, arrivalTimeUs);
+  }
+
+  private void startGroup(long sendTimeUs, long arrivalTimeUs) {
+    groupFirstSendUs = sendTimeUs;
+    groupLastSendUs = sendTimeUs;
+    groupLastArrivalUs = arrivalTimeUs;
+  }
+
+  private void addThroughputSample(long arrivalTimeUs, int size) {
+    received.addLast(new long[]{arrivalTimeUs, size});
+    receivedBytes += size;
+    while (!received.isEmpty() && arrivalTimeUs - received.peekFirst()[0] > THROUGHPUT_WINDOW_US) {
+      receivedBytes -= received.removeFirst()[1];
+    }
+  }
+
+  // 接收端实际收到的码率, 样本还不够一个窗口时返回 -1
+  public synchronized long getAckedBitrate() {
+    if (received.size() < 2) {
+      return -1;
+    }
+    long spanUs = received.peekLast()[0] - received.peekFirst()[0];
+    if (spanUs < THROUGHPUT_WINDOW_US / 2) {
+      return -1;
+    }
+    return receivedBytes * 8 * 1_000_000 / Math.max(spanUs, 1);
+  }
+
+  // 换了接收端（切换 ingest 节点）: 到达时间换成了另一台机器的时钟, 排队延迟的基线也不同,
+  // 丢掉分组、趋势与吞吐量样本重新开始; 目标码率保持当前值, 由新路径的反馈继续调整
+  public synchronized void onRouteChange() {
+    trendline = new TrendlineEstimator();
+    groupFirstSendUs = -1;
+    prevGroupLastSendUs = -1;
+    received.clear();
+    receivedBytes = 0;
+  }
+
+  public synchronized void setEstimate(long bitrate) {
+    rateControl.setEstimate(bitrate);
+  }
+
+  public synchronized long getTargetBitrate() {
+    return rateControl.getTargetBitrate();
+  }
+
+  public synchronized BandwidthUsage getState() {
+    return trendline.getState();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "target=" + rateControl.getTargetBitrate() / 1000 + "kbps"
+        + " acked=" + getAckedBitrate() / 1000 + "kbps"
+        + " state=" + trendline.getState()
+        + String.format(" trend=%.2f threshold=%.2f",
+            trendline.getModifiedTrend(), trendline.getThreshold());
+  }
+}
@@ -0,0 +1,103 @@
+package com.marine.secretcamera.bwe;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.ConnectivityManager;
+import android.net.LinkProperties;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.net.RouteInfo;
+
+import java.net.InetAddress;
+
+// 按网络缓存带宽探测的结果, 同一个网络上再次启动时用来决定起始码率。
+// 网络用 传输类型 + 网卡名 + 默认网关 + DNS 服务器 + 搜索域 区分, 不需要读取 SSID（读取 SSID 需要定位权限）。
+// 这些信息在不同网络之间仍可能完全相同（例如都是 192.168.1.1 的家用路由器）,
+// 所以缓存只作为起点, 启动时仍然探测一次。
+public class NetworkBandwidthCache {
+  private static final String PREF_NAME = "network_bandwidth_prefs";
+  private static final String KEY_BITRATE_SUFFIX = ".bitrate";
+  private static final String KEY_TIME_SUFFIX = ".time";
+  // 超过这个时间的结果视为过期, 重新探测
+  private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+
+  private static volatile NetworkBandwidthCache instance;
+  private final SharedPreferences prefs;
+  private final ConnectivityManager connectivityManager;
+
+  public static NetworkBandwidthCache getInstance(Context context) {
+    if (instance == null) {
+      synchronized (NetworkBandwidthCache.class) {
+        if (instance == null) {
+          instance = new NetworkBandwidthCache(context.getApplicationContext());
+        }
+      }
+    }
+    return instance;
+  }
+
+  private NetworkBandwidthCache(Context context) {
+    prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+    connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+  }
+
+  // 当前默认网络的标识, 没有网络时返回 null
+  public String getCurrentNetworkKey() {
+    if (connectivityManager == null) {
+      return null;
+    }
+    Network network = connectivityManager.getActiveNetwork();
+    if (network == null) {
+      return null;
+    }
+    NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(network);
+    LinkProperties linkProperties = connectivityManager.getLinkProperties(network);
+    if (capabilities == null || linkProperties == null) {
+      return null;
+    }
+    String transport;
+    if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+      transport = "wifi";
+    } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_ETHERNET)) {
+      transport = "ethernet";
+    } else if (capabilities.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+      transport = "cellular";
+    } else {
+      transport = "other";
+    }
+    String gateway = "";
+    for (RouteInfo route : linkProperties.getRoutes()) {
+      if (route.isDefaultRoute() && route.getGateway() != null) {
+        gateway = route.getGateway().getHostAddress();
+        break;
+      }
+    }
+    StringBuilder dns = new StringBuilder();
+    for (InetAddress server : linkProperties.getDnsServers()) {
+      if (dns.length() > 0) {
+        dns.append(',');
+      }
+      dns.append(server.getHostAddress());
+    }
+    String domains = linkProperties.getDomains();
+    return transport + "|" + linkProperties.getInterfaceName() + "|" + gateway
+        + "|" + dns + "|" + (domains == null ? "" : domains);
+  }
+
+  // 没有缓存或已经过期时返回 -1
+  public long get(String networkKey) {
+    long time = prefs.getLong(networkKey + KEY_TIME_SUFFIX, 0);
+    if (System.currentTimeMillis() - time > MAX_AGE_MS) {
+      return -1;
+    }
+    return prefs.getLong(networkKey + KEY_BITRATE_SUFFIX, -1);
+  }
+
+  public void put(String networkKey, long bitrate) {
+    prefs.edit()
+        .putLong(networkKey + KEY_BITRATE_SUFFIX, bitrate)
+        .putLong(networkKey + KEY_TIME_SUFFIX, System.currentTimeMillis())
+        .apply();
+  }
+}
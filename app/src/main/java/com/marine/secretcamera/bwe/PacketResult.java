@@ -0,0 +1,15 @@
+package com.marine.secretcamera.bwe;
+
+// 一个包的发送与到达信息, 由 transport-wide feedback 与本地发送记录合并得到
+public class PacketResult {
+  // transport-wide 序列号
+  public int sequence;
+  // 本地时钟, -1 表示发送记录已经被覆盖
+  public long sendTimeUs = -1;
+  public int size;
+  // 启动探测的 cluster 编号, -1 表示普通媒体包
+  public int probeClusterId = -1;
+  public boolean received;
+  // 接收端时钟, 只有差值有意义
+  public long arrivalTimeUs;
+}
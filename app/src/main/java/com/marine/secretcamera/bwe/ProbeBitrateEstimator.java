@@ -0,0 +1,112 @@
+package com.marine.secretcamera.bwe;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// 启动阶段的带宽探测结果估计。
+//  PacedSender 按指定速率连续发送一簇（cluster）填充包, 接收端的 transport-wide feedback 回来后:
+//   发送速率 = 除最后一个包外的字节数 / 第一个到最后一个包的发送间隔
+//   接收速率 = 除第一个包外的字节数 / 第一个到最后一个包的到达间隔
+//  接收速率明显低于发送速率说明链路已经饱和, 接收速率就是可用带宽; 否则链路至少能承载发送速率。
+//  所有有效 cluster 中最大的结果作为估计值。
+public class ProbeBitrateEstimator {
+  // 一个 cluster 至少要收到这么多包才有效
+  private static final int MIN_RECEIVED_PACKETS = 5;
+  private static final double MIN_RECEIVED_RATIO = 0.8;
+  // 接收速率低于发送速率的这个比例时认为链路饱和
+  private static final double SATURATION_RATIO = 0.9;
+  // 饱和时在接收速率上再留一点余量
+  private static final double SATURATED_HEADROOM = 0.95;
+
+  private static class Cluster {
+    int sentPackets;
+    int receivedPackets;
+    long receivedBytes;
+    long firstSendUs = Long.MAX_VALUE;
+    long lastSendUs = Long.MIN_VALUE;
+    int lastSendSize;
+    long firstArrivalUs = Long.MAX_VALUE;
+    int firstArrivalSize;
+    long lastArrivalUs = Long.MIN_VALUE;
+  }
+
+  private final Map<Integer, Cluster> clusters = new HashMap<>();
+
+  // 发送 cluster 之前登记包数, 用于判断是否收到了足够的反馈
+  public synchronized void onClusterSent(int clusterId, int packets) {
+    cluster(clusterId).sentPackets = packets;
+  }
+
+  public synchronized void onPacketResult(PacketResult result) {
+    if (result.probeClusterId < 0 || !result.received || result.sendTimeUs < 0) {
+      return;
+    }
+    Cluster c = cluster(result.probeClusterId);
+    c.receivedPackets++;
+    c.receivedBytes += result.size;
+    c.firstSendUs = Math.min(c.firstSendUs, result.sendTimeUs);
+    if (result.sendTimeUs >= c.lastSendUs) {
+      c.lastSendUs = result.sendTimeUs;
+      c.lastSendSize = result.size;
+    }
+    if (result.arrivalTimeUs < c.firstArrivalUs) {
+      c.firstArrivalUs = result.arrivalTimeUs;
+      c.firstArrivalSize = result.size;
+    }
+    c.lastArrivalUs = Math.max(c.lastArrivalUs, result.arrivalTimeUs);
+  }
+
+  private Cluster cluster(int clusterId) {
+    Cluster c = clusters.get(clusterId);
+    if (c == null) {
+      c = new Cluster();
+      clusters.put(clusterId, c);
+    }
+    return c;
+  }
+
+  // 所有已登记的 cluster 都收到了足够的反馈
+  public synchronized boolean isComplete() {
+    if (clusters.isEmpty()) {
+      return false;
+    }
+    for (Cluster c : clusters.values()) {
+      if (!isValid(c)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isValid(Cluster c) {
+    return c.receivedPackets >= MIN_RECEIVED_PACKETS
+        && c.receivedPackets >= c.sentPackets * MIN_RECEIVED_RATIO;
+  }
+
+  // 没有任何有效 cluster 时返回 -1
+  public synchronized long getEstimate() {
+    long best = -1;
+    for (Cluster c : clusters.values()) {
+      if (!isValid(c)) {
+        continue;
+      }
+      long sendIntervalUs = c.lastSendUs - c.firstSendUs;
+      long receiveIntervalUs = c.lastArrivalUs - c.firstArrivalUs;
+      if (sendIntervalUs <= 0 || receiveIntervalUs <= 0) {
+        continue;
+      }
+      double sendRate = (c.receivedBytes - c.lastSendSize) * 8 * 1_000_000.0 / sendIntervalUs;
+      double receiveRate =
+          (c.receivedBytes - c.firstArrivalSize) * 8 * 1_000_000.0 / receiveIntervalUs;
+      long estimate = receiveRate < SATURATION_RATIO * sendRate
+          ? (long) (receiveRate * SATURATED_HEADROOM)
+          : (long) sendRate;
+      best = Math.max(best, estimate);
+    }
+    return best;
+  }
+
+  public synchronized void reset() {
+    clusters.clear();
+  }
+}
@@ -0,0 +1,40 @@
+package com.marine.secretcamera.bwe;
+
+import java.util.Arrays;
+
+// 按 transport-wide 序列号记录每个包的发送时间与大小, 收到 feedback 时查回来。
+// 发送线程写, RTCP 接收线程读。只保留最近 CAPACITY 个包, 更早的 feedback 直接忽略。
+public class SendHistory {
+  private static final int CAPACITY = 1 << 14;
+  private static final int MASK = CAPACITY - 1;
+
+  private final int[] sequences = new int[CAPACITY];
+  private final long[] sendTimesUs = new long[CAPACITY];
+  private final int[] sizes = new int[CAPACITY];
+  private final int[] probeClusterIds = new int[CAPACITY];
+
+  public SendHistory() {
+    Arrays.fill(sequences, -1);
+  }
+
+  public synchronized void onPacketSent(int sequence, long sendTimeUs, int size,
+                                        int probeClusterId) {
+    int index = sequence & MASK;
+    sequences[index] = sequence;
+    sendTimesUs[index] = sendTimeUs;
+    sizes[index] = size;
+    probeClusterIds[index] = probeClusterId;
+  }
+
+  // 找到发送记录时填写 sendTimeUs 与 size 并返回 true
+  public synchronized boolean fill(PacketResult result) {
+    int index = result.sequence & MASK;
+    if (sequences[index] != result.sequence) {
+      return false;
+    }
+    result.sendTimeUs = sendTimesUs[index];
+    result.size = sizes[index];
+    result.probeClusterId = probeClusterIds[index];
+    return true;
+  }
+}
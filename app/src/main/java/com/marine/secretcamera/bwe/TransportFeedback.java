@@ -0,0 +1,114 @@
+package com.marine.secretcamera.bwe;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// RTCP transport-wide congestion control feedback（draft-holmer-rmcat-transport-wide-cc-extensions）
+//   0                   1                   2                   3
+//   0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1
+//  |V=2|P|  FMT=15 |    PT=205     |           length              |
+//  |                     SSRC of packet sender                     |
+//  |                      SSRC of media source                     |
+//  |      base sequence number     |      packet status count      |
+//  |                 reference time                | fb pkt. count |
+//  |          packet chunk         |         packet chunk          |
+//  .                                                               .
+//  |         recv delta            |  recv delta   | zero padding  |
+// packet chunk 有两种:
+//  run length: 0 | S(2) | 13 位长度, 连续多个包的状态相同
+//  status vector: 1 | 0 | 14 个 1 位状态, 或 1 | 1 | 7 个 2 位状态
+// 状态: 0 未收到, 1 小间隔（1 字节无符号）, 2 大间隔或负间隔（2 字节有符号）, 间隔单位 250us
+public class TransportFeedback {
+  public static final int PAYLOAD_TYPE = 205;
+  public static final int FMT = 15;
+  private static final int HEADER_SIZE = 20;
+  private static final long REFERENCE_TIME_UNIT_US = 64_000;
+  private static final long DELTA_UNIT_US = 250;
+
+  private static final int STATUS_NOT_RECEIVED = 0;
+  private static final int STATUS_SMALL_DELTA = 1;
+  private static final int STATUS_LARGE_DELTA = 2;
+
+  // 判断一个 RTCP 包是不是 transport-wide feedback
+  public static boolean isTransportFeedback(byte[] data, int offset, int length) {
+    return length >= HEADER_SIZE
+        && (data[offset] & 0x1F) == FMT
+        && (data[offset + 1] & 0xFF) == PAYLOAD_TYPE;
+  }
+
+  // 从 RTCP 头开始解析, 格式错误时返回 null。返回的结果按序列号排列, 没有填写发送信息
+  public static List<PacketResult> parse(byte[] data, int offset, int length) {
+    if (!isTransportFeedback(data, offset, length)) {
+      return null;
+    }
+    int end = offset + length;
+    int p = offset + 12;
+    int baseSequence = readUint16(data, p);
+    int statusCount = readUint16(data, p + 2);
+    int referenceTime = ((data[p + 4] & 0xFF) << 16)
+        | ((data[p + 5] & 0xFF) << 8)
+        | (data[p + 6] & 0xFF);
+    // 24 位有符号数
+    if ((referenceTime & 0x800000) != 0) {
+      referenceTime |= 0xFF000000;
+    }
+    p += 8;
+
+    int[] statuses = new int[statusCount];
+    int n = 0;
+    while (n < statusCount) {
+      if (p + 2 > end) {
+        return null;
+      }
+      int chunk = readUint16(data, p);
+      p += 2;
+      if ((chunk & 0x8000) == 0) {
+        int status = (chunk >> 13) & 0x03;
+        int runLength = chunk & 0x1FFF;
+        for (int i = 0; i < runLength && n < statusCount; i++) {
+          statuses[n++] = status;
+        }
+      } else if ((chunk & 0x4000) == 0) {
+        for (int i = 13; i >= 0 && n < statusCount; i--) {
+          statuses[n++] = (chunk >> i) & 0x01;
+        }
+      } else {
+        for (int i = 6; i >= 0 && n < statusCount; i--) {
+          statuses[n++] = (chunk >> (i * 2)) & 0x03;
+        }
+      }
+    }
+
+    long arrivalTimeUs = referenceTime * REFERENCE_TIME_UNIT_US;
+    List<PacketResult> results = new ArrayList<>(statusCount);
+    for (int i = 0; i < statusCount; i++) {
+      PacketResult result = new PacketResult();
+      result.sequence = (baseSequence + i) & 0xFFFF;
+      int status = statuses[i];
+      if (status == STATUS_SMALL_DELTA) {
+        if (p + 1 > end) {
+          return null;
+        }
+        arrivalTimeUs += (data[p] & 0xFF) * DELTA_UNIT_US;
+        p += 1;
+        result.received = true;
+      } else if (status == STATUS_LARGE_DELTA) {
+        if (p + 2 > end) {
+          return null;
+        }
+        arrivalTimeUs += ((short) readUint16(data, p)) * DELTA_UNIT_US;
+        p += 2;
+        result.received = true;
+      } else if (status != STATUS_NOT_RECEIVED) {
+        return null;
+      }
+      result.arrivalTimeUs = arrivalTimeUs;
+      results.add(result);
+    }
+    return results;
+  }
+
+  private static int readUint16(byte[] data, int offset) {
+    return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+  }
+}
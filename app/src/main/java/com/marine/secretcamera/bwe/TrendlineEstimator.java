@@ -0,0 +1,146 @@
+package com.marine.secretcamera.bwe;
+
+// 延迟梯度趋势估计与过载检测。
+//  每来一组包, 计算单向延迟的变化量 d = 到达间隔 - 发送间隔 并累加,
+//  对指数平滑后的累计延迟在最近 WINDOW_SIZE 个点上做线性回归, 斜率就是排队延迟的增长趋势。
+//  趋势乘上增益后与自适应阈值比较:
+//   超过阈值且持续 OVERUSE_TIME_MS 以上 -> OVERUSING
+//   低于负阈值 -> UNDERUSING
+//  阈值随趋势缓慢调整, 避免与基于丢包的 TCP 流竞争时被饿死。
+public class TrendlineEstimator {
+  private static final int WINDOW_SIZE = 20;
+  private static final double SMOOTHING = 0.9;
+  private static final double THRESHOLD_GAIN = 4.0;
+  private static final int MAX_DELTAS = 60;
+
+  private static final double INITIAL_THRESHOLD_MS = 12.5;
+  private static final double MIN_THRESHOLD_MS = 6;
+  private static final double MAX_THRESHOLD_MS = 600;
+  private static final double K_UP = 0.0087;
+  private static final double K_DOWN = 0.039;
+  // 趋势远大于阈值时（例如突发的延迟尖峰）不调整阈值
+  private static final double MAX_ADAPT_OFFSET_MS = 15;
+  private static final double OVERUSE_TIME_MS = 10;
+  private static final long MAX_THRESHOLD_UPDATE_INTERVAL_MS = 100;
+
+  // 环形窗口: 到达时间（相对第一个包）与平滑后的累计延迟
+  private final double[] arrivalTimesMs = new double[WINDOW_SIZE];
+  private final double[] smoothedDelaysMs = new double[WINDOW_SIZE];
+  private int count;
+  private int head;
+
+  private double firstArrivalTimeMs = -1;
+  private double accumulatedDelayMs;
+  private double smoothedDelayMs;
+  private int numDeltas;
+
+  private double threshold = INITIAL_THRESHOLD_MS;
+  private double lastThresholdUpdateMs = -1;
+  private double previousTrend;
+  private double timeOverUsingMs = -1;
+  private int overuseCounter;
+  private double modifiedTrend;
+  private BandwidthUsage state = BandwidthUsage.NORMAL;
+
+  // 每完成一组包调用一次, 返回当前的检测结果
+  public BandwidthUsage update(double sendDeltaMs, double arrivalDeltaMs, double arrivalTimeMs) {
+    double delta = arrivalDeltaMs - sendDeltaMs;
+    numDeltas = Math.min(numDeltas + 1, MAX_DELTAS);
+    if (firstArrivalTimeMs < 0) {
+      firstArrivalTimeMs = arrivalTimeMs;
+    }
+    accumulatedDelayMs += delta;
+    smoothedDelayMs = SMOOTHING * smoothedDelayMs + (1 - SMOOTHING) * accumulatedDelayMs;
+
+    arrivalTimesMs[head] = arrivalTimeMs - firstArrivalTimeMs;
+    smoothedDelaysMs[head] = smoothedDelayMs;
+    head = (head + 1) % WINDOW_SIZE;
+    if (count < WINDOW_SIZE) {
+      count++;
+    }
+
+    if (count == WINDOW_SIZE) {
+      detect(linearFitSlope(), sendDeltaMs, arrivalTimeMs);
+    }
+    return state;
+  }
+
+  private double linearFitSlope() {
+    double sumX = 0;
+    double sumY = 0;
+    for (int i = 0; i < count; i++) {
+      sumX += arrivalTimesMs[i];
+      sumY += smoothedDelaysMs[i];
+    }
+    double meanX = sumX / count;
+    double meanY = sumY / count;
+    double numerator = 0;
+    double denominator = 0;
+    for (int i = 0; i < count; i++) {
+      double dx = arrivalTimesMs[i] - meanX;
+      numerator += dx * (smoothedDelaysMs[i] - meanY);
+      denominator += dx * dx;
+    }
+    return denominator == 0 ? previousTrend : numerator / denominator;
+  }
+
+  private void detect(double trend, double sendDeltaMs, double nowMs) {
+    if (numDeltas < 2) {
+      state = BandwidthUsage.NORMAL;
+      return;
+    }
+    modifiedTrend = numDeltas * trend * THRESHOLD_GAIN;
+    if (modifiedTrend > threshold) {
+      if (timeOverUsingMs < 0) {
+        // 假设过载发生在两次采样的中间
+        timeOverUsingMs = sendDeltaMs / 2;
+      } else {
+        timeOverUsingMs += sendDeltaMs;
+      }
+      overuseCounter++;
+      if (timeOverUsingMs > OVERUSE_TIME_MS && overuseCounter > 1 && trend >= previousTrend) {
+        timeOverUsingMs = 0;
+        overuseCounter = 0;
+        state = BandwidthUsage.OVERUSING;
+      }
+    } else if (modifiedTrend < -threshold) {
+      timeOverUsingMs = -1;
+      overuseCounter = 0;
+      state = BandwidthUsage.UNDERUSING;
+    } else {
+      timeOverUsingMs = -1;
+      overuseCounter = 0;
+      state = BandwidthUsage.NORMAL;
+    }
+    previousTrend = trend;
+    updateThreshold(modifiedTrend, nowMs);
+  }
+
+  private void updateThreshold(double modifiedTrend, double nowMs) {
+    if (lastThresholdUpdateMs < 0) {
+      lastThresholdUpdateMs = nowMs;
+    }
+    double absTrend = Math.abs(modifiedTrend);
+    if (absTrend > threshold + MAX_ADAPT_OFFSET_MS) {
+      lastThresholdUpdateMs = nowMs;
+      return;
+    }
+    double k = absTrend < threshold ? K_DOWN : K_UP;
+    double elapsedMs = Math.min(nowMs - lastThresholdUpdateMs, MAX_THRESHOLD_UPDATE_INTERVAL_MS);
+    threshold += k * (absTrend - threshold) * elapsedMs;
+    threshold = Math.max(MIN_THRESHOLD_MS, Math.min(MAX_THRESHOLD_MS, threshold));
+    lastThresholdUpdateMs = nowMs;
+  }
+
+  public BandwidthUsage getState() {
+    return state;
+  }
+
+  public double getModifiedTrend() {
+    return modifiedTrend;
+  }
+
+  public double getThreshold() {
+    return threshold;
+  }
+}
@@ -0,0 +1,109 @@
+package com.marine.secretcamera.device;
+
+import com.marine.secretcamera.pojo.PresenceEvent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// 在线设备列表的本地模型, 以 deviceId 为键。
+//  HTTP 拉取的全量列表通过 replaceAll 覆盖, 之后信令推送的 join / leave / update 增量直接作用在这里,
+//  不用再整表重新拉取。列表按加入的先后排列。
+//  全量列表可能是在拉取过程中任意时刻生成的: beginFetch 之后收到的增量照常生效, 同时记录下来,
+//  replaceAll 覆盖之后按顺序重放一遍, 拉取期间的上下线不会被旧的全量列表冲掉。
+// 只在主线程访问。
+public class DevicePresenceModel {
+  private final Map<String, DeviceInfo> devices = new LinkedHashMap<>();
+  // beginFetch 之后收到的增量, 拉取结束时清空
+  private final List<PresenceEvent> fetchDeltas = new ArrayList<>();
+  private boolean fetching;
+
+  // 发起全量拉取之前调用; 已经在拉取时沿用之前记录的增量
+  public void beginFetch() {
+    if (!fetching) {
+      fetching = true;
+      fetchDeltas.clear();
+    }
+  }
+
+  // 拉取失败时调用, 当前模型已经包含了所有增量
+  public void endFetch() {
+    fetching = false;
+    fetchDeltas.clear();
+  }
+
+  // 返回重建（含重放）之后的列表与之前是否不同
+  public boolean replaceAll(List<DeviceInfo> snapshot) {
+    List<DeviceInfo> before = snapshot();
+    devices.clear();
+    for (DeviceInfo device : snapshot) {
+      if (device != null && device.deviceId != null) {
+        devices.put(device.deviceId, device);
+      }
+    }
+    // join / update / leave 都是幂等的, 全量列表已经包含的增量重放一次结果不变
+    for (PresenceEvent event : fetchDeltas) {
+      applyEvent(event);
+    }
+    endFetch();
+    return !sameDevices(before, devices.values());
+  }
+
+  private static boolean sameDevices(List<DeviceInfo> before, Collection<DeviceInfo> after) {
+    if (before.size() != after.size()) {
+      return false;
+    }
+    Iterator<DeviceInfo> it = after.iterator();
+    for (DeviceInfo b : before) {
+      DeviceInfo a = it.next();
+      if (!Objects.equals(b.deviceId, a.deviceId) || !Objects.equals(b.deviceName, a.deviceName)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // 返回列表是否发生了变化
+  public boolean apply(PresenceEvent event) {
+    if (fetching) {
+      fetchDeltas.add(event);
+    }
+    return applyEvent(event);
+  }
+
+  private boolean applyEvent(PresenceEvent event) {
+    String id = event.getDeviceId();
+    if (id == null || event.getAction() == null) {
+      return false;
+    }
+    switch (event.getAction()) {
+      case PresenceEvent.ACTION_JOIN:
+      case PresenceEvent.ACTION_UPDATE: {
+        DeviceInfo old = devices.get(id);
+        if (old != null && Objects.equals(old.deviceName, event.getDeviceName())) {
+          return false;
+        }
+        // 换成新对象而不是修改原对象, 这样 DiffUtil 才能比较出内容变化
+        devices.put(id, new DeviceInfo(id, event.getDeviceName()));
+        return true;
+      }
+      case PresenceEvent.ACTION_LEAVE:
+        return devices.remove(id) != null;
+      default:
+        return false;
+    }
+  }
+
+  // 交给 AsyncListDiffer 的列表在后台线程比较, 每次都返回新的副本
+  public List<DeviceInfo> snapshot() {
+    return new ArrayList<>(devices.values());
+  }
+
+  public int size() {
+    return devices.size();
+  }
+}
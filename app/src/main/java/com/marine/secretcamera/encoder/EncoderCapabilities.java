@@ -0,0 +1,128 @@
+package com.marine.secretcamera.encoder;
+
+import android.media.MediaCodecInfo;
+import android.os.Build;
+import android.util.Range;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+// 单个编码器的能力快照。
+// 只保存选择编码器与配置低延迟键时需要用到的字段, 可以直接被 Gson 序列化到磁盘缓存中。
+public class EncoderCapabilities {
+  // 探测时逐个检查的尺寸（横屏）与帧率: 覆盖推流档位、simulcast 低层和高帧率模式常见的 high-speed 尺寸
+  private static final int[][] PROBE_SIZES = {{1920, 1080}, {1280, 720}, {640, 480}, {640, 360}};
+  private static final int[] PROBE_FRAME_RATES = {15, 30, 60, 120};
+
+  public String name;
+  public boolean hardware;
+  // 每一项是 {profile, level}
+  public int[][] profileLevels;
+  public int maxWidth;
+  public int maxHeight;
+  public int maxFrameRate;
+  public int minBitrate;
+  public int maxBitrate;
+  public boolean cbr;
+  public boolean vbr;
+  public boolean cq;
+  public boolean intraRefresh;
+  public boolean qpBounds;
+  // 可以同时创建的实例数, 多摄像头同时推流时每路各占一个
+  public int maxInstances;
+  // 探测时 areSizeAndRateSupported 确认过的组合, 每一项是 {width, height, fps}
+  public int[][] supportedModes;
+
+  public static EncoderCapabilities from(MediaCodecInfo info, String mimeType) {
+    MediaCodecInfo.CodecCapabilities caps = info.getCapabilitiesForType(mimeType);
+    EncoderCapabilities result = new EncoderCapabilities();
+    result.name = info.getName();
+    result.hardware = isHardware(info);
+
+    result.profileLevels = new int[caps.profileLevels.length][];
+    for (int i = 0; i < caps.profileLevels.length; i++) {
+      result.profileLevels[i] =
+          new int[]{caps.profileLevels[i].profile, caps.profileLevels[i].level};
+    }
+
+    result.maxInstances = caps.getMaxSupportedInstances();
+
+    MediaCodecInfo.VideoCapabilities videoCaps = caps.getVideoCapabilities();
+    if (videoCaps != null) {
+      result.maxWidth = videoCaps.getSupportedWidths().getUpper();
+      result.maxHeight = videoCaps.getSupportedHeights().getUpper();
+      result.maxFrameRate = videoCaps.getSupportedFrameRates().getUpper();
+      List<int[]> modes = new ArrayList<>();
+      for (int[] size : PROBE_SIZES) {
+        for (int fps : PROBE_FRAME_RATES) {
+          if (videoCaps.areSizeAndRateSupported(size[0], size[1], fps)) {
+            modes.add(new int[]{size[0], size[1], fps});
+          }
+        }
+      }
+      result.supportedModes = modes.toArray(new int[0][]);
+      Range<Integer> bitrates = videoCaps.getBitrateRange();
+      result.minBitrate = bitrates.getLower();
+      result.maxBitrate = bitrates.getUpper();
+    }
+
+    MediaCodecInfo.EncoderCapabilities encoderCaps = caps.getEncoderCapabilities();
+    if (encoderCaps != null) {
+      result.cbr = encoderCaps.isBitrateModeSupported(
+          MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
+      result.vbr = encoderCaps.isBitrateModeSupported(
+          MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR);
+      result.cq = encoderCaps.isBitrateModeSupported(
+          MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ);
+    }
+
+    result.intraRefresh =
+        caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_IntraRefresh);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+      result.qpBounds =
+          caps.isFeatureSupported(MediaCodecInfo.CodecCapabilities.FEATURE_QpBounds);
+    }
+    return result;
+  }
+
+  // Android 10 以上系统直接告诉我们是否是硬件编码器, 更早的版本只能按名字判断
+  private static boolean isHardware(MediaCodecInfo info) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      return info.isHardwareAccelerated() && !info.isSoftwareOnly();
+    }
+    String name = info.getName().toLowerCase(Locale.US);
+    return !name.startsWith("omx.google.")
+        && !name.startsWith("c2.android.")
+        && !name.contains(".sw.");
+  }
+
+  // 宽高允许互换, 竖屏推流时宽高是反过来的。
+  // 宽、高、帧率的上限来自各自独立的范围, 1080p 与 120fps 分别支持不代表 1080p@120 也支持,
+  // 所以只认探测时确认过的组合: 有一个组合的尺寸和帧率都不低于所问的才算支持
+  public boolean supports(int width, int height, int fps) {
+    if (supportedModes == null) {
+      return false;
+    }
+    int w = Math.max(width, height);
+    int h = Math.min(width, height);
+    for (int[] mode : supportedModes) {
+      if (w <= mode[0] && h <= mode[1] && fps <= mode[2]) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public String toString() {
+    return name + (hardware ? " (hw)" : " (sw)")
+        + " max=" + maxWidth + "x" + maxHeight + "@" + maxFrameRate
+        + " bitrate=[" + minBitrate + "," + maxBitrate + "]"
+        + " cbr=" + cbr + " vbr=" + vbr + " cq=" + cq
+        + " intraRefresh=" + intraRefresh + " qpBounds=" + qpBounds
+        + " maxInstances=" + maxInstances
+        + " modes=" + (supportedModes == null ? 0 : supportedModes.length)
+        + " profileLevels=" + (profileLevels == null ? 0 : profileLevels.length);
+  }
+}
@@ -0,0 +1,43 @@
+package com.marine.secretcamera.encoder;
+
+// prepare() 之后编码器实际生效的配置。
+// 每个低延迟相关的键只有在能力检查通过时才会被写入 MediaFormat，
+// configure 之后再用编码器回报的输入 / 输出格式覆盖，编码器没有回报的键保留写入的值；
+// 未设置的键保持 -1 / false，用于统计上报。
+public class EncoderConfig {
+  public String codecName;
+  public EncoderProfile profile;
+  public int width;
+  public int height;
+  public int fps;
+  public int bitrate;
+  // 关键帧间隔（秒）
+  public int iFrameInterval;
+  public String bitrateMode = "default";
+  public boolean lowLatency;
+  public boolean realtimePriority;
+  public int maxBFrames = -1;
+  public int qpMin = -1;
+  public int qpMax = -1;
+  // 帧内刷新周期（帧）
+  public int intraRefreshPeriod = -1;
+  // 时间层数, 1 表示不分层
+  public int temporalLayers = 1;
+  // 高帧率时写入的 KEY_OPERATING_RATE
+  public int operatingRate = -1;
+
+  @Override
+  public String toString() {
+    return codecName + " " + profile
+        + " " + width + "x" + height + "@" + fps
+        + " bitrate=" + bitrate + "(" + bitrateMode + ")"
+        + " iFrameInterval=" + iFrameInterval
+        + " lowLatency=" + lowLatency
+        + " realtime=" + realtimePriority
+        + " maxBFrames=" + maxBFrames
+        + " qp=[" + qpMin + "," + qpMax + "]"
+        + " intraRefresh=" + intraRefreshPeriod
+        + " temporalLayers=" + temporalLayers
+        + " operatingRate=" + operatingRate;
+  }
+}
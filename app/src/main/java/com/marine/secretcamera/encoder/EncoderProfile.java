@@ -0,0 +1,9 @@
+package com.marine.secretcamera.encoder;
+
+// 编码器配置档位
+//  DEFAULT: 只设置码率、帧率、关键帧间隔，其余交给设备默认（通常是 VBR、可能带 B 帧）
+//  LOW_LATENCY: 在编码器支持的前提下，启用低延迟、实时优先级、CBR、禁用 B 帧、QP 上下限和帧内刷新
+public enum EncoderProfile {
+  DEFAULT,
+  LOW_LATENCY
+}
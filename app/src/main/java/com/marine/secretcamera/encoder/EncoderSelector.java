@@ -0,0 +1,155 @@
+package com.marine.secretcamera.encoder;
+
+import android.content.Context;
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.google.gson.Gson;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+// 负责挑选 H.264 编码器。
+// MediaCodec.createEncoderByType 返回的是系统列表里的第一个编码器, 在部分设备上是软件编码器;
+// 而完整枚举 MediaCodecList 又比较慢。这里在第一次启动时枚举一次所有编码器,
+// 以 Build.FINGERPRINT 为键把结果缓存到磁盘, 之后的启动直接读缓存, 系统升级后自动重新探测。
+public class EncoderSelector {
+  private static final String TAG = "EncoderSelector";
+  private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+  private static final String CACHE_FILE = "encoder_capabilities.json";
+  // 缓存格式变化时递增, 旧缓存会被丢弃
+  private static final int CACHE_VERSION = 3;
+
+  private static volatile EncoderSelector instance;
+
+  private final File cacheFile;
+  private final Gson gson = new Gson();
+  private List<EncoderCapabilities> encoders;
+
+  private static class Cache {
+    int version;
+    String fingerprint;
+    List<EncoderCapabilities> encoders;
+  }
+
+  public static EncoderSelector getInstance(Context context) {
+    if (instance == null) {
+      synchronized (EncoderSelector.class) {
+        if (instance == null) {
+          instance = new EncoderSelector(context.getApplicationContext());
+        }
+      }
+    }
+    return instance;
+  }
+
+  private EncoderSelector(Context context) {
+    this.cacheFile = new File(context.getFilesDir(), CACHE_FILE);
+  }
+
+  // 选出最适合给定分辨率与帧率的编码器:
+  //  必须支持该分辨率与帧率, 优先硬件编码器, 其次是支持 CBR、帧内刷新的编码器
+  public synchronized EncoderCapabilities select(int width, int height, int fps) {
+    EncoderCapabilities best = null;
+    int bestScore = Integer.MIN_VALUE;
+    for (EncoderCapabilities caps : getEncoders()) {
+      int score = 0;
+      if (caps.supports(width, height, fps)) score += 10_000;
+      if (caps.hardware) score += 1_000;
+      if (caps.cbr) score += 10;
+      if (caps.intraRefresh) score += 5;
+      if (caps.qpBounds) score += 1;
+      if (score > bestScore) {
+        best = caps;
+        bestScore = score;
+      }
+    }
+    Log.i(TAG, "selected encoder: " + best);
+    return best;
+  }
+
+  public synchronized List<EncoderCapabilities> getEncoders() {
+    if (encoders == null) {
+      long start = SystemClock.elapsedRealtime();
+      encoders = readCache();
+      if (encoders == null) {
+        encoders = probe();
+        writeCache(encoders);
+        Log.i(TAG, "probed " + encoders.size() + " encoders in "
+            + (SystemClock.elapsedRealtime() - start) + "ms");
+      } else {
+        Log.i(TAG, "loaded " + encoders.size() + " encoders from cache in "
+            + (SystemClock.elapsedRealtime() - start) + "ms");
+      }
+    }
+    return encoders;
+  }
+
+  // 缓存里的编码器已经不存在时（例如 ROM 替换了编解码组件）调用, 下次 select 会重新探测
+  public synchronized void invalidate() {
+    encoders = null;
+    if (cacheFile.exists() && !cacheFile.delete()) {
+      Log.w(TAG, "failed to delete encoder cache");
+    }
+  }
+
+  private List<EncoderCapabilities> probe() {
+    List<EncoderCapabilities> result = new ArrayList<>();
+    MediaCodecList codecList = new MediaCodecList(MediaCodecList.REGULAR_CODECS);
+    for (MediaCodecInfo info : codecList.getCodecInfos()) {
+      if (!info.isEncoder()) continue;
+      for (String type : info.getSupportedTypes()) {
+        if (!type.equalsIgnoreCase(MIME_TYPE)) continue;
+        try {
+          result.add(EncoderCapabilities.from(info, MIME_TYPE));
+        } catch (IllegalArgumentException e) {
+          Log.w(TAG, "failed to query capabilities of " + info.getName(), e);
+        }
+        break;
+      }
+    }
+    return result;
+  }
+
+  private List<EncoderCapabilities> readCache() {
+    if (!cacheFile.exists()) {
+      return null;
+    }
+    try (Reader reader = new FileReader(cacheFile)) {
+      Cache cache = gson.fromJson(reader, Cache.class);
+      if (cache == null
+          || cache.version != CACHE_VERSION
+          || !Build.FINGERPRINT.equals(cache.fingerprint)
+          || cache.encoders == null
+          || cache.encoders.isEmpty()) {
+        return null;
+      }
+      return cache.encoders;
+    } catch (Exception e) {
+      Log.w(TAG, "failed to read encoder cache", e);
+      return null;
+    }
+  }
+
+  private void writeCache(List<EncoderCapabilities> encoders) {
+    Cache cache = new Cache();
+    cache.version = CACHE_VERSION;
+    cache.fingerprint = Build.FINGERPRINT;
+    cache.encoders = encoders;
+    try (Writer writer = new FileWriter(cacheFile)) {
+      gson.toJson(cache, writer);
+    } catch (IOException e) {
+      Log.w(TAG, "failed to write encoder cache", e);
+    }
+  }
+}
@@ -3,11 +3,17 @@ package com.marine.secretcamera.encoder;
 import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Bundle;
 import android.util.Log;
 import android.view.Surface;
 
 import com.marine.secretcamera.rtp.H264RtpPacketizer;
-import com.marine.secretcamera.rtp.RtpSession;
+import com.marine.secretcamera.rtp.RtpStream;
+import com.marine.secretcamera.spool.VideoSpool;
+import com.marine.secretcamera.stats.FrameRateMonitor;
+import com.marine.secretcamera.stats.LatencyTracker;
+import com.marine.secretcamera.stats.StartupTracer;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -15,20 +21,94 @@ import java.nio.ByteBuffer;
 public class VideoEncoder {
   private static final String TAG = "VideoEncoder";
   private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
+  private static final int DEFAULT_I_FRAME_INTERVAL = 2;
+  // 启用帧内刷新后的 IDR 间隔（秒）
+  private static final int INTRA_REFRESH_I_FRAME_INTERVAL = 60;
+  private static final int LOW_LATENCY_QP_MIN = 10;
+  private static final int LOW_LATENCY_QP_MAX = 40;
+  // 超过这个帧率时告诉编码器实际的处理速率, 否则部分编码器按 30fps 的时钟运行而跟不上
+  public static final int HIGH_FRAME_RATE_THRESHOLD = 30;
 
   private MediaCodec mediaCodec;
+  private EncoderConfig config;
+  private EncoderCapabilities encoderCapabilities;
+  // 当前 MediaCodec 实例对应的能力, reconfigure 时复用
+  private EncoderCapabilities codecCapabilities;
   private Surface inputSurface;
   private Thread drainThread;
   private volatile boolean running;
+  // 期望的时间层数（L1T2 / L1T3）, 只在 LOW_LATENCY 档位且系统支持时生效
+  private int temporalLayers = 1;
+  // 当前 MediaCodec 拒绝过 KEY_TEMPORAL_LAYERING / KEY_PRIORITY, 之后的 configure 不再写入
+  private boolean temporalLayeringRejected;
+  private boolean priorityRejected;
 
-  private RtpSession rtpSession;
+  private RtpStream rtpStream;
+  // 上行不可用时编码输出写进 spool, 不再交给 RTP
+  private volatile VideoSpool spool;
+  private volatile boolean spooling;
+  // 最近一次的 SPS/PPS, 暂存的每个 GOP 之前都重新写一份, 让每段数据都能独立解码
+  private byte[] codecConfig;
+  // 请求的关键帧之前补发一次 SPS/PPS, 中途加入的接收端（例如切换后的 ingest 节点）才能从这一帧开始解码
+  private volatile boolean resendConfig;
+  private LatencyTracker latencyTracker;
+  private FrameRateMonitor frameRateMonitor;
+  private StartupTracer startupTracer;
 
-  public VideoEncoder(RtpSession rtpSession) {
-    this.rtpSession = rtpSession;
+  public VideoEncoder(RtpStream rtpStream) {
+    this.rtpStream = rtpStream;
   }
 
-  public void setRtpSession(RtpSession rtpSession) {
-    this.rtpSession = rtpSession;
+  public void setRtpStream(RtpStream rtpStream) {
+    this.rtpStream = rtpStream;
+  }
+
+  // 由 EncoderSelector 选出的编码器, 为空时使用系统默认的 H.264 编码器
+  public void setEncoderCapabilities(EncoderCapabilities encoderCapabilities) {
+    this.encoderCapabilities = encoderCapabilities;
+  }
+
+  public void setSpool(VideoSpool spool) {
+    this.spool = spool;
+  }
+
+  // 进入暂存模式时从下一个关键帧开始写入; 退出时由调用方请求关键帧恢复直播
+  public void setSpooling(boolean spooling) {
+    VideoSpool s = spool;
+    if (spooling && s == null) {
+      return;
+    }
+    if (spooling && !this.spooling) {
+      s.startSegment();
+      this.spooling = true;
+      requestKeyFrame();
+    } else if (!spooling) {
+      this.spooling = false;
+    }
+  }
+
+  public boolean isSpooling() {
+    return spooling;
+  }
+
+  // 每一帧发送完成后通知 latencyTracker，用于统计镜头到网络的延迟
+  public void setLatencyTracker(LatencyTracker latencyTracker) {
+    this.latencyTracker = latencyTracker;
+  }
+
+  // 每输出一帧通知 frameRateMonitor, 用于检查编码是否跟得上帧率
+  public void setFrameRateMonitor(FrameRateMonitor frameRateMonitor) {
+    this.frameRateMonitor = frameRateMonitor;
+  }
+
+  // 第一段编码数据发出后标记 FIRST_RTP_PACKET
+  public void setStartupTracer(StartupTracer startupTracer) {
+    this.startupTracer = startupTracer;
+  }
+
+  // 需要在 prepare / reconfigure 之前设置
+  public void setTemporalLayers(int temporalLayers) {
+    this.temporalLayers = temporalLayers;
   }
 
   private final H264RtpPacketizer packetizer = new H264RtpPacketizer();
@@ -38,45 +118,308 @@ public class VideoEncoder {
 
   // return the surface to be used in CameraActivity
   public Surface prepare(int width, int height, int fps, int bitrate) throws IOException {
-    // MediaFormat 定义了输入和输出视频流的各种属性，最终决定了输出的 H.264 视频流将遵循什么样的规范。
+    return prepare(width, height, fps, bitrate, EncoderProfile.DEFAULT);
+  }
+
+  public Surface prepare(int width, int height, int fps, int bitrate, EncoderProfile profile)
+      throws IOException {
+    // 创建一个专门用于 H.264 编码的 MediaCodec 实例
+    mediaCodec = createCodec();
+    temporalLayeringRejected = false;
+    priorityRejected = false;
+    // 能力检查优先使用 EncoderSelector 缓存的结果, 避免在启动路径上查询 MediaCodecInfo
+    codecCapabilities = encoderCapabilities;
+    if (codecCapabilities == null || !codecCapabilities.name.equals(mediaCodec.getName())) {
+      codecCapabilities = EncoderCapabilities.from(mediaCodec.getCodecInfo(), MIME_TYPE);
+    }
+
+    // 当摄像头或者OpenGL ES将图像数据（通常是YUV420格式）渲染到这个Surface上时，
+    // MediaCodec 会自动获取这些数据并启动硬件加速的编码过程。
+    // 使用 persistent input surface: Surface 的生命周期独立于 MediaCodec,
+    // 相机会话重建（旋转、切后台、切换摄像头）时编码器与 Surface 都不需要重新创建。
+    if (inputSurface == null) {
+      inputSurface = MediaCodec.createPersistentInputSurface();
+    }
+
+    // 在 OnEncodeFrame 中的 packetizer.consume(data); 会在分割完成每个NALU 之后调用回调函数,
+    // 这个回调函数会调用 rtpStream 中的 sendNalu 方法
+    packetizer.setCallback((nalu, type, isKeyFrame, presentationTimeUs, marking) -> {
+      Log.d("RTP", "NALU type=" + type + " size=" + nalu.length);
+      rtpStream.sendNalu(nalu, type, isKeyFrame, presentationTimeUs, marking);
+    });
+
+    configureAndStart(width, height, fps, bitrate, profile);
+    return inputSurface;
+  }
+
+  // 运行时切换分辨率 / 帧率: 复用同一个 MediaCodec 实例与 persistent input surface,
+  // 只重新 configure。输出的 SPS/PPS 会变化, RtpStream 的 SSRC、序列号与时间戳基准保持不变。
+  // 调用方需要先停止往 inputSurface 送帧（关闭 capture session）, 完成后再重新建立会话。
+  public void reconfigure(int width, int height, int fps, int bitrate) {
+    if (mediaCodec == null) {
+      return;
+    }
+    EncoderProfile profile = config != null ? config.profile : EncoderProfile.DEFAULT;
+    stopDrainThread();
+    mediaCodec.stop();
+    configureAndStart(width, height, fps, bitrate, profile);
+  }
+
+  private void configureAndStart(int width, int height, int fps, int bitrate,
+                                 EncoderProfile profile) {
+    EncoderConfig newConfig = new EncoderConfig();
+    MediaFormat format =
+        createFormat(width, height, fps, bitrate, profile, codecCapabilities, newConfig);
+    RuntimeException error = tryConfigure(format);
+    if (error != null && newConfig.temporalLayers > 1) {
+      // 时间分层没有能力可以查询, 只能试; 被拒绝时只去掉这一个键重试, 低延迟与帧内刷新照常生效
+      Log.w(TAG, "configure with temporal layering failed, retrying without it", error);
+      temporalLayeringRejected = true;
+      newConfig = new EncoderConfig();
+      format = createFormat(width, height, fps, bitrate, profile, codecCapabilities, newConfig);
+      error = tryConfigure(format);
+    }
+    if (error != null && newConfig.realtimePriority) {
+      // KEY_PRIORITY 同样没有能力可以查询
+      Log.w(TAG, "configure with realtime priority failed, retrying without it", error);
+      priorityRejected = true;
+      newConfig = new EncoderConfig();
+      format = createFormat(width, height, fps, bitrate, profile, codecCapabilities, newConfig);
+      error = tryConfigure(format);
+    }
+    if (error != null) {
+      if (profile == EncoderProfile.DEFAULT) {
+        throw error;
+      }
+      // 个别编码器声明支持却拒绝这些键, 退回到默认配置
+      Log.w(TAG, "configure with " + profile + " failed, falling back to DEFAULT", error);
+      newConfig = new EncoderConfig();
+      format = createFormat(width, height, fps, bitrate, EncoderProfile.DEFAULT,
+          codecCapabilities, newConfig);
+      mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+    }
+    newConfig.codecName = mediaCodec.getName();
+    readBack(newConfig, mediaCodec.getInputFormat());
+    readBack(newConfig, mediaCodec.getOutputFormat());
+    config = newConfig;
+    // 退回 DEFAULT 时不分层, 打包器也按单层标记
+    packetizer.setTemporalLayers(config.temporalLayers);
+
+    mediaCodec.setInputSurface(inputSurface);
+    mediaCodec.start();
+    startDrainThread();
+    Log.i(TAG, "VideoEncode prepared: " + config);
+  }
+
+  // 用编码器回报的格式覆盖请求的值: 编码器可能调整分辨率对齐、码率上限等, 或者默默忽略某些键。
+  // 格式里没有出现的键无从判断, 保留请求的值。
+  private static void readBack(EncoderConfig config, MediaFormat format) {
+    config.width = getInt(format, MediaFormat.KEY_WIDTH, config.width);
+    config.height = getInt(format, MediaFormat.KEY_HEIGHT, config.height);
+    config.fps = getInt(format, MediaFormat.KEY_FRAME_RATE, config.fps);
+    config.bitrate = getInt(format, MediaFormat.KEY_BIT_RATE, config.bitrate);
+    config.iFrameInterval = getInt(format, MediaFormat.KEY_I_FRAME_INTERVAL, config.iFrameInterval);
+    if (format.containsKey(MediaFormat.KEY_PRIORITY)) {
+      config.realtimePriority = getInt(format, MediaFormat.KEY_PRIORITY, 1) == 0;
+    }
+    if (format.containsKey(MediaFormat.KEY_BITRATE_MODE)) {
+      int mode = getInt(format, MediaFormat.KEY_BITRATE_MODE, -1);
+      if (mode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR) {
+        config.bitrateMode = "CBR";
+      } else if (mode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_VBR) {
+        config.bitrateMode = "VBR";
+      } else if (mode == MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CQ) {
+        config.bitrateMode = "CQ";
+      }
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+        && format.containsKey(MediaFormat.KEY_LATENCY)) {
+      config.lowLatency = getInt(format, MediaFormat.KEY_LATENCY, 0) == 1;
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      config.maxBFrames = getInt(format, MediaFormat.KEY_MAX_B_FRAMES, config.maxBFrames);
+      String layering = format.getString(MediaFormat.KEY_TEMPORAL_LAYERING);
+      if (layering != null) {
+        config.temporalLayers = parseTemporalLayers(layering, config.temporalLayers);
+      }
+    }
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+      config.qpMin = getInt(format, MediaFormat.KEY_VIDEO_QP_MIN, config.qpMin);
+      config.qpMax = getInt(format, MediaFormat.KEY_VIDEO_QP_MAX, config.qpMax);
+    }
+    config.intraRefreshPeriod =
+        getInt(format, MediaFormat.KEY_INTRA_REFRESH_PERIOD, config.intraRefreshPeriod);
+    config.operatingRate = getInt(format, MediaFormat.KEY_OPERATING_RATE, config.operatingRate);
+  }
+
+  // 有的编码器把帧率、关键帧间隔等写成 float
+  private static int getInt(MediaFormat format, String key, int fallback) {
+    if (!format.containsKey(key)) {
+      return fallback;
+    }
+    try {
+      return format.getInteger(key);
+    } catch (ClassCastException e) {
+      try {
+        return Math.round(format.getFloat(key));
+      } catch (ClassCastException e2) {
+        return fallback;
+      }
+    }
+  }
+
+  // "android.generic.N" 或 "android.generic.N+M", 只统计 P 帧时间层数 N; "none" 表示不分层
+  private static int parseTemporalLayers(String layering, int fallback) {
+    if ("none".equals(layering)) {
+      return 1;
+    }
+    String prefix = "android.generic.";
+    if (!layering.startsWith(prefix)) {
+      return fallback;
+    }
+    String n = layering.substring(prefix.length());
+    int plus = n.indexOf('+');
+    try {
+      return Integer.parseInt(plus >= 0 ? n.substring(0, plus) : n);
+    } catch (NumberFormatException e) {
+      return fallback;
+    }
+  }
+
+  // configure 失败时 reset 编码器以便重试, 返回异常; 成功时返回 null
+  private RuntimeException tryConfigure(MediaFormat format) {
+    try {
+      mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+      return null;
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      mediaCodec.reset();
+      return e;
+    }
+  }
+
+  // 运行时调整目标码率, 不需要重新 configure
+  public void setBitrate(int bitrate) {
+    MediaCodec codec = mediaCodec;
+    if (codec == null) {
+      return;
+    }
+    Bundle params = new Bundle();
+    params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, bitrate);
+    try {
+      codec.setParameters(params);
+      config.bitrate = bitrate;
+    } catch (IllegalStateException e) {
+      Log.w(TAG, "failed to set bitrate", e);
+    }
+  }
+
+  // 帧率只影响相机送帧的速度, 编码器按时间戳做码率控制, 这里只记录以便上报;
+  // 跨过 HIGH_FRAME_RATE_THRESHOLD 时需要 reconfigure 才能更新 KEY_OPERATING_RATE
+  public void setFrameRate(int fps) {
+    if (config != null) {
+      config.fps = fps;
+    }
+  }
+
+  private MediaCodec createCodec() throws IOException {
+    if (encoderCapabilities != null) {
+      try {
+        return MediaCodec.createByCodecName(encoderCapabilities.name);
+      } catch (IOException | IllegalArgumentException e) {
+        Log.w(TAG, "failed to create " + encoderCapabilities.name + ", using platform default", e);
+      }
+    }
+    return MediaCodec.createEncoderByType(MIME_TYPE);
+  }
+
+  // MediaFormat 定义了输入和输出视频流的各种属性，最终决定了输出的 H.264 视频流将遵循什么样的规范。
+  private MediaFormat createFormat(int width, int height, int fps, int bitrate,
+                                   EncoderProfile profile,
+                                   EncoderCapabilities caps,
+                                   EncoderConfig config) {
     MediaFormat format = MediaFormat.createVideoFormat(MIME_TYPE, width, height);
     // 设置比特率 它规定了编码器每秒钟可以用多少数据来描述视频画面。
     // 例如，如果您设置的 bitrate 是 2,000,000 (即 2 Mbps)，编码器就会尽量将每秒的视频数据压缩到 2 Mbits 左右。
     format.setInteger(MediaFormat.KEY_BIT_RATE, bitrate);
     // 设置传递而来的fps参数
     format.setInteger(MediaFormat.KEY_FRAME_RATE, fps);
-    // 设置每两秒一个关键帧
-    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, 2);
-
+    if (fps > HIGH_FRAME_RATE_THRESHOLD) {
+      format.setInteger(MediaFormat.KEY_OPERATING_RATE, fps);
+      config.operatingRate = fps;
+    }
     format.setInteger(
         MediaFormat.KEY_COLOR_FORMAT,
         MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface
     );
 
+    config.profile = profile;
+    config.width = width;
+    config.height = height;
+    config.fps = fps;
+    config.bitrate = bitrate;
+    // 设置每两秒一个关键帧
+    config.iFrameInterval = DEFAULT_I_FRAME_INTERVAL;
 
-    // 创建一个专门用于 H.264 编码的 MediaCodec 实例
-    mediaCodec = MediaCodec.createEncoderByType(MIME_TYPE);
-    mediaCodec.configure(
-        format,
-        null,
-        null,
-        MediaCodec.CONFIGURE_FLAG_ENCODE
-    );
-    // 当摄像头或者OpenGL ES将图像数据（通常是YUV420格式）渲染到这个Surface上时，
-    // MediaCodec 会自动获取这些数据并启动硬件加速的编码过程。
-    inputSurface = mediaCodec.createInputSurface();
-    mediaCodec.start();
-    startDrainThread();
-    Log.i(TAG, "VideoEncode prepared: " + width + "x" + height);
+    if (profile == EncoderProfile.LOW_LATENCY) {
+      applyLowLatency(format, fps, caps, config);
+    }
+    format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, config.iFrameInterval);
+    return format;
+  }
 
-    // 在 OnEncodeFrame 中的 packetizer.consume(data); 会在分割完成每个NALU 之后调用回调函数,
-    // 这个回调函数会调用 rtpSession 中的 sendNalu 方法
-    packetizer.setCallback((nalu, type, isKeyFrame) -> {
-      Log.d("RTP", "NALU type=" + type + " size=" + nalu.length);
-      rtpSession.sendNalu(nalu, type, isKeyFrame);
-    });
+  // 每个键都先检查系统版本与编码器能力, 不支持的键不写入, 避免 configure 失败
+  private void applyLowLatency(MediaFormat format, int fps,
+                               EncoderCapabilities caps,
+                               EncoderConfig config) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      // 编码器最多缓存 1 帧就必须输出
+      format.setInteger(MediaFormat.KEY_LATENCY, 1);
+      config.lowLatency = true;
+    }
 
-    return inputSurface;
+    if (!priorityRejected) {
+      // 0 表示实时优先级; 没有能力可以查询, 被拒绝时由上层去掉这个键重试
+      format.setInteger(MediaFormat.KEY_PRIORITY, 0);
+      config.realtimePriority = true;
+    }
+
+    if (caps.cbr) {
+      format.setInteger(MediaFormat.KEY_BITRATE_MODE,
+          MediaCodecInfo.EncoderCapabilities.BITRATE_MODE_CBR);
+      config.bitrateMode = "CBR";
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      // B 帧需要等待后续帧才能输出，直接关闭
+      format.setInteger(MediaFormat.KEY_MAX_B_FRAMES, 0);
+      config.maxBFrames = 0;
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && caps.qpBounds) {
+      format.setInteger(MediaFormat.KEY_VIDEO_QP_MIN, LOW_LATENCY_QP_MIN);
+      format.setInteger(MediaFormat.KEY_VIDEO_QP_MAX, LOW_LATENCY_QP_MAX);
+      config.qpMin = LOW_LATENCY_QP_MIN;
+      config.qpMax = LOW_LATENCY_QP_MAX;
+    }
+
+    if (caps.intraRefresh) {
+      // 每秒完成一轮帧内刷新, 用逐步刷新代替周期性的 IDR 尖峰,
+      // 仍保留一个很长的 IDR 间隔, 以便解码器长时间出错后能够恢复
+      format.setInteger(MediaFormat.KEY_INTRA_REFRESH_PERIOD, fps);
+      config.intraRefreshPeriod = fps;
+      config.iFrameInterval = INTRA_REFRESH_I_FRAME_INTERVAL;
+    }
+
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && temporalLayers > 1
+        && !temporalLayeringRejected) {
+      // android.generic.N: N 个时间层, 全部是 P 帧。不支持的编码器会拒绝 configure, 由上层去掉这个键重试
+      format.setString(MediaFormat.KEY_TEMPORAL_LAYERING, "android.generic." + temporalLayers);
+      config.temporalLayers = temporalLayers;
+    }
+  }
+
+  public EncoderConfig getConfig() {
+    return config;
   }
 
   private void startDrainThread() {
@@ -85,6 +428,18 @@ public class VideoEncoder {
     drainThread.start();
   }
 
+  private void stopDrainThread() {
+    running = false;
+
+    if (drainThread != null) {
+      try {
+        drainThread.join();
+      } catch (InterruptedException ignored) {
+      }
+      drainThread = null;
+    }
+  }
+
   // drainEncoder 的核心任务就是持续地从编码器（Encoder）的“输出管道”中将已经编码完成的数据
   // （即H.264视频帧）给“抽”出来，然后进行下一步处理。
   private void drainEncoder() {
@@ -116,9 +471,32 @@ public class VideoEncoder {
           encodedData.position(bufferInfo.offset);
           encodedData.limit(bufferInfo.offset + bufferInfo.size);
 
-          // 🚩 这里就是“编码完成的数据出口
-          packetizer.consume(encodedData);
+          boolean isConfig = (bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0;
+          if (isConfig) {
+            codecConfig = new byte[encodedData.remaining()];
+            encodedData.duplicate().get(codecConfig);
+          } else if (frameRateMonitor != null) {
+            frameRateMonitor.onFrameEncoded(bufferInfo.presentationTimeUs);
+          }
+          if (spooling) {
+            spoolFrame(encodedData, bufferInfo);
+          } else {
+            if (resendConfig && !isConfig && codecConfig != null
+                && (bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+              resendConfig = false;
+              packetizer.consume(ByteBuffer.wrap(codecConfig), bufferInfo.presentationTimeUs);
+            }
+            // 🚩 这里就是“编码完成的数据出口
+            packetizer.consume(encodedData, bufferInfo.presentationTimeUs);
+            if (startupTracer != null && rtpStream.isSending()) {
+              startupTracer.mark(StartupTracer.FIRST_RTP_PACKET);
+            }
 
+            // consume 是同步的, 返回时这一帧的 RTP 包已经全部发出
+            if (!isConfig && latencyTracker != null) {
+              latencyTracker.onFrameSent(bufferInfo.presentationTimeUs);
+            }
+          }
         }
         // 归还这个索引指向的输出缓冲区
         mediaCodec.releaseOutputBuffer(index, false);
@@ -127,16 +505,47 @@ public class VideoEncoder {
   }
 
 
-  public void stop() {
-    running = false;
-
-    if (drainThread != null) {
-      try {
-        drainThread.join();
-      } catch (InterruptedException ignored) {
+  private void spoolFrame(ByteBuffer encodedData, MediaCodec.BufferInfo bufferInfo) {
+    VideoSpool s = spool;
+    if (s == null) {
+      return;
+    }
+    long pts = bufferInfo.presentationTimeUs;
+    if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+      s.write(VideoSpool.TYPE_CONFIG, pts, encodedData);
+    } else if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_KEY_FRAME) != 0) {
+      if (codecConfig != null) {
+        s.write(VideoSpool.TYPE_CONFIG, pts, ByteBuffer.wrap(codecConfig));
       }
-      drainThread = null;
+      s.write(VideoSpool.TYPE_KEY, pts, encodedData);
+    } else {
+      s.write(VideoSpool.TYPE_DELTA, pts, encodedData);
     }
+  }
+
+  public boolean isPrepared() {
+    return mediaCodec != null;
+  }
+
+  // 相机会话重建后画面会有一段空档, 请求一个关键帧让接收端尽快恢复
+  public void requestKeyFrame() {
+    MediaCodec codec = mediaCodec;
+    if (codec == null) {
+      return;
+    }
+    resendConfig = true;
+    Bundle params = new Bundle();
+    params.putInt(MediaCodec.PARAMETER_KEY_REQUEST_SYNC_FRAME, 0);
+    try {
+      codec.setParameters(params);
+    } catch (IllegalStateException e) {
+      Log.w(TAG, "failed to request key frame", e);
+    }
+  }
+
+  // 停止并释放 MediaCodec, 但保留 persistent input surface, 以便下次 prepare 复用
+  public void stop() {
+    stopDrainThread();
 
     if (mediaCodec != null) {
       mediaCodec.stop();
@@ -144,7 +553,15 @@ public class VideoEncoder {
       mediaCodec = null;
     }
 
-    inputSurface = null;
     Log.i(TAG, "VideoEncoder stopped");
   }
+
+  // 彻底释放编码器, 包括 persistent input surface
+  public void release() {
+    stop();
+    if (inputSurface != null) {
+      inputSurface.release();
+      inputSurface = null;
+    }
+  }
 }
@@ -0,0 +1,203 @@
+package com.marine.secretcamera.net;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.marine.secretcamera.R;
+import com.marine.secretcamera.device.DeviceInfo;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okhttp3.CacheControl;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+// 分页拉取在线设备列表。
+//  GET /api/online_devices?limit=N[&cursor=C], 服务端返回
+//   {"devices": [...], "nextCursor": "..."}   分页格式, nextCursor 为空表示最后一页;
+//   [...]                                      旧格式, 整个列表一次返回。
+//  每页都通过带磁盘缓存的 client 请求, 并要求重新验证（no-cache）:
+//  服务端返回 304 时直接复用上一次解析好的这一页, 省掉下载与解析。
+//  所有页都没有变化时也把拼好的全量列表回调给 onDevices: 304 只说明它和上一次拉取的结果相同,
+//  本地模型在那之后可能已经应用过增量（包括断线期间漏掉的）, 仍然需要用全量列表重建。
+//  响应体用 JsonReader 边读边解码, 不会先把整个响应读成字符串。
+public class DeviceListFetcher {
+  private static final String TAG = "DeviceListFetcher";
+  private static final String PATH = "api/online_devices";
+  private static final int PAGE_SIZE = 200;
+  private static final CacheControl REVALIDATE = new CacheControl.Builder().noCache().build();
+
+  // 在 OkHttp 的线程中回调
+  public interface OnResultListener {
+    void onDevices(List<DeviceInfo> devices);
+
+    void onError(Exception e);
+  }
+
+  private static class Page {
+    final List<DeviceInfo> devices;
+    final String nextCursor;
+
+    Page(List<DeviceInfo> devices, String nextCursor) {
+      this.devices = devices;
+      this.nextCursor = nextCursor;
+    }
+  }
+
+  private final OkHttpClient client;
+  private final HttpUrl url;
+  private final TypeAdapter<DeviceInfo> deviceAdapter = new Gson().getAdapter(DeviceInfo.class);
+  private final OnResultListener listener;
+  // 上一次拉取到的每一页, 以请求这一页用的 cursor 为键（第一页为 ""）
+  private final Map<String, Page> lastPages = new HashMap<>();
+  private final AtomicBoolean fetching = new AtomicBoolean();
+
+  public DeviceListFetcher(Context context, OnResultListener listener) {
+    this.client = OkHttpManager.getCachingInstance(context);
+    this.url = HttpUrl.get(context.getString(R.string.api_base_url)).resolve(PATH);
+    this.listener = listener;
+  }
+
+  // 已经在拉取时直接忽略, 结果由正在进行的那一次回调
+  public void refresh() {
+    if (!fetching.compareAndSet(false, true)) {
+      return;
+    }
+    fetchPage("", new ArrayList<>(), new HashMap<>(), false);
+  }
+
+  private void fetchPage(String cursor, List<DeviceInfo> devices, Map<String, Page> pages,
+                         boolean changed) {
+    HttpUrl.Builder pageUrl = url.newBuilder()
+        .addQueryParameter("limit", String.valueOf(PAGE_SIZE));
+    if (!cursor.isEmpty()) {
+      pageUrl.addQueryParameter("cursor", cursor);
+    }
+    Request request = new Request.Builder()
+        .url(pageUrl.build())
+        .cacheControl(REVALIDATE)
+        .build();
+    client.newCall(request).enqueue(new Callback() {
+      @Override
+      public void onFailure(@NonNull Call call, @NonNull IOException e) {
+        finish();
+        listener.onError(e);
+      }
+
+      @Override
+      public void onResponse(@NonNull Call call, @NonNull Response response) {
+        Page page;
+        boolean pageChanged;
+        try (Response r = response) {
+          if (!r.isSuccessful()) {
+            throw new IOException("unexpected response " + r.code());
+          }
+          Page previous = lastPages.get(cursor);
+          pageChanged = previous == null || !isNotModified(r);
+          if (pageChanged) {
+            ResponseBody body = r.body();
+            if (body == null) {
+              throw new IOException("empty response body");
+            }
+            page = readPage(body);
+          } else {
+            page = previous;
+          }
+        } catch (IOException | RuntimeException e) {
+          finish();
+          listener.onError(e);
+          return;
+        }
+
+        devices.addAll(page.devices);
+        pages.put(cursor, page);
+        boolean anyChanged = changed || pageChanged;
+        // 防止服务端返回重复的 cursor 导致死循环
+        if (page.nextCursor != null && !page.nextCursor.isEmpty()
+            && !pages.containsKey(page.nextCursor)) {
+          fetchPage(page.nextCursor, devices, pages, anyChanged);
+          return;
+        }
+        // 页数变少时也算变化
+        anyChanged |= pages.size() != lastPages.size();
+        lastPages.clear();
+        lastPages.putAll(pages);
+        finish();
+        Log.d(TAG, "fetched " + devices.size() + " devices in " + pages.size() + " pages"
+            + (anyChanged ? "" : " (not modified)"));
+        listener.onDevices(devices);
+      }
+    });
+  }
+
+  private void finish() {
+    fetching.set(false);
+  }
+
+  // 304 重新验证成功, 或者缓存仍然新鲜没有走网络
+  private static boolean isNotModified(Response response) {
+    Response network = response.networkResponse();
+    return network == null || network.code() == 304;
+  }
+
+  private Page readPage(ResponseBody body) throws IOException {
+    List<DeviceInfo> devices = new ArrayList<>();
+    String nextCursor = null;
+    try (JsonReader reader = new JsonReader(body.charStream())) {
+      if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+        readDevices(reader, devices);
+      } else {
+        reader.beginObject();
+        while (reader.hasNext()) {
+          String name = reader.nextName();
+          if ("devices".equals(name) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+            readDevices(reader, devices);
+          } else if ("nextCursor".equals(name) && reader.peek() == JsonToken.STRING) {
+            nextCursor = reader.nextString();
+          } else {
+            reader.skipValue();
+          }
+        }
+        reader.endObject();
+      }
+    }
+    return new Page(devices, nextCursor);
+  }
+
+  private void readDevices(JsonReader reader, List<DeviceInfo> out) throws IOException {
+    reader.beginArray();
+    while (reader.hasNext()) {
+      DeviceInfo device = readDevice(reader);
+      if (device != null && device.deviceId != null) {
+        out.add(device);
+      }
+    }
+    reader.endArray();
+  }
+
+  @Nullable
+  private DeviceInfo readDevice(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return deviceAdapter.read(reader);
+  }
+}
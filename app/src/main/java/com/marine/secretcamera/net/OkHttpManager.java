@@ -1,10 +1,17 @@
 package com.marine.secretcamera.net;
 
+import android.content.Context;
+
+import java.io.File;
 import java.util.concurrent.TimeUnit;
 
+import okhttp3.Cache;
 import okhttp3.OkHttpClient;
 
 public class OkHttpManager {
+  // HTTP 磁盘缓存大小, 只用来保存列表类接口的响应与 ETag
+  private static final long CACHE_SIZE_BYTES = 4 * 1024 * 1024;
+
   private static final OkHttpClient instance = new OkHttpClient.Builder()
       .connectTimeout(5, TimeUnit.SECONDS)
       .readTimeout(5, TimeUnit.SECONDS)
@@ -12,10 +19,28 @@ public class OkHttpManager {
       .pingInterval(30, TimeUnit.SECONDS)
       .build();
 
+  private static volatile OkHttpClient cachingInstance;
+
   private OkHttpManager() {}
 
   public static OkHttpClient getInstance() {
     return instance;
   }
 
+  // 带磁盘缓存的 client, 与 getInstance() 共用连接池和线程池。
+  // 服务端返回 ETag 时, OkHttp 会自动带上 If-None-Match 重新验证, 没有变化时只返回 304
+  public static OkHttpClient getCachingInstance(Context context) {
+    if (cachingInstance == null) {
+      synchronized (OkHttpManager.class) {
+        if (cachingInstance == null) {
+          File dir = new File(context.getApplicationContext().getCacheDir(), "http");
+          cachingInstance = instance.newBuilder()
+              .cache(new Cache(dir, CACHE_SIZE_BYTES))
+              .build();
+        }
+      }
+    }
+    return cachingInstance;
+  }
+
 }
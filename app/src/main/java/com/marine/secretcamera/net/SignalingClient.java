@@ -0,0 +1,252 @@
+package com.marine.secretcamera.net;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.gson.Gson;
+import com.marine.secretcamera.device.DeviceInfo;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+
+// 进程内唯一的信令连接。
+//  所有页面与服务共用一条 WebSocket, 按消息的 type 分发给各自注册的 handler;
+//  连接断开后按带随机抖动的指数退避重连, 服务端重启时上千台设备不会在同一时刻一起重连;
+//  离线期间发送的消息先放进队列, 重新连上并上线之后再依次发出。
+// 消息格式: {"type": "...", "data": {...}}
+public class SignalingClient {
+  private static final String TAG = "SignalingClient";
+
+  public static final String TYPE_ONLINE = "goOnline";
+  public static final String TYPE_PUSH_REQUEST = "push_request";
+  public static final String TYPE_PUSH_RESPONSE = "push_response";
+  public static final String TYPE_PRESENCE = "presence";
+
+  // 重连间隔: 1s, 2s, 4s ... 最多 60s, 实际等待时间在 [0, 间隔) 之间随机
+  private static final long RECONNECT_BASE_MS = 1_000;
+  private static final long RECONNECT_MAX_MS = 60_000;
+  // 离线队列上限, 超过时丢弃最早的消息
+  private static final int MAX_PENDING_MESSAGES = 64;
+
+  private static volatile SignalingClient instance;
+
+  // 在 OkHttp 的读线程中回调, 需要操作界面时自行切换到主线程
+  public interface MessageHandler<T> {
+    void onMessage(T data);
+  }
+
+  // 连接建立（包括重连）并上线之后回调, reconnected 表示之前已经连上过;
+  // 断线期间错过的增量消息需要由使用方重新拉取全量状态来弥补
+  public interface OnConnectedListener {
+    void onConnected(boolean reconnected);
+  }
+
+  // 发出的消息; data 声明为 Object 时 Gson 按实际类型序列化
+  private static class Envelope {
+    final String type;
+    final Object data;
+
+    Envelope(String type, Object data) {
+      this.type = type;
+      this.data = data;
+    }
+  }
+
+  private final Gson gson = new Gson();
+  private final Random random = new Random();
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final SignalingDecoder decoder = new SignalingDecoder(gson);
+  private final ArrayDeque<String> pendingMessages = new ArrayDeque<>();
+  private final List<OnConnectedListener> connectedListeners = new CopyOnWriteArrayList<>();
+
+  // 以下状态都在 this 上同步
+  private String url;
+  private DeviceInfo deviceInfo;
+  private WebSocket webSocket;
+  private boolean open;
+  private boolean wanted;
+  private int reconnectAttempts;
+  private boolean everConnected;
+
+  private SignalingClient() {}
+
+  public static SignalingClient getInstance() {
+    if (instance == null) {
+      synchronized (SignalingClient.class) {
+        if (instance == null) {
+          instance = new SignalingClient();
+        }
+      }
+    }
+    return instance;
+  }
+
+  // 连接 url（R.string.signaling_url）并以 deviceInfo 的身份上线;
+  // 已经连接时只更新上线信息, 新地址在下一次重连时生效
+  public synchronized void connect(String url, DeviceInfo deviceInfo) {
+    this.url = url;
+    this.deviceInfo = deviceInfo;
+    wanted = true;
+    if (webSocket != null) {
+      return;
+    }
+    handler.removeCallbacks(reconnectTask);
+    openSocket();
+  }
+
+  public synchronized void disconnect() {
+    wanted = false;
+    handler.removeCallbacks(reconnectTask);
+    if (webSocket != null) {
+      webSocket.close(1000, "User disconnected");
+      webSocket = null;
+    }
+    open = false;
+    pendingMessages.clear();
+  }
+
+  public synchronized boolean isConnected() {
+    return open;
+  }
+
+  // 连接是否经过 TLS（wss://）; 明文连接上收到的 SRTP 密钥已经暴露, 不能再使用
+  public synchronized boolean isSecure() {
+    return url != null && url.regionMatches(true, 0, "wss://", 0, 6);
+  }
+
+  public <T> void registerHandler(String type, Class<T> dataType, MessageHandler<T> handler) {
+    decoder.register(type, dataType, handler);
+  }
+
+  public void unregisterHandler(String type, MessageHandler<?> handler) {
+    decoder.unregister(type, handler);
+  }
+
+  public void addOnConnectedListener(OnConnectedListener listener) {
+    connectedListeners.add(listener);
+  }
+
+  public void removeOnConnectedListener(OnConnectedListener listener) {
+    connectedListeners.remove(listener);
+  }
+
+  // 连接可用时立即发送, 否则放进离线队列
+  public void send(String type, Object data) {
+    String json = gson.toJson(new Envelope(type, data));
+    synchronized (this) {
+      if (open && webSocket != null && webSocket.send(json)) {
+        return;
+      }
+      if (pendingMessages.size() >= MAX_PENDING_MESSAGES) {
+        Log.w(TAG, "pending queue full, dropping oldest message");
+        pendingMessages.pollFirst();
+      }
+      pendingMessages.addLast(json);
+    }
+  }
+
+  private void openSocket() {
+    Request request = new Request.Builder().url(url).build();
+    webSocket = OkHttpManager.getInstance().newWebSocket(request, listener);
+  }
+
+  private final Runnable reconnectTask = () -> {
+    synchronized (this) {
+      if (wanted && webSocket == null) {
+        openSocket();
+      }
+    }
+  };
+
+  // 连接断开后调用, 调用方持有锁
+  private void scheduleReconnect() {
+    webSocket = null;
+    open = false;
+    if (!wanted) {
+      return;
+    }
+    long ceiling = RECONNECT_BASE_MS << Math.min(reconnectAttempts, 16);
+    ceiling = Math.min(ceiling, RECONNECT_MAX_MS);
+    // full jitter
+    long delay = (long) (random.nextDouble() * ceiling);
+    reconnectAttempts++;
+    Log.i(TAG, "reconnecting in " + delay + "ms (attempt " + reconnectAttempts + ")");
+    handler.removeCallbacks(reconnectTask);
+    handler.postDelayed(reconnectTask, delay);
+  }
+
+  private final WebSocketListener listener = new WebSocketListener() {
+    @Override
+    public void onOpen(@NonNull WebSocket ws, @NonNull Response response) {
+      boolean reconnected;
+      synchronized (SignalingClient.this) {
+        if (ws != webSocket) {
+          return;
+        }
+        Log.i(TAG, "WebSocket opened");
+        open = true;
+        reconnectAttempts = 0;
+        reconnected = everConnected;
+        everConnected = true;
+        // 每次连上都要重新上线, 然后再发出离线期间积压的消息
+        if (deviceInfo != null) {
+          ws.send(gson.toJson(new Envelope(TYPE_ONLINE, deviceInfo)));
+        }
+        while (!pendingMessages.isEmpty()) {
+          if (!ws.send(pendingMessages.peekFirst())) {
+            break;
+          }
+          pendingMessages.pollFirst();
+        }
+      }
+      for (OnConnectedListener listener : connectedListeners) {
+        listener.onConnected(reconnected);
+      }
+    }
+
+    @Override
+    public void onMessage(@NonNull WebSocket ws, @NonNull String text) {
+      String type = decoder.decode(text);
+      if (Log.isLoggable(TAG, Log.DEBUG)) {
+        Log.d(TAG, "onMessage: " + type);
+      }
+    }
+
+    @Override
+    public void onClosing(@NonNull WebSocket ws, int code, @NonNull String reason) {
+      Log.i(TAG, "Closing: " + code + " / " + reason);
+      ws.close(1000, null);
+    }
+
+    @Override
+    public void onClosed(@NonNull WebSocket ws, int code, @NonNull String reason) {
+      Log.i(TAG, "Closed: " + code + " / " + reason);
+      synchronized (SignalingClient.this) {
+        if (ws == webSocket) {
+          scheduleReconnect();
+        }
+      }
+    }
+
+    @Override
+    public void onFailure(@NonNull WebSocket ws, @NonNull Throwable t, @Nullable Response response) {
+      Log.e(TAG, "Failure", t);
+      synchronized (SignalingClient.this) {
+        if (ws == webSocket) {
+          scheduleReconnect();
+        }
+      }
+    }
+  };
+}
@@ -0,0 +1,157 @@
+package com.marine.secretcamera.net;
+
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+// 信令消息的流式解码。
+//  用 JsonReader 顺序扫描 {"type": "...", "data": {...}}, 先拿到 type:
+//  没有 handler 关心的消息读到 type 就结束, 不会解析 data;
+//  有 handler 的消息直接从流中用注册时缓存的 TypeAdapter 解码 data, 不经过 JsonObject 中间树。
+//  data 出现在 type 之前时先跳过, 知道 type 之后再从头定位到 data。
+class SignalingDecoder {
+  private static final String TAG = "SignalingDecoder";
+  private static final String FIELD_TYPE = "type";
+  private static final String FIELD_DATA = "data";
+
+  private static class Registration<T> {
+    final TypeAdapter<T> adapter;
+    final SignalingClient.MessageHandler<T> handler;
+
+    Registration(TypeAdapter<T> adapter, SignalingClient.MessageHandler<T> handler) {
+      this.adapter = adapter;
+      this.handler = handler;
+    }
+  }
+
+  private final Gson gson;
+  private final Map<String, List<Registration<?>>> handlers = new ConcurrentHashMap<>();
+
+  SignalingDecoder(Gson gson) {
+    this.gson = gson;
+  }
+
+  // Gson 会缓存 adapter, 这里再在注册时取一次, 解码时不用再查表
+  <T> void register(String type, Class<T> dataType, SignalingClient.MessageHandler<T> handler) {
+    handlers.computeIfAbsent(type, t -> new CopyOnWriteArrayList<>())
+        .add(new Registration<>(gson.getAdapter(dataType), handler));
+  }
+
+  void unregister(String type, SignalingClient.MessageHandler<?> handler) {
+    List<Registration<?>> list = handlers.get(type);
+    if (list != null) {
+      list.removeIf(r -> r.handler == handler);
+    }
+  }
+
+  // 解码并分发一条消息, 返回消息的 type; 格式错误时返回 null。
+  // 先解码完再分发: 只有解析错误在这里处理, handler 抛出的异常照常向上传递。
+  String decode(String text) {
+    String type = null;
+    Registration<?>[] registrations = null;
+    Object[] values = null;
+    try {
+      JsonReader reader = new JsonReader(new StringReader(text));
+      boolean dataSkipped = false;
+      reader.beginObject();
+      while (reader.hasNext()) {
+        String name = reader.nextName();
+        if (FIELD_TYPE.equals(name) && reader.peek() == JsonToken.STRING) {
+          type = reader.nextString();
+          List<Registration<?>> list = handlers.get(type);
+          if (list == null || list.isEmpty()) {
+            return type;
+          }
+          // data 在 type 之前时从头定位, 否则继续向后找; 一直找不到时按 data 为 null 处理
+          if (dataSkipped) {
+            reader = seekData(text);
+          } else if (!advanceToData(reader)) {
+            reader = null;
+          }
+          registrations = list.toArray(new Registration<?>[0]);
+          values = decodeData(registrations, reader, text);
+          break;
+        } else if (FIELD_DATA.equals(name) && type == null) {
+          dataSkipped = true;
+          reader.skipValue();
+        } else {
+          reader.skipValue();
+        }
+      }
+    } catch (IOException | IllegalStateException | JsonParseException
+        | NumberFormatException e) {
+      // 消息中可能带有 SRTP 密钥, 日志里只记录 type 与长度
+      Log.w(TAG, "malformed message: type=" + type + " length=" + text.length()
+          + " (" + e.getClass().getSimpleName() + ")");
+      return null;
+    }
+    if (values != null) {
+      for (int i = 0; i < registrations.length; i++) {
+        deliver(registrations[i], values[i]);
+      }
+    }
+    return type;
+  }
+
+  // 按注册顺序解码每个 handler 需要的 data; reader 已经停在 data 的值上, 没有 data 时为 null
+  private Object[] decodeData(Registration<?>[] registrations, JsonReader reader, String text)
+      throws IOException {
+    Object[] values = new Object[registrations.length];
+    TypeAdapter<?> decodedAdapter = null;
+    Object decoded = null;
+    for (int i = 0; i < registrations.length; i++) {
+      Registration<?> registration = registrations[i];
+      if (decodedAdapter != registration.adapter) {
+        if (decodedAdapter != null) {
+          // 同一个 type 注册了不同的数据类型, 重新定位到 data 再解码一次
+          reader = seekData(text);
+        }
+        decoded = reader != null ? read(registration.adapter, reader) : null;
+        decodedAdapter = registration.adapter;
+      }
+      values[i] = decoded;
+    }
+    return values;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> void deliver(Registration<T> registration, Object value) {
+    registration.handler.onMessage((T) value);
+  }
+
+  private static Object read(TypeAdapter<?> adapter, JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return adapter.read(reader);
+  }
+
+  // 新建 reader 并停在 data 的值上, 没有 data 时返回 null
+  private static JsonReader seekData(String text) throws IOException {
+    JsonReader reader = new JsonReader(new StringReader(text));
+    reader.beginObject();
+    return advanceToData(reader) ? reader : null;
+  }
+
+  private static boolean advanceToData(JsonReader reader) throws IOException {
+    while (reader.hasNext()) {
+      if (FIELD_DATA.equals(reader.nextName())) {
+        return true;
+      }
+      reader.skipValue();
+    }
+    return false;
+  }
+}
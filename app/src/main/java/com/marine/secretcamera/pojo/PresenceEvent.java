@@ -0,0 +1,18 @@
+package com.marine.secretcamera.pojo;
+
+import lombok.Data;
+
+/**
+ * 设备上下线增量事件
+ * 对应 presence 消息的 data: {"action": "join" | "leave" | "update", "deviceId": ..., "deviceName": ...}
+ */
+@Data
+public class PresenceEvent {
+    public static final String ACTION_JOIN = "join";
+    public static final String ACTION_LEAVE = "leave";
+    public static final String ACTION_UPDATE = "update";
+
+    private String action;
+    private String deviceId;
+    private String deviceName;
+}
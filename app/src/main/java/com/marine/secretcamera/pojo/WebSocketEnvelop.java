@@ -1,5 +1,7 @@
 package com.marine.secretcamera.pojo;
 
+import java.util.Map;
+
 import lombok.Data;
 
 /**
@@ -15,5 +17,33 @@ public class WebSocketEnvelop {
     private String targetDeviceId;
     private String fromDeviceId;
     private Long expireAt;
+    // 可选的 SRTP 参数, 由请求方生成: 套件名（如 AES_CM_128_HMAC_SHA1_80）与 base64(主密钥 || 主盐)
+    private String srtpSuite;
+    private String srtpKey;
+    // 可选的 RTP 头部扩展 URI -> ID（RFC 8285）, 由接收端决定; 为 null 时使用默认 ID
+    private Map<String, Integer> rtpExtensions;
+    // 可选的推流选项, 为 null 时沿用服务当前的设置
+    private Boolean simulcast;
+    private Boolean motionGating;
+    private Boolean multiCamera;
+    // 60 或 120 开启高帧率, 0 关闭
+    private Integer highFrameRate;
+    // 无人看屏幕的安装场景: 只输出到编码器, 不渲染预览
+    private Boolean headless;
+  }
+
+  // push_response 的 data: 被请求方处理完推流请求后回给请求方
+  @Data
+  public static class PushResponseData {
+    public static final String REASON_INSECURE_SIGNALING = "insecure_signaling";
+    public static final String REASON_SERVICE_UNAVAILABLE = "service_unavailable";
+    public static final String REASON_INVALID_KEY = "invalid_key";
+    public static final String REASON_INVALID_EXTENSIONS = "invalid_extensions";
+
+    private String targetDeviceId;
+    private String fromDeviceId;
+    private boolean accepted;
+    // 拒绝的原因, 接受时为 null
+    private String reason;
   }
 }
\ No newline at end of file
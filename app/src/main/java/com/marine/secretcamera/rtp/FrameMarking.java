@@ -0,0 +1,39 @@
+package com.marine.secretcamera.rtp;
+
+// Frame Marking RTP 头部扩展（RFC 9626）的可分层格式, 3 个字节:
+//   0                   1                   2
+//   0 1 2 3 4 5 6 7 8 9 0 1 2 3 4 5 6 7 8 9 0 1 2 3
+//  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//  |S|E|I|D|B| TID |      LID      |   TL0PICIDX   |
+//  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//  S: 帧的第一个包  E: 帧的最后一个包  I: 可独立解码（IDR）
+//  D: 可丢弃（没有被其它帧参考）  B: 只依赖基础层, 可以从这里开始接收更高的时间层
+//  TID: 时间层 ID, 0 为基础层  LID: 空间层 ID, 这里只有一层, 固定为 0
+//  TL0PICIDX: 基础层帧的循环计数, 接收端用它判断丢失的是不是基础层
+// 转发节点不需要解析 H.264 就能按 TID 丢弃增强层的包。
+public class FrameMarking {
+  public static final int SIZE = 3;
+
+  public int temporalId;
+  public int tl0PicIdx;
+  public boolean startOfFrame;
+  public boolean endOfFrame;
+  public boolean independent;
+  public boolean discardable;
+  public boolean baseLayerSync;
+
+  // 写入扩展数据（不含扩展元素头）, 返回写入的字节数
+  int write(byte[] buffer, int offset, boolean start, boolean end) {
+    int b = 0;
+    if (start) b |= 0x80;
+    if (end) b |= 0x40;
+    if (independent) b |= 0x20;
+    if (discardable) b |= 0x10;
+    if (baseLayerSync) b |= 0x08;
+    b |= temporalId & 0x07;
+    buffer[offset] = (byte) b;
+    buffer[offset + 1] = 0;
+    buffer[offset + 2] = (byte) tl0PicIdx;
+    return SIZE;
+  }
+}
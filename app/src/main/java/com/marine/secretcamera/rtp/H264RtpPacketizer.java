@@ -1,5 +1,7 @@
 package com.marine.secretcamera.rtp;
 
+import android.util.Log;
+
 import java.nio.ByteBuffer;
 
 //  接收 H.264 Annex-B ByteBuffer
@@ -8,15 +10,44 @@ import java.nio.ByteBuffer;
 //  NALU 类型
 //  NALU 长度
 //  是否 IDR
+//  属于哪一个时间层（FrameMarking）
 public class H264RtpPacketizer {
+  private static final String TAG = "H264RtpPacketizer";
+  private static final int NAL_TYPE_SLICE = 1;
+  private static final int NAL_TYPE_IDR = 5;
+  // SVC 前缀 NALU, 编码器输出时其中带有 temporal_id
+  private static final int NAL_TYPE_PREFIX = 14;
+
   public interface NaluCallback {
-    void onNalu(byte[] nalu, int type, boolean isKeyFrame);
+    void onNalu(byte[] nalu, int type, boolean isKeyFrame, long presentationTimeUs,
+                FrameMarking marking);
   }
   private NaluCallback callback;
 
+  // 编码器配置的时间层数, 1 表示不分层
+  private int temporalLayers = 1;
+  // 上一个 IDR 之后的帧序号, 用于按 L1T2 / L1T3 的固定结构推算时间层
+  private int frameIndex;
+  private int tl0PicIdx = -1;
+  // 只在 drain 线程使用, 每个 NALU 复用同一个对象
+  private final FrameMarking marking = new FrameMarking();
+
   public void setCallback(NaluCallback callback) {
     this.callback = callback;
   }
+
+  // 编码器按 android.generic.N 分层时, 帧的时间层按固定的周期排列:
+  //  L1T2: 0 1 0 1 ...
+  //  L1T3: 0 2 1 2 0 2 1 2 ...
+  public void setTemporalLayers(int temporalLayers) {
+    this.temporalLayers = Math.max(1, Math.min(3, temporalLayers));
+    frameIndex = 0;
+  }
+
+  public int getTemporalLayers() {
+    return temporalLayers;
+  }
+
   // 将 h264 裸流转化成为 NALU包以求在网络中传输
   // h264裸流的内容:
   //  +-------------------+
@@ -36,7 +67,7 @@ public class H264RtpPacketizer {
   // +---------------+
   //  1  2     5
 
-  public void consume(ByteBuffer data) {
+  public void consume(ByteBuffer data, long presentationTimeUs) {
     // 复制ByteBuffer并转化为 byte[]
     ByteBuffer dup = data.duplicate();
     byte[] raw = new byte[dup.remaining()];
@@ -44,6 +75,14 @@ public class H264RtpPacketizer {
 
     // 2. 初始化偏移量, 开始扫描
     int start = 0;
+    // 这一个输出缓冲区就是一帧（或者 SPS/PPS）, 帧内的所有 NALU 共用同一个时间层
+    boolean frameStarted = false;
+    boolean hasSlice = false;
+    int prefixTemporalId = -1;
+    marking.temporalId = 0;
+    marking.independent = false;
+    marking.discardable = false;
+    marking.baseLayerSync = false;
     // 3. 循环扫描, 寻找并处理所有 NALU
     while (true) {
       // 3.1 寻找下一个NALU的起始码
@@ -70,11 +109,23 @@ public class H264RtpPacketizer {
         // 3.5.2 解析NALU类型是否为关键帧
         // 和1与可以保留自身, 和0零与会消除自身, 于是和00011111F做与就能保留后五位, 消除前三位
         int type = nalu[0] & 0x1F; // NALU Header 的后五位表示类型
-        boolean isKey = (type == 5); // 类型 5 表示 IDR 关键帧
+        boolean isKey = (type == NAL_TYPE_IDR); // 类型 5 表示 IDR 关键帧
 
-        // 3.5.3 通过回调函数将 NALU 数据与信息传出
+        // 3.5.3 第一个 slice 决定这一帧的时间层
+        if (type == NAL_TYPE_PREFIX && nalu.length >= 4) {
+          // nal_unit_header_svc_extension 第三个字节的高三位是 temporal_id
+          prefixTemporalId = (nalu[3] >> 5) & 0x07;
+        } else if ((type == NAL_TYPE_SLICE || type == NAL_TYPE_IDR) && !hasSlice) {
+          hasSlice = true;
+          markFrame(type, nalu[0], prefixTemporalId);
+        }
+        marking.startOfFrame = !frameStarted;
+        marking.endOfFrame = nextStart < 0;
+        frameStarted = true;
+
+        // 3.5.4 通过回调函数将 NALU 数据与信息传出
         if (callback != null) {
-          callback.onNalu(nalu, type, isKey);
+          callback.onNalu(nalu, type, isKey, presentationTimeUs, marking);
         }
       }
       // 4. 更新下一次的起始偏移量
@@ -82,6 +133,43 @@ public class H264RtpPacketizer {
     }
   }
 
+  private void markFrame(int type, byte header, int prefixTemporalId) {
+    boolean isIdr = type == NAL_TYPE_IDR;
+    if (isIdr) {
+      frameIndex = 0;
+    }
+    int tid;
+    if (prefixTemporalId >= 0) {
+      tid = prefixTemporalId;
+    } else if (temporalLayers == 2) {
+      tid = frameIndex % 2;
+    } else if (temporalLayers == 3) {
+      int i = frameIndex % 4;
+      tid = i == 0 ? 0 : (i == 2 ? 1 : 2);
+    } else {
+      tid = 0;
+    }
+    boolean referenced = (header & 0x60) != 0;
+    if (prefixTemporalId < 0 && tid > 0 && tid == temporalLayers - 1 && referenced) {
+      // 最高层的帧不应该被参考, nal_ref_idc 不为 0 说明编码器并没有按预期分层,
+      // 退回单层, 否则丢弃 "增强层" 会导致基础层无法解码
+      Log.w(TAG, "encoder output does not match " + temporalLayers
+          + " temporal layers, disabling layer marking");
+      temporalLayers = 1;
+      tid = 0;
+    }
+    if (tid == 0) {
+      tl0PicIdx = (tl0PicIdx + 1) & 0xFF;
+    }
+    marking.temporalId = tid;
+    marking.tl0PicIdx = Math.max(tl0PicIdx, 0);
+    marking.independent = isIdr;
+    marking.discardable = !referenced;
+    // 只参考基础层的帧: L1T2 的 TL1 与 L1T3 的 TL1
+    marking.baseLayerSync = tid == 1;
+    frameIndex++;
+  }
+
   private int findStartCode(byte[] data, int offset) {
     for (int i = offset; i < data.length - 3; i++) {
       if (data[i] == 0 && data[i+1] == 0) {
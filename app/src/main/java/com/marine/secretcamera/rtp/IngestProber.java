@@ -0,0 +1,492 @@
+package com.marine.secretcamera.rtp;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// 候选 ingest 节点的 RTT / 丢包探测与切换决策。
+//  探测包是不带属性的 STUN Binding Request（RFC 5389, 20 字节）, 直接发到节点的 RTP 端口:
+//  首字节为 0x00, 与 RTP/RTCP（版本 2, 首字节 0x80 - 0xBF）不冲突, 支持 ICE 的媒体服务器本来就会应答;
+//  只按 transaction ID 匹配应答, 不解析其中的属性。
+//  使用单独的 socket, 不和 RtcpReceiver 抢推流 socket 上的数据。
+//  每一轮向所有节点各发一个探测包, 超时前收到应答的计入 RTT（EWMA）, 否则记为丢失, 丢包率按最近 LOSS_WINDOW 轮统计。
+//  推流前由 probe() 连续探测几轮选出初始节点; 推流中每 PROBE_INTERVAL_MS 探测一轮,
+//  当前节点不可用或其它节点持续明显更好时回调 OnEndpointChangedListener,
+//  当前节点的 RTT 通过 OnRttListener 交给带宽估计。
+public class IngestProber {
+  private static final String TAG = "IngestProber";
+
+  private static final long PROBE_INTERVAL_MS = 5_000;
+  private static final long ROUND_TIMEOUT_MS = 1_000;
+  // 推流前的探测轮数与每轮超时, 总共最多增加 1.2s 的启动时间（与编码器创建、摄像头打开并行）
+  private static final int INITIAL_ROUNDS = 3;
+  private static final long INITIAL_ROUND_TIMEOUT_MS = 400;
+  private static final int LOSS_WINDOW = 10;
+  private static final double RTT_SMOOTHING = 0.25;
+  // 计算得分时 100% 丢包折算成的延迟
+  private static final double LOSS_PENALTY_MS = 500;
+  // 当前节点丢包率超过 UNHEALTHY_LOSS 或连续 UNHEALTHY_MISSES 轮没有应答时立即切换
+  private static final double UNHEALTHY_LOSS = 0.3;
+  private static final int UNHEALTHY_MISSES = 3;
+  // 切换的目标节点丢包率不能超过这个值, 并且最近一轮有应答
+  private static final double HEALTHY_LOSS = 0.1;
+  // 当前节点正常时, 其它节点的得分要连续 SWITCH_STABLE_ROUNDS 轮比它低 30% 且至少低 20ms 才切换
+  private static final double SWITCH_GAIN_RATIO = 0.7;
+  private static final double SWITCH_MIN_GAIN_MS = 20;
+  private static final int SWITCH_STABLE_ROUNDS = 3;
+  private static final long MIN_SWITCH_INTERVAL_MS = 30_000;
+
+  private static final int STUN_HEADER_SIZE = 20;
+  private static final int STUN_BINDING_REQUEST = 0x0001;
+  private static final int STUN_BINDING_RESPONSE = 0x0101;
+  private static final int STUN_MAGIC_COOKIE = 0x2112A442;
+
+  // 在探测线程中回调
+  public interface OnEndpointChangedListener {
+    void onEndpointChanged(Endpoint endpoint);
+  }
+
+  // 在探测线程中回调, 每一轮探测之后报告当前节点平滑后的 RTT
+  public interface OnRttListener {
+    void onRtt(Endpoint endpoint, double rttMs);
+  }
+
+  // 一个候选节点及其探测结果
+  public static class Endpoint {
+    public final String host;
+    public final int port;
+    // 在探测线程中解析, 解析失败时为 null, 下一轮重试
+    private volatile InetAddress address;
+
+    // 以下状态在 this 上同步
+    private double rttMs = -1;
+    private final boolean[] lost = new boolean[LOSS_WINDOW];
+    private int results;
+    private int lostCount;
+    private int consecutiveMisses;
+    private boolean responded;
+
+    Endpoint(String host, int port) {
+      this.host = host;
+      this.port = port;
+    }
+
+    // "host:port" 或 "[IPv6]:port", 格式不对时返回 null
+    public static Endpoint parse(String spec) {
+      int colon = spec.lastIndexOf(':');
+      if (colon <= 0 || colon == spec.length() - 1) {
+        return null;
+      }
+      String host = spec.substring(0, colon).trim();
+      if (host.startsWith("[") && host.endsWith("]")) {
+        host = host.substring(1, host.length() - 1);
+      }
+      try {
+        int port = Integer.parseInt(spec.substring(colon + 1).trim());
+        return port > 0 && port <= 0xFFFF && !host.isEmpty() ? new Endpoint(host, port) : null;
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+
+    public InetAddress getAddress() {
+      return address;
+    }
+
+    InetAddress resolve() {
+      InetAddress a = address;
+      if (a == null) {
+        try {
+          a = InetAddress.getByName(host);
+          address = a;
+        } catch (UnknownHostException e) {
+          Log.w(TAG, "cannot resolve " + host);
+        }
+      }
+      return a;
+    }
+
+    synchronized void onResult(boolean received, double sampleRttMs) {
+      int slot = results % LOSS_WINDOW;
+      if (results >= LOSS_WINDOW && lost[slot]) {
+        lostCount--;
+      }
+      lost[slot] = !received;
+      results++;
+      if (received) {
+        responded = true;
+        consecutiveMisses = 0;
+        rttMs = rttMs < 0 ? sampleRttMs : rttMs + RTT_SMOOTHING * (sampleRttMs - rttMs);
+      } else {
+        lostCount++;
+        consecutiveMisses++;
+      }
+    }
+
+    // 平滑后的 RTT, 还没有收到过应答时为 -1
+    public synchronized double getRttMs() {
+      return rttMs;
+    }
+
+    public synchronized double getLoss() {
+      int n = Math.min(results, LOSS_WINDOW);
+      return n > 0 ? (double) lostCount / n : 0;
+    }
+
+    // 曾经应答过探测, 说明节点支持 STUN, 探测结果可信
+    public synchronized boolean isResponsive() {
+      return responded;
+    }
+
+    // 越小越好; 从没有应答过的节点排在最后
+    synchronized double score() {
+      return responded ? rttMs + getLoss() * LOSS_PENALTY_MS : Double.MAX_VALUE;
+    }
+
+    synchronized boolean isHealthy() {
+      return responded && consecutiveMisses == 0 && getLoss() <= HEALTHY_LOSS;
+    }
+
+    synchronized boolean isFailing() {
+      return responded && (consecutiveMisses >= UNHEALTHY_MISSES || getLoss() >= UNHEALTHY_LOSS);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return host + ":" + port + (responded
+          ? String.format(" rtt=%.0fms loss=%.0f%%", rttMs, getLoss() * 100)
+          : " no response");
+    }
+  }
+
+  private final List<Endpoint> endpoints;
+  private final OnEndpointChangedListener listener;
+  // transaction ID 的前 4 字节, 区分不同的 prober 实例; 其后是轮次与节点下标
+  private final int sessionTag = new Random().nextInt();
+  private final byte[] request = new byte[STUN_HEADER_SIZE];
+  private final byte[] response = new byte[512];
+  private final Object lock = new Object();
+
+  private DatagramSocket socket;
+  private volatile boolean running;
+  private Thread thread;
+  private boolean probeRequested;
+  private volatile Endpoint current;
+  private volatile OnRttListener rttListener;
+  // 以下状态只在探测线程（start() 之前为调用 probe() 的线程）访问
+  private int round;
+  private Endpoint pendingBetter;
+  private int betterRounds;
+  private long lastSwitchMs;
+
+  public IngestProber(List<Endpoint> endpoints, OnEndpointChangedListener listener) {
+    this.endpoints = new ArrayList<>(endpoints);
+    this.listener = listener;
+  }
+
+  public List<Endpoint> getEndpoints() {
+    return endpoints;
+  }
+
+  public Endpoint getCurrent() {
+    return current;
+  }
+
+  public void setOnRttListener(OnRttListener listener) {
+    this.rttListener = listener;
+  }
+
+  // 推流前阻塞探测几轮, 返回得分最低的节点;
+  // 所有节点都没有应答（不支持 STUN 或网络不通）时按配置顺序返回第一个能解析的节点
+  public Endpoint probe() {
+    try {
+      openSocket();
+      for (int i = 0; i < INITIAL_ROUNDS; i++) {
+        runRound(INITIAL_ROUND_TIMEOUT_MS);
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "initial probe failed", e);
+    }
+    // 只有几轮结果, 不要求健康, 丢包已经折算在得分里
+    Endpoint best = null;
+    for (Endpoint e : endpoints) {
+      if (e.isResponsive() && (best == null || e.score() < best.score())) {
+        best = e;
+      }
+    }
+    if (best == null) {
+      for (Endpoint e : endpoints) {
+        if (e.resolve() != null) {
+          best = e;
+          break;
+        }
+      }
+    }
+    Log.i(TAG, "initial endpoint " + best + " of " + endpoints);
+    return best;
+  }
+
+  // 推流开始后在后台持续探测, current 为正在使用的节点
+  public void start(Endpoint current) {
+    if (thread != null) {
+      return;
+    }
+    this.current = current;
+    lastSwitchMs = SystemClock.elapsedRealtime();
+    running = true;
+    thread = new Thread(this::run, "IngestProber");
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    synchronized (lock) {
+      lock.notifyAll();
+    }
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+    closeSocket();
+  }
+
+  // 网络变化（例如 Wi-Fi 切到移动网络）后最近的节点可能变了, 立即探测一轮
+  public void probeNow() {
+    synchronized (lock) {
+      probeRequested = true;
+      lock.notifyAll();
+    }
+  }
+
+  private void run() {
+    while (running) {
+      try {
+        openSocket();
+        runRound(ROUND_TIMEOUT_MS);
+        evaluate();
+        reportRtt();
+      } catch (IOException e) {
+        if (running) {
+          Log.w(TAG, "probe round failed", e);
+        }
+        // 网络变化后 socket 可能失效, 下一轮重新创建
+        closeSocket();
+      }
+      synchronized (lock) {
+        try {
+          if (running && !probeRequested) {
+            lock.wait(PROBE_INTERVAL_MS);
+          }
+        } catch (InterruptedException e) {
+          return;
+        }
+        probeRequested = false;
+      }
+    }
+  }
+
+  private synchronized void openSocket() throws IOException {
+    if (socket == null || socket.isClosed()) {
+      socket = new DatagramSocket();
+    }
+  }
+
+  private synchronized void closeSocket() {
+    if (socket != null) {
+      socket.close();
+      socket = null;
+    }
+  }
+
+  // 向每个节点发一个探测包, 等到全部应答或超时
+  private void runRound(long timeoutMs) throws IOException {
+    DatagramSocket s;
+    synchronized (this) {
+      s = socket;
+    }
+    if (s == null) {
+      return;
+    }
+    round++;
+    int count = endpoints.size();
+    long[] sendTimesNs = new long[count];
+    boolean[] answered = new boolean[count];
+    int pending = 0;
+    for (int i = 0; i < count; i++) {
+      Endpoint e = endpoints.get(i);
+      InetAddress address = e.resolve();
+      sendTimesNs[i] = -1;
+      if (address == null) {
+        continue;
+      }
+      writeRequest(i);
+      try {
+        s.send(new DatagramPacket(request, request.length, address, e.port));
+        sendTimesNs[i] = SystemClock.elapsedRealtimeNanos();
+        pending++;
+      } catch (IOException ex) {
+        // 某一个节点不可达（例如没有 IPv6 路由）不影响其它节点
+        Log.w(TAG, "failed to probe " + e.host, ex);
+      }
+    }
+
+    DatagramPacket datagram = new DatagramPacket(response, response.length);
+    long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+    while (pending > 0) {
+      long remaining = deadline - SystemClock.elapsedRealtime();
+      if (remaining <= 0) {
+        break;
+      }
+      s.setSoTimeout((int) remaining);
+      datagram.setLength(response.length);
+      try {
+        s.receive(datagram);
+      } catch (SocketTimeoutException e) {
+        break;
+      }
+      int index = parseResponse(datagram.getLength());
+      if (index >= 0 && index < count && sendTimesNs[index] >= 0 && !answered[index]) {
+        answered[index] = true;
+        pending--;
+        endpoints.get(index).onResult(true,
+            (SystemClock.elapsedRealtimeNanos() - sendTimesNs[index]) / 1e6);
+      }
+    }
+    for (int i = 0; i < count; i++) {
+      if (!answered[i]) {
+        endpoints.get(i).onResult(false, 0);
+      }
+    }
+  }
+
+  // type | length(0) | magic cookie | transaction ID = sessionTag, round, 节点下标
+  private void writeRequest(int index) {
+    putShort(request, 0, STUN_BINDING_REQUEST);
+    putShort(request, 2, 0);
+    putInt(request, 4, STUN_MAGIC_COOKIE);
+    putInt(request, 8, sessionTag);
+    putInt(request, 12, round);
+    putInt(request, 16, index);
+  }
+
+  // 返回应答对应的节点下标, 不是本轮的应答时返回 -1
+  private int parseResponse(int length) {
+    if (length < STUN_HEADER_SIZE
+        || getShort(response, 0) != STUN_BINDING_RESPONSE
+        || getInt(response, 4) != STUN_MAGIC_COOKIE
+        || getInt(response, 8) != sessionTag
+        || getInt(response, 12) != round) {
+      return -1;
+    }
+    return getInt(response, 16);
+  }
+
+  // 得分最低的健康节点, 跳过 exclude
+  private Endpoint bestHealthy(Endpoint exclude) {
+    Endpoint best = null;
+    for (Endpoint e : endpoints) {
+      if (e == exclude || !e.isHealthy()) continue;
+      if (best == null || e.score() < best.score()) {
+        best = e;
+      }
+    }
+    return best;
+  }
+
+  private void evaluate() {
+    Endpoint cur = current;
+    if (cur == null) {
+      return;
+    }
+    Endpoint candidate = bestHealthy(cur);
+    if (candidate == null) {
+      betterRounds = 0;
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    // 当前节点从来没有应答过时无法判断好坏, 保持不动
+    if (cur.isFailing()) {
+      // 当前节点不可用时立即切换, 不受稳定轮数与最小切换间隔限制（目标节点本身必须健康, 不会来回切）
+      switchTo(candidate, "current endpoint failing", now);
+      return;
+    }
+    double curScore = cur.score();
+    double candidateScore = candidate.score();
+    boolean better = candidateScore < curScore * SWITCH_GAIN_RATIO
+        && curScore - candidateScore >= SWITCH_MIN_GAIN_MS;
+    if (!better) {
+      betterRounds = 0;
+      pendingBetter = null;
+      return;
+    }
+    if (candidate != pendingBetter) {
+      pendingBetter = candidate;
+      betterRounds = 0;
+    }
+    if (++betterRounds >= SWITCH_STABLE_ROUNDS && now - lastSwitchMs >= MIN_SWITCH_INTERVAL_MS) {
+      switchTo(candidate, "better endpoint", now);
+    }
+  }
+
+  private void reportRtt() {
+    Endpoint cur = current;
+    OnRttListener l = rttListener;
+    if (cur == null || l == null) {
+      return;
+    }
+    double rttMs = cur.getRttMs();
+    if (rttMs >= 0) {
+      l.onRtt(cur, rttMs);
+    }
+  }
+
+  private void switchTo(Endpoint endpoint, String reason, long now) {
+    Log.i(TAG, reason + ": " + current + " -> " + endpoint);
+    current = endpoint;
+    lastSwitchMs = now;
+    betterRounds = 0;
+    pendingBetter = null;
+    listener.onEndpointChanged(endpoint);
+  }
+
+  private static void putShort(byte[] b, int offset, int v) {
+    b[offset] = (byte) (v >> 8);
+    b[offset + 1] = (byte) v;
+  }
+
+  private static void putInt(byte[] b, int offset, int v) {
+    b[offset] = (byte) (v >> 24);
+    b[offset + 1] = (byte) (v >> 16);
+    b[offset + 2] = (byte) (v >> 8);
+    b[offset + 3] = (byte) v;
+  }
+
+  private static int getShort(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 8) | (b[offset + 1] & 0xFF);
+  }
+
+  private static int getInt(byte[] b, int offset) {
+    return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16)
+        | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("ingest: ").append(current);
+    for (Endpoint e : endpoints) {
+      if (e != current) {
+        sb.append(" | ").append(e);
+      }
+    }
+    return sb.toString();
+  }
+}
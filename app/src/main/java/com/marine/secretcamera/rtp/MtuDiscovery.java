@@ -0,0 +1,220 @@
+package com.marine.secretcamera.rtp;
+
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.util.Log;
+
+import com.marine.secretcamera.bwe.PacketResult;
+
+import java.io.IOException;
+import java.net.DatagramSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Path MTU 探测（思路同 RFC 8899 DPLPMTUD）。
+//  socket 设置 DF（不允许分片）后, 按 CANDIDATES 中的大小各发一个探测包,
+//  对端 transport-wide feedback 中确认收到的最大尺寸就是路径 MTU（这里指 UDP payload 的大小）。
+//  以下情况会立即退回 MIN_MTU 并重新探测:
+//   发送时内核返回 EMSGSIZE（路由上已知的 MTU 变小, 相当于收到了 ICMP Fragmentation Needed）;
+//   大包丢包率明显高于小包, 说明路径上有设备丢弃了超过 MTU 的包。
+class MtuDiscovery {
+  private static final String TAG = "MtuDiscovery";
+
+  // 没有探测结果时使用的经验值
+  static final int DEFAULT_MTU = 1400;
+  // IPv6 最小 MTU 1280 - 40(IPv6) - 8(UDP) 附近, 任何路径都应该能通过
+  static final int MIN_MTU = 1200;
+  // 1472 = 1500 - 20(IPv4) - 8(UDP), 1452 = 1500 - 40(IPv6) - 8(UDP), 其余覆盖常见的 VPN / PPPoE / LTE 封装
+  private static final int[] CANDIDATES = {1472, 1452, 1420, 1400, 1360, 1320, 1280, 1240, MIN_MTU};
+  // 探测包使用的 cluster 编号从这里开始, 与带宽探测区分; 编号 = 基数 + 包大小
+  static final int PROBE_CLUSTER_BASE = 1 << 20;
+  private static final long PROBE_RATE_BPS = 10_000_000;
+  private static final long PROBE_TIMEOUT_MS = 1000;
+  private static final long POLL_INTERVAL_MS = 20;
+  private static final long MIN_REPROBE_INTERVAL_MS = 30_000;
+
+  // 丢包统计窗口与判断阈值
+  private static final int LOSS_WINDOW_PACKETS = 200;
+  private static final double LARGE_PACKET_LOSS = 0.2;
+  private static final double SMALL_PACKET_LOSS = 0.05;
+
+  // Linux <netinet/in.h>, OsConstants 没有暴露这些值
+  private static final int IP_MTU_DISCOVER = 10;
+  private static final int IPV6_MTU_DISCOVER = 23;
+  private static final int PMTUDISC_DO = 2;
+
+  private final RtpSession session;
+  private volatile int mtu = DEFAULT_MTU;
+  private volatile boolean dontFragment;
+  private final Set<Integer> acknowledgedSizes = ConcurrentHashMap.newKeySet();
+  private final AtomicBoolean probing = new AtomicBoolean();
+  private volatile long lastProbeMs = -MIN_REPROBE_INTERVAL_MS;
+  private volatile boolean stopped;
+  private volatile Thread probeThread;
+
+  // 只在 RTCP 接收线程访问
+  private int smallSent;
+  private int smallLost;
+  private int largeSent;
+  private int largeLost;
+
+  MtuDiscovery(RtpSession session) {
+    this.session = session;
+  }
+
+  int getMtu() {
+    return mtu;
+  }
+
+  void start(DatagramSocket socket) {
+    dontFragment = setDontFragment(socket);
+    if (!dontFragment) {
+      // 不能设置 DF 时大包会被分片后照样送达, 探测结果没有意义
+      Log.w(TAG, "cannot set DF on socket, keeping mtu " + mtu);
+      return;
+    }
+    probeAsync();
+  }
+
+  private boolean setDontFragment(DatagramSocket socket) {
+    // fromDatagramSocket 复制了一个 fd, 设置的选项作用在同一个 socket 上
+    try (ParcelFileDescriptor pfd = ParcelFileDescriptor.fromDatagramSocket(socket)) {
+      try {
+        Os.setsockoptInt(pfd.getFileDescriptor(), OsConstants.IPPROTO_IP,
+            IP_MTU_DISCOVER, PMTUDISC_DO);
+      } catch (ErrnoException e) {
+        // IPv6 socket
+        Os.setsockoptInt(pfd.getFileDescriptor(), OsConstants.IPPROTO_IPV6,
+            IPV6_MTU_DISCOVER, PMTUDISC_DO);
+      }
+      return true;
+    } catch (IOException | ErrnoException | RuntimeException e) {
+      Log.w(TAG, "failed to set IP_MTU_DISCOVER", e);
+      return false;
+    }
+  }
+
+  // 在单独的线程中探测, 同一时间只有一次探测, 两次探测之间至少间隔 MIN_REPROBE_INTERVAL_MS
+  void probeAsync() {
+    if (!dontFragment || stopped) {
+      return;
+    }
+    long now = SystemClock.elapsedRealtime();
+    if (now - lastProbeMs < MIN_REPROBE_INTERVAL_MS || !probing.compareAndSet(false, true)) {
+      return;
+    }
+    lastProbeMs = now;
+    Thread thread = new Thread(this::probe, "MtuDiscovery");
+    probeThread = thread;
+    thread.start();
+  }
+
+  // 会话停止: 中断正在进行的探测, 之后不再发起新的探测
+  void stop() {
+    stopped = true;
+    Thread thread = probeThread;
+    probeThread = null;
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void probe() {
+    try {
+      acknowledgedSizes.clear();
+      for (int size : CANDIDATES) {
+        if (!session.sendMtuProbe(PROBE_CLUSTER_BASE + size, size, PROBE_RATE_BPS)) {
+          return;
+        }
+      }
+      long deadline = SystemClock.elapsedRealtime() + PROBE_TIMEOUT_MS;
+      while (!acknowledgedSizes.contains(CANDIDATES[0])
+          && SystemClock.elapsedRealtime() < deadline) {
+        Thread.sleep(POLL_INTERVAL_MS);
+      }
+      int best = -1;
+      for (int size : acknowledgedSizes) {
+        best = Math.max(best, size);
+      }
+      if (best > 0) {
+        Log.i(TAG, "path mtu " + mtu + " -> " + best);
+        mtu = best;
+      } else {
+        // 对端不回传反馈, 保持当前值
+        Log.i(TAG, "no mtu probe acknowledged, keeping " + mtu);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      probing.set(false);
+    }
+  }
+
+  // RTCP 接收线程: 每个已经匹配到发送记录的反馈结果
+  void onPacketResult(PacketResult result) {
+    if (result.probeClusterId >= PROBE_CLUSTER_BASE) {
+      if (result.received) {
+        acknowledgedSizes.add(result.probeClusterId - PROBE_CLUSTER_BASE);
+      }
+      return;
+    }
+    if (result.probeClusterId >= 0) {
+      // 带宽探测包
+      return;
+    }
+    if (result.size > MIN_MTU) {
+      largeSent++;
+      if (!result.received) largeLost++;
+    } else {
+      smallSent++;
+      if (!result.received) smallLost++;
+    }
+    if (largeSent + smallSent < LOSS_WINDOW_PACKETS) {
+      return;
+    }
+    double largeLoss = largeSent > 0 ? (double) largeLost / largeSent : 0;
+    double smallLoss = smallSent > 0 ? (double) smallLost / smallSent : 0;
+    if (largeSent >= LOSS_WINDOW_PACKETS / 4
+        && largeLoss > LARGE_PACKET_LOSS && smallLoss < SMALL_PACKET_LOSS) {
+      Log.w(TAG, String.format("large packet loss %.2f vs %.2f, falling back to %d",
+          largeLoss, smallLoss, MIN_MTU));
+      onMtuProblem();
+    }
+    smallSent = smallLost = largeSent = largeLost = 0;
+  }
+
+  // 发送线程: socket.send 失败
+  void onSendError(IOException e, int packetLength) {
+    if (packetLength <= MIN_MTU || !isMessageTooLong(e)) {
+      return;
+    }
+    Log.w(TAG, "EMSGSIZE for " + packetLength + " bytes, falling back to " + MIN_MTU);
+    onMtuProblem();
+  }
+
+  // 切换到另一个 ingest 节点后路径不同, 同样先退回 MIN_MTU 再重新探测
+  void onRouteChange() {
+    Log.i(TAG, "route changed, falling back to " + MIN_MTU);
+    onMtuProblem();
+  }
+
+  private void onMtuProblem() {
+    mtu = MIN_MTU;
+    // 路径变化时尽快重新探测
+    lastProbeMs = -MIN_REPROBE_INTERVAL_MS;
+    probeAsync();
+  }
+
+  private static boolean isMessageTooLong(IOException e) {
+    Throwable cause = e.getCause();
+    if (cause instanceof ErrnoException) {
+      return ((ErrnoException) cause).errno == OsConstants.EMSGSIZE;
+    }
+    String message = e.getMessage();
+    return message != null && message.contains("EMSGSIZE");
+  }
+}
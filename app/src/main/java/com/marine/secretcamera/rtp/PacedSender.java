@@ -0,0 +1,227 @@
+package com.marine.secretcamera.rtp;
+
+import android.util.Log;
+
+import com.marine.secretcamera.bwe.SendHistory;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+// 所有 RTP 流共用的发送线程与平滑发送器（pacer）。
+//  各个编码器的 drain 线程只负责组包并放进队列, 真正的 socket.send 都在这一个线程里完成;
+//  按 pacingRateBps 均匀地把包发出去, 避免关键帧的几十个包瞬间冲进网络造成排队与丢包;
+//  RtpPacket 从对象池里取, 发送完成后归还。
+//  设置了 SrtpTransformer 时, 在写完发送时刻的头部扩展之后原地加密, 保证扩展也在认证范围内。
+public class PacedSender {
+  private static final String TAG = "PacedSender";
+  private static final int POOL_SIZE = 512;
+  // 队列里积压超过这个数量时说明网络远远跟不上, 直接丢弃新包
+  private static final int MAX_QUEUE_SIZE = 2048;
+  // 积压超过这个数量时 RtpStream 开始整帧丢弃时间增强层, 帧率减半但基础层仍然可以解码
+  static final int ENHANCEMENT_DROP_QUEUE_SIZE = 256;
+  // 发送失败的日志每隔多少次打印一次
+  private static final int ERROR_LOG_INTERVAL = 100;
+
+  private final DatagramSocket socket;
+  // 地址与端口放在一个对象里整体替换, 切换节点时发送线程不会拿到新地址配旧端口
+  private volatile InetSocketAddress remote;
+
+  private final ArrayBlockingQueue<RtpPacket> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+  private final LinkedBlockingQueue<RtpPacket> queue = new LinkedBlockingQueue<>(MAX_QUEUE_SIZE);
+
+  // 0 表示不限速
+  private volatile long pacingRateBps;
+  private volatile boolean running;
+  private Thread thread;
+
+  private volatile long packetsSent;
+  private volatile long bytesSent;
+  private volatile long packetsDropped;
+  private volatile long sendErrors;
+  // transport-wide 序列号在所有 SSRC 之间共用, 只在发送线程中递增
+  private int transportSequence;
+  // 记录每个 transport-wide 序列号的发送时间, 供带宽估计使用
+  private volatile SendHistory sendHistory;
+  private volatile OnSendErrorListener sendErrorListener;
+  // 为 null 时发送明文 RTP; 只在发送线程使用
+  private volatile SrtpTransformer srtp;
+
+  // 在发送线程中回调, 不要做耗时操作
+  public interface OnSendErrorListener {
+    void onSendError(IOException e, int packetLength);
+  }
+
+  public PacedSender(DatagramSocket socket, InetAddress remoteAddress, int remotePort) {
+    this.socket = socket;
+    this.remote = new InetSocketAddress(remoteAddress, remotePort);
+  }
+
+  public void start() {
+    running = true;
+    thread = new Thread(this::run, "RtpPacedSender");
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException ignored) {
+      }
+      thread = null;
+    }
+    queue.clear();
+  }
+
+  // 切换对端地址, 从发送线程处理的下一个包开始生效
+  public void setRemote(InetAddress remoteAddress, int remotePort) {
+    this.remote = new InetSocketAddress(remoteAddress, remotePort);
+  }
+
+  public void setSendHistory(SendHistory sendHistory) {
+    this.sendHistory = sendHistory;
+  }
+
+  public void setOnSendErrorListener(OnSendErrorListener listener) {
+    this.sendErrorListener = listener;
+  }
+
+  public void setSrtp(SrtpTransformer srtp) {
+    this.srtp = srtp;
+  }
+
+  public void setPacingRate(long bitsPerSecond) {
+    this.pacingRateBps = bitsPerSecond;
+  }
+
+  public long getPacingRate() {
+    return pacingRateBps;
+  }
+
+  public RtpPacket obtain() {
+    RtpPacket packet = pool.poll();
+    return packet != null ? packet : new RtpPacket();
+  }
+
+  public void recycle(RtpPacket packet) {
+    packet.length = 0;
+    packet.absSendTimeOffset = -1;
+    packet.transportSeqOffset = -1;
+    packet.probeClusterId = -1;
+    pool.offer(packet);
+  }
+
+  public void enqueue(RtpPacket packet) {
+    packet.enqueueTimeNs = System.nanoTime();
+    if (!queue.offer(packet)) {
+      packetsDropped++;
+      recycle(packet);
+    }
+  }
+
+  public int getQueueSize() {
+    return queue.size();
+  }
+
+  private void run() {
+    DatagramPacket datagram = new DatagramPacket(new byte[0], 0);
+    long nextSendNs = 0;
+    while (running) {
+      RtpPacket packet;
+      try {
+        packet = queue.poll(10, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (packet == null) {
+        continue;
+      }
+
+      SrtpTransformer protection = srtp;
+      long rate = packet.probeClusterId >= 0 ? packet.probeRateBps : pacingRateBps;
+      int wireLength = packet.length + (protection != null ? protection.getOverhead() : 0);
+      if (rate > 0) {
+        long now = System.nanoTime();
+        if (nextSendNs > now) {
+          LockSupport.parkNanos(nextSendNs - now);
+          now = System.nanoTime();
+        }
+        // 空闲期间不累积发送额度, 避免空闲后突发
+        nextSendNs = Math.max(now, nextSendNs) + wireLength * 8L * 1_000_000_000L / rate;
+      }
+
+      long sendTimeNs = System.nanoTime();
+      if (packet.absSendTimeOffset >= 0) {
+        RtpHeaderExtensions.writeAbsSendTime(packet.buffer, packet.absSendTimeOffset, sendTimeNs);
+      }
+      int sequence = -1;
+      if (packet.transportSeqOffset >= 0) {
+        sequence = transportSequence;
+        RtpHeaderExtensions.writeTransportSequence(packet.buffer, packet.transportSeqOffset,
+            sequence);
+        transportSequence = (transportSequence + 1) & 0xFFFF;
+      }
+      if (protection != null) {
+        try {
+          packet.length = protection.protect(packet.buffer, packet.length);
+        } catch (GeneralSecurityException e) {
+          // 加密失败的包绝不能以明文发出
+          if (sendErrors++ % ERROR_LOG_INTERVAL == 0) {
+            Log.e(TAG, "failed to protect packet", e);
+          }
+          recycle(packet);
+          continue;
+        }
+      }
+      // 带宽估计按实际上线的字节数计算, 包括认证标签
+      SendHistory history = sendHistory;
+      if (sequence >= 0 && history != null) {
+        history.onPacketSent(sequence, sendTimeNs / 1000, packet.length, packet.probeClusterId);
+      }
+
+      datagram.setData(packet.buffer, 0, packet.length);
+      datagram.setSocketAddress(remote);
+      try {
+        socket.send(datagram);
+        packetsSent++;
+        bytesSent += packet.length;
+      } catch (IOException e) {
+        // 网络暂时不可用时只丢包, 不让发送线程退出
+        if (sendErrors++ % ERROR_LOG_INTERVAL == 0) {
+          Log.e(TAG, "failed to send packet", e);
+        }
+        OnSendErrorListener listener = sendErrorListener;
+        if (listener != null) {
+          listener.onSendError(e, packet.length);
+        }
+      }
+      recycle(packet);
+    }
+  }
+
+  public long getPacketsSent() {
+    return packetsSent;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  public long getPacketsDropped() {
+    return packetsDropped;
+  }
+
+  public long getSendErrors() {
+    return sendErrors;
+  }
+}
@@ -0,0 +1,114 @@
+package com.marine.secretcamera.rtp;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.marine.secretcamera.bwe.DelayBasedBwe;
+import com.marine.secretcamera.bwe.PacketResult;
+import com.marine.secretcamera.bwe.ProbeBitrateEstimator;
+import com.marine.secretcamera.bwe.SendHistory;
+import com.marine.secretcamera.bwe.TransportFeedback;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.util.List;
+
+// 在推流 socket 上接收对端回传的 RTCP。
+//  目前只处理 transport-wide feedback: 用 SendHistory 找回每个包的发送时间后交给 DelayBasedBwe,
+//  得到的目标码率交给 RtpSession 通知上层, 同时调整编码器码率与发送速率。
+class RtcpReceiver {
+  private static final String TAG = "RtcpReceiver";
+
+  private final DatagramSocket socket;
+  private final SendHistory sendHistory;
+  private final DelayBasedBwe bwe;
+  private final ProbeBitrateEstimator probeEstimator;
+  private final MtuDiscovery mtuDiscovery;
+  private final RtpSession session;
+  private volatile boolean running;
+  private Thread thread;
+
+  RtcpReceiver(DatagramSocket socket, SendHistory sendHistory, DelayBasedBwe bwe,
+               ProbeBitrateEstimator probeEstimator, MtuDiscovery mtuDiscovery,
+               RtpSession session) {
+    this.socket = socket;
+    this.sendHistory = sendHistory;
+    this.bwe = bwe;
+    this.probeEstimator = probeEstimator;
+    this.mtuDiscovery = mtuDiscovery;
+    this.session = session;
+  }
+
+  void start() {
+    running = true;
+    thread = new Thread(this::run, "RtcpReceiver");
+    thread.start();
+  }
+
+  // 需要先关闭 socket, 阻塞在 receive 上的线程才会退出
+  void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+      thread = null;
+    }
+  }
+
+  private void run() {
+    byte[] buffer = new byte[RtpPacket.MAX_SIZE];
+    DatagramPacket datagram = new DatagramPacket(buffer, buffer.length);
+    while (running) {
+      try {
+        datagram.setLength(buffer.length);
+        socket.receive(datagram);
+      } catch (IOException e) {
+        if (running) {
+          Log.w(TAG, "rtcp receive failed", e);
+        }
+        break;
+      }
+      if (session.isFromPreviousEndpoint(datagram.getAddress())) {
+        continue;
+      }
+      handleCompound(buffer, datagram.getLength());
+    }
+  }
+
+  // 一个 UDP 包里可能有多个 RTCP 包（compound packet）
+  private void handleCompound(byte[] data, int length) {
+    int offset = 0;
+    while (offset + 4 <= length) {
+      // 版本号不是 2 的不是 RTCP
+      if (((data[offset] >> 6) & 0x03) != 2) {
+        return;
+      }
+      int packetLength = ((((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF)) + 1) * 4;
+      if (offset + packetLength > length) {
+        return;
+      }
+      if (TransportFeedback.isTransportFeedback(data, offset, packetLength)) {
+        onTransportFeedback(data, offset, packetLength);
+      }
+      offset += packetLength;
+    }
+  }
+
+  private void onTransportFeedback(byte[] data, int offset, int length) {
+    List<PacketResult> results = TransportFeedback.parse(data, offset, length);
+    if (results == null) {
+      return;
+    }
+    for (PacketResult result : results) {
+      if (sendHistory.fill(result)) {
+        mtuDiscovery.onPacketResult(result);
+        // MTU 探测包大小不一且发送间隔不固定, 不参与带宽探测
+        if (result.probeClusterId < MtuDiscovery.PROBE_CLUSTER_BASE) {
+          probeEstimator.onPacketResult(result);
+        }
+      }
+    }
+    long target = bwe.onFeedback(results, SystemClock.elapsedRealtime());
+    session.onBandwidthEstimate(target);
+  }
+}
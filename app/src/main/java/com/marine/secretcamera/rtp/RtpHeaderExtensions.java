@@ -0,0 +1,218 @@
+package com.marine.secretcamera.rtp;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// RFC 8285 RTP 头部扩展。
+//  已注册的 ID 都在 1~14 之内时使用 one-byte 格式（profile 0xBEDE）, 否则使用 two-byte 格式（profile 0x1000）。
+//  扩展 ID 由推流请求（push_request 的 rtpExtensions）协商, 0 表示不携带该扩展;
+//  请求没有携带时沿用下面的默认 ID。
+//  组包时只预留 abs-send-time 与 transport-wide 序列号的位置, 由 PacedSender 在真正发送前填写,
+//  这样记录的是离开发送队列的时间, 接收端做延迟梯度估计时不会把本地排队时间算进去。
+//
+//  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//  |       0xBE    |    0xDE       |           length              |
+//  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//  |  ID   |  L=0  |     data      |  ID   |  L=1  |   data...     |
+//  +-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+-+
+//  length 以 4 字节为单位, 不足 4 字节对齐的部分用 0 填充。
+public class RtpHeaderExtensions {
+  public static final String URI_ABS_SEND_TIME =
+      "http://www.webrtc.org/experiments/rtp-hdrext/abs-send-time";
+  public static final String URI_TRANSPORT_WIDE_CC =
+      "http://www.ietf.org/id/draft-holmer-rmcat-transport-wide-cc-extensions-01";
+  public static final String URI_VIDEO_ORIENTATION = "urn:3gpp:video-orientation";
+  public static final String URI_FRAME_MARKING = "urn:ietf:params:rtp-hdrext:framemarking";
+
+  // 6.18 定点数的秒, 24 bits
+  public static final int ABS_SEND_TIME_SIZE = 3;
+  public static final int TRANSPORT_SEQ_SIZE = 2;
+  // 0 0 0 0 C F R1 R0
+  public static final int VIDEO_ORIENTATION_SIZE = 1;
+
+  private static final int ONE_BYTE_PROFILE = 0xBEDE;
+  private static final int TWO_BYTE_PROFILE = 0x1000;
+  private static final int ONE_BYTE_MAX_ID = 14;
+  private static final int EXTENSION_HEADER_SIZE = 4;
+
+  private volatile int frameMarkingId = 1;
+  private volatile int absSendTimeId = 2;
+  private volatile int transportSeqId = 3;
+  private volatile int videoOrientationId = 4;
+
+  // 按信令协商的结果设置扩展 ID, id 为 0 表示关闭
+  public void register(String uri, int id) {
+    if (id < 0 || id > 255) {
+      throw new IllegalArgumentException("invalid extension id " + id);
+    }
+    switch (uri) {
+      case URI_ABS_SEND_TIME:
+        absSendTimeId = id;
+        break;
+      case URI_TRANSPORT_WIDE_CC:
+        transportSeqId = id;
+        break;
+      case URI_VIDEO_ORIENTATION:
+        videoOrientationId = id;
+        break;
+      case URI_FRAME_MARKING:
+        frameMarkingId = id;
+        break;
+      default:
+        throw new IllegalArgumentException("unsupported extension " + uri);
+    }
+  }
+
+  // 按推流请求协商的结果整体替换: 没有列出的扩展不再携带, 不认识的 URI 忽略。
+  //  ID 越界或两个扩展使用同一个 ID 时抛出 IllegalArgumentException, 不做任何修改
+  public synchronized void negotiate(Map<String, Integer> ids) {
+    int frameMarking = 0;
+    int absSendTime = 0;
+    int transportSeq = 0;
+    int videoOrientation = 0;
+    Set<Integer> used = new HashSet<>();
+    for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+      Integer id = entry.getValue();
+      if (id == null || id < 1 || id > 255 || !used.add(id)) {
+        throw new IllegalArgumentException("invalid extension id " + id + " for " + entry.getKey());
+      }
+      switch (entry.getKey()) {
+        case URI_ABS_SEND_TIME:
+          absSendTime = id;
+          break;
+        case URI_TRANSPORT_WIDE_CC:
+          transportSeq = id;
+          break;
+        case URI_VIDEO_ORIENTATION:
+          videoOrientation = id;
+          break;
+        case URI_FRAME_MARKING:
+          frameMarking = id;
+          break;
+        default:
+          break;
+      }
+    }
+    frameMarkingId = frameMarking;
+    absSendTimeId = absSendTime;
+    transportSeqId = transportSeq;
+    videoOrientationId = videoOrientation;
+  }
+
+  public int getId(String uri) {
+    switch (uri) {
+      case URI_ABS_SEND_TIME:
+        return absSendTimeId;
+      case URI_TRANSPORT_WIDE_CC:
+        return transportSeqId;
+      case URI_VIDEO_ORIENTATION:
+        return videoOrientationId;
+      case URI_FRAME_MARKING:
+        return frameMarkingId;
+      default:
+        return 0;
+    }
+  }
+
+  private boolean useTwoByte() {
+    return frameMarkingId > ONE_BYTE_MAX_ID || absSendTimeId > ONE_BYTE_MAX_ID
+        || transportSeqId > ONE_BYTE_MAX_ID || videoOrientationId > ONE_BYTE_MAX_ID;
+  }
+
+  // 一个包最多需要的扩展字节数（含扩展头与填充）, 用于计算分片的 payload 大小
+  public int maxSize(boolean withFrameMarking) {
+    int elementHeader = useTwoByte() ? 2 : 1;
+    int size = 0;
+    if (withFrameMarking && frameMarkingId > 0) size += elementHeader + FrameMarking.SIZE;
+    if (absSendTimeId > 0) size += elementHeader + ABS_SEND_TIME_SIZE;
+    if (transportSeqId > 0) size += elementHeader + TRANSPORT_SEQ_SIZE;
+    if (videoOrientationId > 0) size += elementHeader + VIDEO_ORIENTATION_SIZE;
+    if (size == 0) {
+      return 0;
+    }
+    return EXTENSION_HEADER_SIZE + (size + 3) / 4 * 4;
+  }
+
+  // 在 RTP 固定头之后写入扩展, 返回写入后的偏移; 没有任何扩展时不写入, 返回原偏移。
+  //  marking 为 null 时不写 FrameMarking; orientation 小于 0 时不写视频方向
+  int write(RtpPacket packet, int offset, FrameMarking marking, boolean start, boolean end,
+            int orientation) {
+    byte[] buffer = packet.buffer;
+    boolean twoByte = useTwoByte();
+    int begin = offset;
+    offset += EXTENSION_HEADER_SIZE;
+
+    int id = frameMarkingId;
+    if (marking != null && id > 0) {
+      offset = writeElementHeader(buffer, offset, id, FrameMarking.SIZE, twoByte);
+      offset += marking.write(buffer, offset, start, end);
+    }
+    id = absSendTimeId;
+    if (id > 0) {
+      offset = writeElementHeader(buffer, offset, id, ABS_SEND_TIME_SIZE, twoByte);
+      packet.absSendTimeOffset = offset;
+      offset += ABS_SEND_TIME_SIZE;
+    }
+    id = transportSeqId;
+    if (id > 0) {
+      offset = writeElementHeader(buffer, offset, id, TRANSPORT_SEQ_SIZE, twoByte);
+      packet.transportSeqOffset = offset;
+      offset += TRANSPORT_SEQ_SIZE;
+    }
+    id = videoOrientationId;
+    if (orientation >= 0 && id > 0) {
+      offset = writeElementHeader(buffer, offset, id, VIDEO_ORIENTATION_SIZE, twoByte);
+      buffer[offset++] = (byte) orientation;
+    }
+
+    if (offset == begin + EXTENSION_HEADER_SIZE) {
+      return begin;
+    }
+    // 补齐到 4 字节
+    while ((offset - begin) % 4 != 0) {
+      buffer[offset++] = 0;
+    }
+    int profile = twoByte ? TWO_BYTE_PROFILE : ONE_BYTE_PROFILE;
+    int words = (offset - begin - EXTENSION_HEADER_SIZE) / 4;
+    buffer[begin] = (byte) (profile >> 8);
+    buffer[begin + 1] = (byte) (profile & 0xFF);
+    buffer[begin + 2] = (byte) (words >> 8);
+    buffer[begin + 3] = (byte) (words & 0xFF);
+    // 设置 X 位
+    buffer[0] |= 0x10;
+    return offset;
+  }
+
+  private static int writeElementHeader(byte[] buffer, int offset, int id, int length,
+                                        boolean twoByte) {
+    if (twoByte) {
+      buffer[offset++] = (byte) id;
+      buffer[offset++] = (byte) length;
+    } else {
+      // ID(4 bits) | 长度 - 1(4 bits)
+      buffer[offset++] = (byte) ((id << 4) | (length - 1));
+    }
+    return offset;
+  }
+
+  // 发送前填写 abs-send-time: 发送时刻的秒数, 6.18 定点数取低 24 位
+  static void writeAbsSendTime(byte[] buffer, int offset, long nowNs) {
+    long value = ((nowNs / 1000) << 18) / 1_000_000;
+    buffer[offset] = (byte) ((value >> 16) & 0xFF);
+    buffer[offset + 1] = (byte) ((value >> 8) & 0xFF);
+    buffer[offset + 2] = (byte) (value & 0xFF);
+  }
+
+  static void writeTransportSequence(byte[] buffer, int offset, int sequence) {
+    buffer[offset] = (byte) ((sequence >> 8) & 0xFF);
+    buffer[offset + 1] = (byte) (sequence & 0xFF);
+  }
+
+  // 视频方向（CVO）: 不旋转画面本身, 由接收端按这个角度渲染
+  //  C: 1 为后置摄像头  F: 水平翻转  R1 R0: 顺时针旋转角度 / 90
+  public static int videoOrientation(int rotationDegrees, boolean backCamera, boolean flip) {
+    int rotation = ((rotationDegrees % 360 + 360) % 360) / 90;
+    return (backCamera ? 0x08 : 0) | (flip ? 0x04 : 0) | rotation;
+  }
+}
@@ -0,0 +1,19 @@
+package com.marine.secretcamera.rtp;
+
+// 一个待发送的 RTP 包。
+// buffer 是预先分配好的, 由 PacedSender 的对象池复用, 组包与发送的热路径上不再分配内存。
+public class RtpPacket {
+  // 以太网 MTU, 任何 RTP 包都不会超过这个大小
+  public static final int MAX_SIZE = 1500;
+
+  public final byte[] buffer = new byte[MAX_SIZE];
+  public int length;
+  // 进入发送队列的时间, 用于统计排队延迟
+  public long enqueueTimeNs;
+  // abs-send-time 与 transport-wide 序列号在 buffer 中的位置, 由 PacedSender 在发送前填写; -1 表示没有
+  public int absSendTimeOffset = -1;
+  public int transportSeqOffset = -1;
+  // 启动探测包: 按 probeRateBps 发送, 不受 pacer 速率限制; -1 表示普通包
+  public int probeClusterId = -1;
+  public long probeRateBps;
+}
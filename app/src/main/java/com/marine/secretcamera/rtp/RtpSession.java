@@ -1,12 +1,19 @@
 package com.marine.secretcamera.rtp;
 
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.marine.secretcamera.bwe.DelayBasedBwe;
+import com.marine.secretcamera.bwe.ProbeBitrateEstimator;
+import com.marine.secretcamera.bwe.SendHistory;
+
 import java.io.IOException;
-import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Random;
+
 //============= RTP 协议报头=======
 //  Version 表示 RTP 协议的版本，目前版本为 2。
 //  P (Padding) 表示 RT(D)P 包末尾是否有 padding bytes，且 padding bytes 的最后一个 byte 表示 bytes 的数量。Padding 可以被用来填充数据块，比如加密算法可能会用到。
@@ -19,240 +26,401 @@ import java.util.Random;
 //  SSRC (Synchronization source) 即同步源标识符。相同 RTP 会话中的 SSRC 是唯一的，且生成的 SSRC 也需要保持随机。尽管多个源选中同一个标识符的概率很低，但具体实现时仍然需要这种情况发生，即避免碰撞。
 //  CSRC (Contributing source) 在 MCU 混流时使用，表示混流出的新的音视频流的 SSRC 是由哪些源 SSRC 贡献的。根据上述 CC 得知，我们最多可以同时混 15 路音视频流。
 //  Extension header 即头部扩展，包含了音视频的一些额外信息，比如视频旋转角度。
+
+// RtpSession 持有 socket 与共用的 PacedSender, 可以承载多路 RtpStream（每路一个 SSRC）,
+// 例如同一个 capture session 出来的 1080p 与 360p 两路编码（simulcast）。
 public class RtpSession {
+  private static final String TAG = "RtpSession";
+  // 发送速率相对于编码目标码率的倍数, 留出余量让关键帧尽快发完
+  private static final float PACING_FACTOR = 2.5f;
+  // 带宽估计的范围
+  private static final long MIN_BITRATE = 100_000;
+  private static final long MAX_BITRATE = 8_000_000;
+  private static final long DEFAULT_START_BITRATE = 1_000_000;
+  // 每个探测 cluster 持续的时间与最少包数
+  private static final long PROBE_CLUSTER_DURATION_MS = 30;
+  private static final int PROBE_MIN_PACKETS = 10;
+  // 填充包的大致大小: RTP 头 + 扩展 + 255 字节填充
+  private static final int PROBE_PACKET_SIZE = 280;
+  private static final long PROBE_POLL_INTERVAL_MS = 20;
+
+  // 带宽估计更新时回调, 在 RTCP 接收线程中调用
+  public interface OnBandwidthEstimateListener {
+    void onBandwidthEstimate(long bitsPerSecond);
+  }
 
-  // ===== RTP 固定参数 =====
-  private static final int RTP_VERSION = 2;
-  private static final int PAYLOAD_TYPE_H264 = 96;
-  private static final int CLOCK_RATE = 90000;
+  // ===== 网络 =====
+  private volatile DatagramSocket socket;
+  private volatile InetAddress remoteAddress;
+  private volatile int remotePort;
+  // 切换节点之前的对端, 它回传的反馈不再参与带宽估计
+  private volatile InetAddress previousAddress;
+  // 配置了多个候选 ingest 节点时创建, 推流中持续探测并在当前节点变差时切换
+  private volatile IngestProber ingestProber;
+  private volatile IngestProber.OnEndpointChangedListener endpointListener;
+  private volatile PacedSender sender;
+  // 所有编码器目标码率之和, socket 就绪之前设置的值在 start() 时生效
+  private volatile long targetBitrate;
+
+  // ===== 带宽估计 =====
+  private final SendHistory sendHistory = new SendHistory();
+  private volatile DelayBasedBwe bandwidthEstimator;
+  private RtcpReceiver rtcpReceiver;
+  private volatile OnBandwidthEstimateListener bandwidthListener;
+  private volatile long lastEstimate;
+  private final ProbeBitrateEstimator probeEstimator = new ProbeBitrateEstimator();
+  // 探测包使用单独的 SSRC, 不影响媒体流的序列号
+  private RtpStream probeStream;
+  // 路径 MTU, 每次 start() 重新探测
+  private volatile MtuDiscovery mtuDiscovery;
+  private int nextProbeClusterId;
+
+  // 由信令下发的密钥创建, 为 null 时发送明文 RTP
+  private volatile SrtpTransformer srtp;
+
+  // 所有流共用同一组扩展 ID
+  private final RtpHeaderExtensions headerExtensions = new RtpHeaderExtensions();
+
+  private final Random random = new Random();
+  private final List<RtpStream> streams = new ArrayList<>();
+
+  // 创建一路新的 RTP 流, 可以在 start() 之前调用; SSRC 在会话内保证不重复
+  public synchronized RtpStream createStream() {
+    int ssrc;
+    boolean collision;
+    do {
+      ssrc = random.nextInt();
+      collision = false;
+      for (RtpStream stream : streams) {
+        if (stream.getSsrc() == ssrc) {
+          collision = true;
+          break;
+        }
+      }
+    } while (collision);
+    RtpStream stream = new RtpStream(this, ssrc);
+    streams.add(stream);
+    return stream;
+  }
 
-  // ===== RTP 状态 =====
-  private int sequenceNumber;
+  public synchronized void removeStream(RtpStream stream) {
+    streams.remove(stream);
+  }
 
-  //  timestamp 指的是 RTP时间戳（RTP Timestamp）。
-  //  它标记了RTP数据包中第一帧数据的采样时刻
-  private long timestamp;
+  public synchronized List<RtpStream> getStreams() {
+    return new ArrayList<>(streams);
+  }
 
-  //  SSRC 是 Synchronization Source（同步源） 的缩写。
-  //  在RTP（实时传输协议）中，它是一个32位的数字标识符，用来唯一地识别一个媒体流的来源。
-  private int ssrc;
+  //  start() 只干三件事：
+  //  初始化 socket
+  //  启动共用的发送线程
+  //  准备好“可以发包”的条件
+  public void start(String ip, int port) throws Exception {
 
-  // ======视频参数=====
-  private int fps;
+    this.remoteAddress = InetAddress.getByName(ip);
+    this.remotePort = port;
 
-  //  timestampStep (时间戳增量) 是 下一帧RTP时间戳相对于上一帧应该增加的值。
-  //  它是一个预先计算好的步长。
-  private long timestampStep;
+    this.socket = new DatagramSocket();
+    PacedSender pacedSender = new PacedSender(socket, remoteAddress, remotePort);
+    pacedSender.setPacingRate((long) (targetBitrate * PACING_FACTOR));
+    pacedSender.setSendHistory(sendHistory);
+    pacedSender.setSrtp(srtp);
+    MtuDiscovery mtu = new MtuDiscovery(this);
+    pacedSender.setOnSendErrorListener(mtu::onSendError);
+    pacedSender.start();
+    this.mtuDiscovery = mtu;
+    this.sender = pacedSender;
+
+    // 对端回传的 transport-wide feedback 也从这个 socket 收
+    long startBitrate = targetBitrate > 0 ? targetBitrate : DEFAULT_START_BITRATE;
+    bandwidthEstimator = new DelayBasedBwe(startBitrate, MIN_BITRATE, MAX_BITRATE);
+    rtcpReceiver = new RtcpReceiver(socket, sendHistory, bandwidthEstimator, probeEstimator,
+        mtu, this);
+    rtcpReceiver.start();
+    mtu.start(socket);
+  }
 
-  // ===== 网络 =====
-  private DatagramSocket socket;
-  private InetAddress remoteAddress;
-  private int remotePort;
+  // 从候选 ingest 节点（"host:port"）中选一个开始推流:
+  //  多于一个节点时先探测 RTT / 丢包选出最近的健康节点, 推流过程中继续在后台探测,
+  //  当前节点变差时自动 switchEndpoint() 并通知 OnEndpointChangedListener。
+  public void start(List<String> endpointSpecs) throws Exception {
+    List<IngestProber.Endpoint> endpoints = new ArrayList<>();
+    for (String spec : endpointSpecs) {
+      IngestProber.Endpoint endpoint = IngestProber.Endpoint.parse(spec);
+      if (endpoint != null) {
+        endpoints.add(endpoint);
+      } else {
+        Log.w(TAG, "ignoring bad ingest endpoint " + spec);
+      }
+    }
+    if (endpoints.isEmpty()) {
+      throw new IllegalArgumentException("no ingest endpoint configured");
+    }
+    IngestProber prober = new IngestProber(endpoints, this::onEndpointChanged);
+    prober.setOnRttListener(this::onEndpointRtt);
+    IngestProber.Endpoint endpoint;
+    if (endpoints.size() == 1) {
+      // 只有一个节点时不用选择, 后台探测只用来测量 RTT
+      endpoint = endpoints.get(0);
+      start(endpoint.host, endpoint.port);
+    } else {
+      endpoint = prober.probe();
+      if (endpoint == null) {
+        prober.stop();
+        throw new IOException("no ingest endpoint resolvable: " + endpointSpecs);
+      }
+      start(endpoint.getAddress().getHostAddress(), endpoint.port);
+      onEndpointRtt(endpoint, endpoint.getRttMs());
+    }
+    ingestProber = prober;
+    prober.start(endpoint);
+  }
 
+  public void setOnEndpointChangedListener(IngestProber.OnEndpointChangedListener listener) {
+    this.endpointListener = listener;
+  }
 
-  // ===== MTU设置 =====
-  // 这定义了你的应用认为的网络路径上，一个UDP数据包所能承载的最大尺寸。这是一个经验值
-  private static final int MTU = 1400;
+  // 探测线程（启动时为调用 start 的线程）: 没有 RTCP SR/RR 往返, 用 STUN 探测的 RTT 作为路径 RTT
+  private void onEndpointRtt(IngestProber.Endpoint endpoint, double rttMs) {
+    DelayBasedBwe bwe = bandwidthEstimator;
+    if (bwe != null && rttMs >= 0) {
+      bwe.setRtt(Math.round(rttMs));
+    }
+  }
 
-  // 一个标准的RTP包总是在其数据负载（Payload）前包含一个12字节的头部，
-  // 这个头部包含了版本、序列号、时间戳、SSRC等关键信息
-  private static final int RTP_HEADER_SIZE = 12;
+  // 探测线程: 探测结果决定切换节点
+  private void onEndpointChanged(IngestProber.Endpoint endpoint) {
+    switchEndpoint(endpoint.getAddress(), endpoint.port);
+    onEndpointRtt(endpoint, endpoint.getRttMs());
+    IngestProber.OnEndpointChangedListener listener = endpointListener;
+    if (listener != null) {
+      listener.onEndpointChanged(endpoint);
+    }
+  }
 
-  // FU-A格式。这个格式要求在RTP头之后、真正的视频数据片段之前，增加两个字节的FU-A头部：
-  private static final int FU_A_HEADER_SIZE = 2;
+  // 推流过程中切换到另一个 ingest 节点, 之后发出的包（包括队列里还没发出的）都发往新地址。
+  //  SSRC、序列号与 SRTP 密钥保持不变（各节点共用信令下发的密钥）;
+  //  新路径的延迟基线与 MTU 都和旧路径无关: 带宽估计从当前目标码率重新收敛, MTU 重新探测。
+  //  新节点只能从关键帧（带 SPS/PPS）开始解码, 由上层在 OnEndpointChangedListener 中请求。
+  public void switchEndpoint(InetAddress address, int port) {
+    if (address == null) {
+      return;
+    }
+    if (!address.equals(remoteAddress)) {
+      previousAddress = remoteAddress;
+    }
+    remoteAddress = address;
+    remotePort = port;
+    PacedSender s = sender;
+    if (s == null) {
+      return;
+    }
+    s.setRemote(address, port);
+    DelayBasedBwe bwe = bandwidthEstimator;
+    if (bwe != null) {
+      bwe.onRouteChange();
+    }
+    MtuDiscovery mtu = mtuDiscovery;
+    if (mtu != null) {
+      mtu.onRouteChange();
+    }
+  }
 
-  // MAX_FU_PAYLOAD 计算并定义了在单个FU-A分片RTP包中，
-  // 能够容纳的最大视频数据片段 (Payload) 的大小。
-  // 即 1400 - 12 - 2
-  private static final int MAX_FU_PAYLOAD =
-      MTU - RTP_HEADER_SIZE - FU_A_HEADER_SIZE;
+  // 网络变化后最近的节点可能变了, 立即重新探测一轮
+  public void reprobeEndpoints() {
+    IngestProber prober = ingestProber;
+    if (prober != null) {
+      prober.probeNow();
+    }
+  }
 
-  // 单 NALU（不分片）最大 payload
-  private static final int MAX_SINGLE_NALU_SIZE =
-      MTU - RTP_HEADER_SIZE;
+  // RTCP 接收线程: 切换之后旧节点还会回传一段时间的反馈, 它的到达时间和新节点的不可比
+  boolean isFromPreviousEndpoint(InetAddress address) {
+    InetAddress previous = previousAddress;
+    return previous != null && previous.equals(address) && !previous.equals(remoteAddress);
+  }
 
+  public void setOnBandwidthEstimateListener(OnBandwidthEstimateListener listener) {
+    this.bandwidthListener = listener;
+  }
 
-  //  start() 只干三件事：
-  //  初始化 RTP 状态
-  //  初始化 socket
-  //  准备好“可以发包”的条件
-  public void start(String ip, int port, int fps) throws Exception {
-    this.fps = fps;
-    this.timestampStep = CLOCK_RATE / fps;
+  // 启动带宽探测: 依次按 ratesBps 发送填充包 cluster, 阻塞到所有 cluster 都收到反馈或超时。
+  // 返回估计的可用带宽, 对端不支持 transport-wide feedback 时返回 -1。
+  // 探测成功时带宽估计器直接从这个值开始。
+  public long probe(long[] ratesBps, long timeoutMs) throws InterruptedException {
+    PacedSender s = sender;
+    if (s == null) {
+      return -1;
+    }
+    RtpStream stream = getProbeStream();
+    int firstClusterId;
+    synchronized (this) {
+      firstClusterId = nextProbeClusterId;
+      nextProbeClusterId += ratesBps.length;
+    }
+    probeEstimator.reset();
+    for (int i = 0; i < ratesBps.length; i++) {
+      long rate = ratesBps[i];
+      int count = (int) Math.max(PROBE_MIN_PACKETS,
+          rate * PROBE_CLUSTER_DURATION_MS / 1000 / 8 / PROBE_PACKET_SIZE);
+      probeEstimator.onClusterSent(firstClusterId + i, count);
+      stream.sendProbeCluster(s, firstClusterId + i, rate, count);
+    }
+    long deadline = SystemClock.elapsedRealtime() + timeoutMs;
+    while (!probeEstimator.isComplete() && SystemClock.elapsedRealtime() < deadline) {
+      Thread.sleep(PROBE_POLL_INTERVAL_MS);
+    }
+    long estimate = probeEstimator.getEstimate();
+    if (estimate > 0) {
+      setInitialBandwidth(estimate);
+    }
+    return estimate;
+  }
 
-    // 初始化序列号与时间戳
-    this.sequenceNumber = 0;
-    this.timestamp = 0;
-    this.ssrc = new Random().nextInt();
+  // 探测包使用单独的 SSRC, 不打乱媒体流的序列号
+  private synchronized RtpStream getProbeStream() {
+    if (probeStream == null) {
+      probeStream = createStream();
+    }
+    return probeStream;
+  }
 
-    this.remoteAddress = InetAddress.getByName(ip);
-    this.remotePort = port;
+  // 发送一个 size 字节的 MTU 探测包, 会话已经停止时返回 false
+  boolean sendMtuProbe(int clusterId, int size, long rateBps) {
+    PacedSender s = sender;
+    if (s == null) {
+      return false;
+    }
+    // 探测的是 UDP payload 的大小, 加密后的长度才等于 size
+    getProbeStream().sendMtuProbe(s, clusterId, size - getSrtpOverhead(), rateBps);
+    return true;
+  }
 
-    this.socket = new DatagramSocket();
+  // 当前可用的 RTP 包大小（UDP payload 减去 SRTP 认证标签）, RtpStream 按它分片
+  public int getMtu() {
+    MtuDiscovery mtu = mtuDiscovery;
+    return (mtu != null ? mtu.getMtu() : MtuDiscovery.DEFAULT_MTU) - getSrtpOverhead();
   }
 
-  //  当一个 NALU > MTU（通常 1200~1400 字节）
-  //  单 RTP 包放不下
-  //  必须拆成多个 RTP 包
-  //  使用 FU-A（Fragmentation Unit - Type 28）
-  public void sendNalu(byte[] nalu, int type, boolean isKeyFrame) {
-    if (nalu.length <= MAX_SINGLE_NALU_SIZE) {
-      sendSingleNalu(nalu);
-    } else {
-      sendFuANalu(nalu);
+  // 开启 / 更换 SRTP 密钥, 从发送线程处理的下一个包开始生效; null 表示关闭
+  public void setSrtp(SrtpTransformer srtp) {
+    this.srtp = srtp;
+    PacedSender s = sender;
+    if (s != null) {
+      s.setSrtp(srtp);
     }
   }
 
-  private void sendSingleNalu(byte[] nalu) {
-    // 1. 构造 RTP Header（12 bytes）
-    int payloadSize = nalu.length;
-    int rtpPacketSize = 12 + payloadSize;
-
-    byte[] packet = new byte[rtpPacketSize];
-    int offset = 0;
-
-    // 2. 拼 payload（NALU 去掉 0x00000001）
-    // Byte 0: V=2, P=0, X=0, CC=0
-    packet[offset++] = (byte) (0x80);
-
-    // Byte 1: M=1 (single NALU), PT=96
-    // 异或用于保持第一位始终为一
-    packet[offset++] = (byte) (0x80 | PAYLOAD_TYPE_H264);
-
-    // Sequence Number (16 bits)
-    packet[offset++] = (byte) ((sequenceNumber >> 8) & 0xFF);
-    packet[offset++] = (byte) (sequenceNumber & 0xFF);
-
-    // Timestamp (32 bits)
-    packet[offset++] = (byte) ((timestamp >> 24) & 0xFF);
-    packet[offset++] = (byte) ((timestamp >> 16) & 0xFF);
-    packet[offset++] = (byte) ((timestamp >> 8) & 0xFF);
-    packet[offset++] = (byte) (timestamp & 0xFF);
-
-    // SSRC (32 bits)
-    packet[offset++] = (byte) ((ssrc >> 24) & 0xFF);
-    packet[offset++] = (byte) ((ssrc >> 16) & 0xFF);
-    packet[offset++] = (byte) ((ssrc >> 8) & 0xFF);
-    packet[offset++] = (byte) (ssrc & 0xFF);
-
-    // ===== RTP Payload (NALU) =====
-    System.arraycopy(nalu, 0, packet, offset, payloadSize);
-
-    // ===== UDP Send =====
-    DatagramPacket udpPacket =
-        new DatagramPacket(packet, packet.length, remoteAddress, remotePort);
-    try {
-      socket.send(udpPacket);
-    } catch (IOException e) {
-      Log.e("RtpSession", "failed to send Single Packet");
-      throw new RuntimeException(e);
-    }
-    // ===== 更新 RTP 状态 =====
-    sequenceNumber++;
-    timestamp += timestampStep;
+  public boolean isSrtpEnabled() {
+    return srtp != null;
   }
 
-  // 这个方法的作用是接收一个超过MTU大小的NALU，将其“切片”，
-  // 然后将每个“切片”用RTP和FU-A头部包装起来，通过UDP发送出去。
-  private void sendFuANalu(byte[] nalu) {
-    //      RTP Header (12 bytes)
-    //+-----------------------------------+
-    //|   FU Indicator (1 byte)           |
-    //+-----------------------------------+
-    //|   FU Header (1 byte)              |
-    //+-----------------------------------+
-    //|   NALU Payload Data (N-bytes)     |
-    //+-----------------------------------+
-
-      // ---- 原始 NALU header ----
-      byte nalHeader = nalu[0];
-      // & 0x1F: 0x1F 的二进制是 0001 1111。通过“与”运算，可以提取出 nalHeader 的低5位，
-      // 这正是原始NALU的类型（例如，I帧是5，P帧是1）。这个 nalType 将被用在下面的FU Header中。
-      int nalType = nalHeader & 0x1F;
-      int nri = nalHeader & 0x60;
-      int forbidden = nalHeader & 0x80;
-
-      // ---- FU Indicator ----
-      byte fuIndicator = (byte) (forbidden | nri | 28);
-
-      int payloadOffset = 1; // 跳过原始 NALU header
-      int payloadRemaining = nalu.length - 1;
-
-      boolean isFirst = true;
-
-      while (payloadRemaining > 0) {
-        int chunkSize = Math.min(payloadRemaining, MAX_FU_PAYLOAD);
-        boolean isLast = payloadRemaining - chunkSize == 0;
-
-        byte fuHeader = (byte) nalType;
-        // fuHeader |= 0x80: 如果是第一个分片 (isFirst为true)，
-        // 就通过或运算将 FU Header 的最高位置为1。
-        // 这个就是Start Bit (S=1)。0x80的二进制是1000 0000。
-        if (isFirst) fuHeader |= 0x80; // S
-        // fuHeader |= 0x40: 如果是最后一个分片 (isLast为true)，就将第6位置为1。
-        // 这个就是End Bit (E=1)。0x40的二进制是0100 0000。
-        if (isLast) fuHeader |= 0x40;  // E
-
-        int packetSize =
-            RTP_HEADER_SIZE + FU_A_HEADER_SIZE + chunkSize;
-
-        byte[] packet = new byte[packetSize];
-        int offset = 0;
-
-        // ===== RTP Header =====
-        packet[offset++] = (byte) 0x80;
-        packet[offset++] = (byte)
-            ((isLast ? 0x80 : 0x00) | PAYLOAD_TYPE_H264);
-
-        packet[offset++] = (byte) (sequenceNumber >> 8);
-        packet[offset++] = (byte) sequenceNumber;
-
-        packet[offset++] = (byte) (timestamp >> 24);
-        packet[offset++] = (byte) (timestamp >> 16);
-        packet[offset++] = (byte) (timestamp >> 8);
-        packet[offset++] = (byte) timestamp;
-
-        packet[offset++] = (byte) (ssrc >> 24);
-        packet[offset++] = (byte) (ssrc >> 16);
-        packet[offset++] = (byte) (ssrc >> 8);
-        packet[offset++] = (byte) ssrc;
-
-        // ===== FU-A =====
-        packet[offset++] = fuIndicator;
-        packet[offset++] = fuHeader;
-
-        System.arraycopy(
-            nalu,
-            payloadOffset,
-            packet,
-            offset,
-            chunkSize
-        );
-
-        // ===== UDP Send =====
-        DatagramPacket udpPacket =
-            new DatagramPacket(packet, packet.length, remoteAddress, remotePort);
-        try {
-          socket.send(udpPacket);
-        } catch (IOException e) {
-          Log.e("RtpSession", "failed to send FU-A Packet");
-          throw new RuntimeException(e);
-        }
+  private int getSrtpOverhead() {
+    SrtpTransformer t = srtp;
+    return t != null ? t.getOverhead() : 0;
+  }
 
-        sequenceNumber++;
+  // 用探测或缓存的结果作为带宽估计的起点
+  public void setInitialBandwidth(long bitsPerSecond) {
+    DelayBasedBwe bwe = bandwidthEstimator;
+    if (bwe != null) {
+      bwe.setEstimate(bitsPerSecond);
+    }
+  }
 
-        payloadOffset += chunkSize;
-        payloadRemaining -= chunkSize;
-        isFirst = false;
-      }
+  public DelayBasedBwe getBandwidthEstimator() {
+    return bandwidthEstimator;
+  }
 
-      // 一整个 NALU 结束后才推进 timestamp
-      timestamp += timestampStep;
+  void onBandwidthEstimate(long bitsPerSecond) {
+    if (bitsPerSecond == lastEstimate) {
+      return;
+    }
+    lastEstimate = bitsPerSecond;
+    OnBandwidthEstimateListener listener = bandwidthListener;
+    if (listener != null) {
+      listener.onBandwidthEstimate(bitsPerSecond);
+    }
   }
+
+  public RtpHeaderExtensions getHeaderExtensions() {
+    return headerExtensions;
+  }
+
+  PacedSender getSender() {
+    return sender;
+  }
+
+  // 按所有编码器目标码率之和设置发送速率
+  public void setTargetBitrate(long bitsPerSecond) {
+    targetBitrate = bitsPerSecond;
+    PacedSender s = sender;
+    if (s != null) {
+      s.setPacingRate((long) (bitsPerSecond * PACING_FACTOR));
+    }
+  }
+
+  // 共用发送队列中等待发送的包数
+  public int getQueueSize() {
+    PacedSender s = sender;
+    return s != null ? s.getQueueSize() : 0;
+  }
+
+  public boolean isStarted() {
+    return sender != null;
+  }
+
   public void stop() {
+    IngestProber prober = ingestProber;
+    ingestProber = null;
+    if (prober != null) {
+      prober.stop();
+    }
+    PacedSender s = sender;
+    sender = null;
+    if (s != null) {
+      s.stop();
+    }
+    MtuDiscovery mtu = mtuDiscovery;
+    mtuDiscovery = null;
+    if (mtu != null) {
+      mtu.stop();
+    }
+    if (rtcpReceiver != null) {
+      rtcpReceiver.stop();
+      rtcpReceiver = null;
+    }
     if (socket != null && !socket.isClosed()) {
       socket.close();
       socket = null;
     }
   }
+
+  @Override
+  public String toString() {
+    PacedSender s = sender;
+    StringBuilder sb = new StringBuilder();
+    if (s != null) {
+      sb.append("pacer: rate=").append(s.getPacingRate() / 1000).append("kbps")
+          .append(" queue=").append(s.getQueueSize())
+          .append(" sent=").append(s.getPacketsSent())
+          .append(" dropped=").append(s.getPacketsDropped())
+          .append(" errors=").append(s.getSendErrors())
+          .append(" mtu=").append(getMtu());
+      SrtpTransformer t = srtp;
+      sb.append(" srtp=").append(t != null ? t.getSuite() : "off");
+    }
+    IngestProber prober = ingestProber;
+    if (prober != null) {
+      sb.append("\n  ").append(prober);
+    }
+    DelayBasedBwe bwe = bandwidthEstimator;
+    if (bwe != null) {
+      sb.append("\n  bwe: ").append(bwe);
+    }
+    for (RtpStream stream : getStreams()) {
+      sb.append("\n  ").append(stream);
+    }
+    return sb.toString();
+  }
 }
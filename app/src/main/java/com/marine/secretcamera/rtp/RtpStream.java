@@ -0,0 +1,320 @@
+package com.marine.secretcamera.rtp;
+
+import java.util.Random;
+
+// 一路 RTP 媒体流（一个 SSRC）。
+// 每个编码器对应一个 RtpStream, 各自维护序列号与时间戳;
+// 组好的包交给 RtpSession 共用的 PacedSender 发送。
+public class RtpStream {
+
+  // ===== RTP 固定参数 =====
+  private static final int PAYLOAD_TYPE_H264 = 96;
+  private static final int CLOCK_RATE = 90000;
+  private static final int MTU_PROBE_PAYLOAD_TYPE = 127;
+
+  // ===== MTU设置 =====
+  // 网络路径上一个 UDP 数据包所能承载的最大尺寸, 由 RtpSession 的 MtuDiscovery 探测得到,
+  // 探测完成之前使用 1400 这个经验值
+
+  // 一个标准的RTP包总是在其数据负载（Payload）前包含一个12字节的头部，
+  // 这个头部包含了版本、序列号、时间戳、SSRC等关键信息
+  private static final int RTP_HEADER_SIZE = 12;
+
+  // FU-A格式。这个格式要求在RTP头之后、真正的视频数据片段之前，增加两个字节的FU-A头部：
+  private static final int FU_A_HEADER_SIZE = 2;
+
+  // MAX_FU_PAYLOAD 计算并定义了在单个FU-A分片RTP包中，
+  // 能够容纳的最大视频数据片段 (Payload) 的大小。
+  // 即 MTU - 12 - 2
+  private static int maxFuPayload(int mtu) {
+    return mtu - RTP_HEADER_SIZE - FU_A_HEADER_SIZE;
+  }
+
+  // 单 NALU（不分片）最大 payload
+  private static int maxSingleNaluSize(int mtu) {
+    return mtu - RTP_HEADER_SIZE;
+  }
+
+  // RTP 填充长度只有一个字节
+  private static final int MAX_PADDING_SIZE = 255;
+
+  private final RtpSession session;
+
+  // ===== RTP 状态 =====
+  private int sequenceNumber;
+
+  //  timestamp 指的是 RTP时间戳（RTP Timestamp）。
+  //  它标记了RTP数据包中第一帧数据的采样时刻
+  private long timestamp;
+
+  //  SSRC 是 Synchronization Source（同步源） 的缩写。
+  //  在RTP（实时传输协议）中，它是一个32位的数字标识符，用来唯一地识别一个媒体流的来源。
+  private final int ssrc;
+
+  //  timestampBase 是随机选取的 RTP 时间戳初始偏移。
+  //  RTP 时间戳由编码器输出的 presentationTimeUs 换算成 90kHz 再加上这个偏移得到,
+  //  同一帧的所有 NALU 共用一个时间戳, 相机重启造成的空档也会如实反映在时间戳上。
+  private final long timestampBase;
+
+  // 视频方向（CVO）字节, 小于 0 表示不携带
+  private volatile int videoOrientation = -1;
+  // 高于这个时间层的帧直接丢弃, 不进入发送队列
+  private volatile int maxTemporalLayer = Integer.MAX_VALUE;
+
+  private volatile long packetsSent;
+  private volatile long framesDropped;
+  // 当前帧是否整帧丢弃, 在帧的第一个 NALU 决定, 只在编码器的 drain 线程访问
+  private boolean droppingFrame;
+  private volatile long bytesSent;
+
+  RtpStream(RtpSession session, int ssrc) {
+    this.session = session;
+    this.ssrc = ssrc;
+    this.timestampBase = new Random().nextInt() & 0xFFFFFFFFL;
+  }
+
+  public int getSsrc() {
+    return ssrc;
+  }
+
+  // socket 与发送线程已经就绪, 之前交给 sendNalu 的数据都被直接丢弃
+  public boolean isSending() {
+    return session.getSender() != null;
+  }
+
+  public long getPacketsSent() {
+    return packetsSent;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  // 见 RtpHeaderExtensions.videoOrientation, 在每一帧的最后一个包中携带
+  public void setVideoOrientation(int videoOrientation) {
+    this.videoOrientation = videoOrientation;
+  }
+
+  // 拥塞时只发送基础层（传 0）, L1T2 下帧率立即减半, 恢复时传入 Integer.MAX_VALUE
+  public void setMaxTemporalLayer(int maxTemporalLayer) {
+    this.maxTemporalLayer = maxTemporalLayer;
+  }
+
+  public int getMaxTemporalLayer() {
+    return maxTemporalLayer;
+  }
+
+  //  当一个 NALU > MTU（通常 1200~1400 字节）
+  //  单 RTP 包放不下
+  //  必须拆成多个 RTP 包
+  //  使用 FU-A（Fragmentation Unit - Type 28）
+  public void sendNalu(byte[] nalu, int type, boolean isKeyFrame, long presentationTimeUs,
+                       FrameMarking marking) {
+    // 启动时 socket 与编码器并行初始化, socket 还没准备好时直接丢弃
+    PacedSender sender = session.getSender();
+    if (sender == null) {
+      return;
+    }
+    // 增强层的帧没有被基础层参考, 整帧丢弃不影响后续解码; 在分配序列号之前丢弃, 接收端不会认为丢包。
+    // 以下两种情况丢弃: 带宽估计要求只发基础层; 发送队列积压, 说明网络暂时跟不上
+    if (marking != null) {
+      if (marking.startOfFrame) {
+        droppingFrame = marking.temporalId > 0
+            && (marking.temporalId > maxTemporalLayer
+            || sender.getQueueSize() >= PacedSender.ENHANCEMENT_DROP_QUEUE_SIZE);
+        if (droppingFrame) {
+          framesDropped++;
+        }
+      }
+      if (droppingFrame) {
+        return;
+      }
+    }
+    timestamp = (timestampBase + presentationTimeUs * CLOCK_RATE / 1_000_000) & 0xFFFFFFFFL;
+    // 按最多需要的扩展大小预留空间, 保证任何一个分片都不超过 MTU
+    int extensionSize = session.getHeaderExtensions().maxSize(marking != null);
+    // 一个 NALU 的所有分片使用同一个 MTU, 探测结果在 NALU 之间生效
+    int mtu = session.getMtu();
+    if (nalu.length <= maxSingleNaluSize(mtu) - extensionSize) {
+      sendSingleNalu(sender, nalu, marking);
+    } else {
+      sendFuANalu(sender, nalu, marking, maxFuPayload(mtu) - extensionSize);
+    }
+  }
+
+  // 启动带宽探测: 以 rateBps 连续发送 count 个只有填充的包（P=1, 没有负载）。
+  // 填充包同样带有 transport-wide 序列号, 接收端的反馈会覆盖它们, 解码器会直接丢弃。
+  synchronized void sendProbeCluster(PacedSender sender, int clusterId, long rateBps, int count) {
+    for (int i = 0; i < count; i++) {
+      RtpPacket packet = sender.obtain();
+      byte[] buffer = packet.buffer;
+      int offset = writeHeader(packet, false, null, false, false);
+      // Byte 0: P=1
+      buffer[0] |= 0x20;
+      for (int j = 0; j < MAX_PADDING_SIZE - 1; j++) {
+        buffer[offset++] = 0;
+      }
+      // 最后一个字节是填充长度（包括它自己）
+      buffer[offset++] = (byte) MAX_PADDING_SIZE;
+      packet.length = offset;
+      packet.probeClusterId = clusterId;
+      packet.probeRateBps = rateBps;
+      sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+      sender.enqueue(packet);
+    }
+  }
+
+  // Path MTU 探测包: 总长度为 size 字节的 UDP payload, 负载全部为 0。
+  // PT 使用接收端不认识的 127, 对端只会在 transport-wide feedback 中确认收到, 不会交给解码器;
+  // 设置了 DF 的 socket 上, 超过路径 MTU 的探测包会被丢弃或直接发送失败。
+  // 带宽探测与 MTU 探测可能在不同线程中共用探测用的 RtpStream, 两者互斥。
+  synchronized void sendMtuProbe(PacedSender sender, int clusterId, int size, long rateBps) {
+    RtpPacket packet = sender.obtain();
+    byte[] buffer = packet.buffer;
+    int offset = writeHeader(packet, false, null, false, false);
+    buffer[1] = (byte) MTU_PROBE_PAYLOAD_TYPE;
+    int length = Math.max(offset, Math.min(size, buffer.length));
+    for (int i = offset; i < length; i++) {
+      buffer[i] = 0;
+    }
+    packet.length = length;
+    packet.probeClusterId = clusterId;
+    packet.probeRateBps = rateBps;
+    sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+    sender.enqueue(packet);
+  }
+
+  // 构造 RTP Header（12 bytes）与头部扩展, 返回写入后的偏移
+  private int writeHeader(RtpPacket rtpPacket, boolean marker, FrameMarking marking,
+                          boolean start, boolean end) {
+    byte[] packet = rtpPacket.buffer;
+    int offset = 0;
+    // Byte 0: V=2, P=0, X=0, CC=0; 写入扩展时再设置 X 位
+    packet[offset++] = (byte) (0x80);
+
+    // Byte 1: M, PT=96
+    packet[offset++] = (byte) ((marker ? 0x80 : 0x00) | PAYLOAD_TYPE_H264);
+
+    // Sequence Number (16 bits)
+    packet[offset++] = (byte) ((sequenceNumber >> 8) & 0xFF);
+    packet[offset++] = (byte) (sequenceNumber & 0xFF);
+
+    // Timestamp (32 bits)
+    packet[offset++] = (byte) ((timestamp >> 24) & 0xFF);
+    packet[offset++] = (byte) ((timestamp >> 16) & 0xFF);
+    packet[offset++] = (byte) ((timestamp >> 8) & 0xFF);
+    packet[offset++] = (byte) (timestamp & 0xFF);
+
+    // SSRC (32 bits)
+    packet[offset++] = (byte) ((ssrc >> 24) & 0xFF);
+    packet[offset++] = (byte) ((ssrc >> 16) & 0xFF);
+    packet[offset++] = (byte) ((ssrc >> 8) & 0xFF);
+    packet[offset++] = (byte) (ssrc & 0xFF);
+
+    // 视频方向只需要在每一帧的最后一个包里携带
+    int orientation = end || marking == null ? videoOrientation : -1;
+    return session.getHeaderExtensions().write(rtpPacket, offset, marking, start, end,
+        orientation);
+  }
+
+  private void sendSingleNalu(PacedSender sender, byte[] nalu, FrameMarking marking) {
+    RtpPacket packet = sender.obtain();
+    // M=1 (single NALU)
+    int offset = writeHeader(packet, true, marking,
+        marking != null && marking.startOfFrame, marking != null && marking.endOfFrame);
+
+    // ===== RTP Payload (NALU) =====
+    // payload 是 NALU 去掉 0x00000001 起始码后的内容
+    System.arraycopy(nalu, 0, packet.buffer, offset, nalu.length);
+    packet.length = offset + nalu.length;
+
+    enqueue(sender, packet);
+  }
+
+  // 这个方法的作用是接收一个超过MTU大小的NALU，将其“切片”，
+  // 然后将每个“切片”用RTP和FU-A头部包装起来，交给发送线程。
+  private void sendFuANalu(PacedSender sender, byte[] nalu, FrameMarking marking,
+                           int maxChunkSize) {
+    //      RTP Header (12 bytes)
+    //+-----------------------------------+
+    //|   FU Indicator (1 byte)           |
+    //+-----------------------------------+
+    //|   FU Header (1 byte)              |
+    //+-----------------------------------+
+    //|   NALU Payload Data (N-bytes)     |
+    //+-----------------------------------+
+
+    // ---- 原始 NALU header ----
+    byte nalHeader = nalu[0];
+    // & 0x1F: 0x1F 的二进制是 0001 1111。通过“与”运算，可以提取出 nalHeader 的低5位，
+    // 这正是原始NALU的类型（例如，I帧是5，P帧是1）。这个 nalType 将被用在下面的FU Header中。
+    int nalType = nalHeader & 0x1F;
+    int nri = nalHeader & 0x60;
+    int forbidden = nalHeader & 0x80;
+
+    // ---- FU Indicator ----
+    byte fuIndicator = (byte) (forbidden | nri | 28);
+
+    int payloadOffset = 1; // 跳过原始 NALU header
+    int payloadRemaining = nalu.length - 1;
+
+    boolean isFirst = true;
+
+    while (payloadRemaining > 0) {
+      int chunkSize = Math.min(payloadRemaining, maxChunkSize);
+      boolean isLast = payloadRemaining - chunkSize == 0;
+
+      byte fuHeader = (byte) nalType;
+      // fuHeader |= 0x80: 如果是第一个分片 (isFirst为true)，
+      // 就通过或运算将 FU Header 的最高位置为1。
+      // 这个就是Start Bit (S=1)。0x80的二进制是1000 0000。
+      if (isFirst) fuHeader |= 0x80; // S
+      // fuHeader |= 0x40: 如果是最后一个分片 (isLast为true)，就将第6位置为1。
+      // 这个就是End Bit (E=1)。0x40的二进制是0100 0000。
+      if (isLast) fuHeader |= 0x40;  // E
+
+      RtpPacket packet = sender.obtain();
+      byte[] buffer = packet.buffer;
+
+      // ===== RTP Header =====
+      int offset = writeHeader(packet, isLast, marking,
+          isFirst && marking != null && marking.startOfFrame,
+          isLast && marking != null && marking.endOfFrame);
+
+      // ===== FU-A =====
+      buffer[offset++] = fuIndicator;
+      buffer[offset++] = fuHeader;
+
+      System.arraycopy(
+          nalu,
+          payloadOffset,
+          buffer,
+          offset,
+          chunkSize
+      );
+      packet.length = offset + chunkSize;
+
+      enqueue(sender, packet);
+
+      payloadOffset += chunkSize;
+      payloadRemaining -= chunkSize;
+      isFirst = false;
+    }
+  }
+
+  private void enqueue(PacedSender sender, RtpPacket packet) {
+    // ===== 更新 RTP 状态 =====
+    sequenceNumber = (sequenceNumber + 1) & 0xFFFF;
+    packetsSent++;
+    bytesSent += packet.length;
+    sender.enqueue(packet);
+  }
+
+  @Override
+  public String toString() {
+    return "ssrc=" + Integer.toHexString(ssrc)
+        + " packets=" + packetsSent
+        + " bytes=" + bytesSent
+        + " framesDropped=" + framesDropped;
+  }
+}
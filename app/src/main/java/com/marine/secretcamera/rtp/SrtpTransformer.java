@@ -0,0 +1,219 @@
+package com.marine.secretcamera.rtp;
+
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// SRTP 发送端（RFC 3711, AES-GCM 按 RFC 7714）。
+//  会话密钥在构造时由主密钥派生一次（key derivation rate = 0）;
+//  protect() 在 PacedSender 的发送线程中、写完 abs-send-time 与 transport-wide 序列号之后调用,
+//  直接在 RtpPacket 的池化 buffer 上原地加密并追加认证标签, 不分配内存（GCM 每包一个参数对象）。
+//  AES-CM 不逐包 init Cipher: 用缓存的 AES/ECB 一次加密整包的计数器块得到密钥流, 再异或到负载上。
+//  每个 SSRC 的 rollover counter 按序列号回绕自行维护。
+// 只在发送线程使用, 不是线程安全的。
+public class SrtpTransformer {
+  public enum Suite {
+    AES_CM_128_HMAC_SHA1_80(16, 14, 10),
+    AEAD_AES_128_GCM(16, 12, 16);
+
+    public final int keyLength;
+    public final int saltLength;
+    // 加在每个包末尾的认证标签长度
+    public final int tagLength;
+
+    Suite(int keyLength, int saltLength, int tagLength) {
+      this.keyLength = keyLength;
+      this.saltLength = saltLength;
+      this.tagLength = tagLength;
+    }
+  }
+
+  private static final int LABEL_ENCRYPTION = 0;
+  private static final int LABEL_AUTH = 1;
+  private static final int LABEL_SALT = 2;
+  private static final int AUTH_KEY_LENGTH = 20;
+  private static final int BLOCK_SIZE = 16;
+  private static final int MAX_STREAMS = 16;
+
+  private final Suite suite;
+  private final byte[] sessionSalt;
+  private final Cipher cipher;
+  private final SecretKeySpec sessionKey;
+  private final Mac mac;
+
+  // 以下缓冲区逐包复用
+  private final byte[] iv = new byte[BLOCK_SIZE];
+  private final byte[] counterBlocks = new byte[RtpPacket.MAX_SIZE + BLOCK_SIZE];
+  private final byte[] keystream = new byte[RtpPacket.MAX_SIZE + BLOCK_SIZE];
+  private final byte[] rocBytes = new byte[4];
+  private final byte[] macOutput = new byte[AUTH_KEY_LENGTH];
+
+  // 每个 SSRC 的 rollover counter 与最近发送的序列号, 流的数量很少, 线性查找
+  private final int[] ssrcs = new int[MAX_STREAMS];
+  private final int[] rocs = new int[MAX_STREAMS];
+  private final int[] lastSequences = new int[MAX_STREAMS];
+  private int streamCount;
+
+  public SrtpTransformer(Suite suite, byte[] masterKey, byte[] masterSalt)
+      throws GeneralSecurityException {
+    if (masterKey.length != suite.keyLength || masterSalt.length != suite.saltLength) {
+      throw new GeneralSecurityException("bad master key length for " + suite);
+    }
+    this.suite = suite;
+    // GCM 的主盐只有 96 位, 派生时在末尾补零到 112 位
+    byte[] kdfSalt = Arrays.copyOf(masterSalt, 14);
+    Cipher kdf = Cipher.getInstance("AES/ECB/NoPadding");
+    kdf.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(masterKey, "AES"));
+    sessionKey = new SecretKeySpec(derive(kdf, kdfSalt, LABEL_ENCRYPTION, suite.keyLength), "AES");
+    sessionSalt = derive(kdf, kdfSalt, LABEL_SALT, suite.saltLength);
+    if (suite == Suite.AEAD_AES_128_GCM) {
+      cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      mac = null;
+    } else {
+      cipher = Cipher.getInstance("AES/ECB/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, sessionKey);
+      mac = Mac.getInstance("HmacSHA1");
+      mac.init(new SecretKeySpec(derive(kdf, kdfSalt, LABEL_AUTH, AUTH_KEY_LENGTH), "HmacSHA1"));
+    }
+  }
+
+  // AES-CM PRF: x = (label << 48) XOR master_salt, 密钥流 = AES(x * 2^16), AES(x * 2^16 + 1) ...
+  static byte[] derive(Cipher kdf, byte[] masterSalt, int label, int length)
+      throws GeneralSecurityException {
+    int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    byte[] input = new byte[blocks * BLOCK_SIZE];
+    for (int b = 0; b < blocks; b++) {
+      int p = b * BLOCK_SIZE;
+      System.arraycopy(masterSalt, 0, input, p, 14);
+      input[p + 7] ^= (byte) label;
+      input[p + 14] = (byte) (b >> 8);
+      input[p + 15] = (byte) b;
+    }
+    return Arrays.copyOf(kdf.doFinal(input), length);
+  }
+
+  public Suite getSuite() {
+    return suite;
+  }
+
+  // 每个包增加的字节数
+  public int getOverhead() {
+    return suite.tagLength;
+  }
+
+  // 原地加密 packet[0, length) 并追加认证标签, 返回新的长度; 调用方保证 buffer 末尾有 getOverhead() 字节的空间
+  public int protect(byte[] packet, int length) throws GeneralSecurityException {
+    int headerLength = headerLength(packet, length);
+    int ssrc = ((packet[8] & 0xFF) << 24) | ((packet[9] & 0xFF) << 16)
+        | ((packet[10] & 0xFF) << 8) | (packet[11] & 0xFF);
+    int sequence = ((packet[2] & 0xFF) << 8) | (packet[3] & 0xFF);
+    int roc = updateRoc(ssrc, sequence);
+    if (suite == Suite.AEAD_AES_128_GCM) {
+      return protectGcm(packet, length, headerLength, ssrc, roc, sequence);
+    }
+    encryptCtr(packet, headerLength, length - headerLength, ssrc, roc, sequence);
+    // 认证范围: 整个 RTP 包（头部明文 + 加密后的负载）|| ROC
+    rocBytes[0] = (byte) (roc >>> 24);
+    rocBytes[1] = (byte) (roc >>> 16);
+    rocBytes[2] = (byte) (roc >>> 8);
+    rocBytes[3] = (byte) roc;
+    mac.update(packet, 0, length);
+    mac.update(rocBytes, 0, 4);
+    mac.doFinal(macOutput, 0);
+    System.arraycopy(macOutput, 0, packet, length, suite.tagLength);
+    return length + suite.tagLength;
+  }
+
+  // IV = (session_salt * 2^16) XOR (SSRC * 2^64) XOR (index * 2^16), index = ROC << 16 | SEQ
+  private void encryptCtr(byte[] packet, int offset, int length, int ssrc, int roc, int sequence)
+      throws GeneralSecurityException {
+    if (length <= 0) {
+      return;
+    }
+    System.arraycopy(sessionSalt, 0, iv, 0, 14);
+    iv[14] = 0;
+    iv[15] = 0;
+    iv[4] ^= (byte) (ssrc >>> 24);
+    iv[5] ^= (byte) (ssrc >>> 16);
+    iv[6] ^= (byte) (ssrc >>> 8);
+    iv[7] ^= (byte) ssrc;
+    iv[8] ^= (byte) (roc >>> 24);
+    iv[9] ^= (byte) (roc >>> 16);
+    iv[10] ^= (byte) (roc >>> 8);
+    iv[11] ^= (byte) roc;
+    iv[12] ^= (byte) (sequence >>> 8);
+    iv[13] ^= (byte) sequence;
+    int blocks = (length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    for (int b = 0; b < blocks; b++) {
+      int p = b * BLOCK_SIZE;
+      System.arraycopy(iv, 0, counterBlocks, p, 14);
+      counterBlocks[p + 14] = (byte) (b >> 8);
+      counterBlocks[p + 15] = (byte) b;
+    }
+    cipher.doFinal(counterBlocks, 0, blocks * BLOCK_SIZE, keystream, 0);
+    for (int i = 0; i < length; i++) {
+      packet[offset + i] ^= keystream[i];
+    }
+  }
+
+  // RFC 7714: IV = (0x0000 || SSRC || ROC || SEQ) XOR salt, AAD 为 RTP 头部（含扩展）
+  private int protectGcm(byte[] packet, int length, int headerLength, int ssrc, int roc,
+                         int sequence) throws GeneralSecurityException {
+    byte[] nonce = new byte[12];
+    nonce[2] = (byte) (ssrc >>> 24);
+    nonce[3] = (byte) (ssrc >>> 16);
+    nonce[4] = (byte) (ssrc >>> 8);
+    nonce[5] = (byte) ssrc;
+    nonce[6] = (byte) (roc >>> 24);
+    nonce[7] = (byte) (roc >>> 16);
+    nonce[8] = (byte) (roc >>> 8);
+    nonce[9] = (byte) roc;
+    nonce[10] = (byte) (sequence >>> 8);
+    nonce[11] = (byte) sequence;
+    for (int i = 0; i < 12; i++) {
+      nonce[i] ^= sessionSalt[i];
+    }
+    cipher.init(Cipher.ENCRYPT_MODE, sessionKey, new GCMParameterSpec(suite.tagLength * 8, nonce));
+    cipher.updateAAD(packet, 0, headerLength);
+    int written = cipher.doFinal(packet, headerLength, length - headerLength, packet, headerLength);
+    return headerLength + written;
+  }
+
+  // 发送端的包按序列号顺序发出, 序列号比上一个小很多即为回绕
+  private int updateRoc(int ssrc, int sequence) {
+    for (int i = 0; i < streamCount; i++) {
+      if (ssrcs[i] == ssrc) {
+        if (sequence < lastSequences[i] && lastSequences[i] - sequence > 0x8000) {
+          rocs[i]++;
+        }
+        lastSequences[i] = sequence;
+        return rocs[i];
+      }
+    }
+    int i = streamCount < MAX_STREAMS ? streamCount++ : MAX_STREAMS - 1;
+    ssrcs[i] = ssrc;
+    rocs[i] = 0;
+    lastSequences[i] = sequence;
+    return 0;
+  }
+
+  // 固定头 + CSRC + 头部扩展
+  private static int headerLength(byte[] packet, int length) throws GeneralSecurityException {
+    int headerLength = 12 + (packet[0] & 0x0F) * 4;
+    if ((packet[0] & 0x10) != 0) {
+      if (headerLength + 4 > length) {
+        throw new GeneralSecurityException("truncated RTP header extension");
+      }
+      int words = ((packet[headerLength + 2] & 0xFF) << 8) | (packet[headerLength + 3] & 0xFF);
+      headerLength += 4 + words * 4;
+    }
+    if (headerLength > length) {
+      throw new GeneralSecurityException("truncated RTP header");
+    }
+    return headerLength;
+  }
+}
@@ -0,0 +1,119 @@
+package com.marine.secretcamera.spool;
+
+import android.util.Log;
+
+import com.marine.secretcamera.rtp.H264RtpPacketizer;
+import com.marine.secretcamera.rtp.RtpSession;
+import com.marine.secretcamera.rtp.RtpStream;
+
+import java.nio.ByteBuffer;
+
+// 恢复联网后补传 VideoSpool 中暂存的视频。
+//  补传的数据走单独的 SSRC, RTP 时间戳按原始的 presentationTimeUs 换算, 只保留补传段内部的帧间隔与顺序。
+//  它不能和直播流对齐: 每一路的时间戳起点是随机的, 也没有发送 RTCP SR 把 RTP 时间映射到墙上时钟,
+//  补传流的 SSRC 每个进程随机生成, 接收端只能把它当作一段独立的录像。
+//  发送速率由 setRate 限制（StreamPipeline 按带宽估计扣除直播码率后的余量设置）,
+//  共用的发送队列积压时暂停, 不和直播流抢带宽。
+public class SpoolUploader {
+  private static final String TAG = "SpoolUploader";
+  // 发送队列超过这个长度时说明直播流已经占满了带宽
+  private static final int MAX_QUEUE_SIZE = 64;
+  private static final long BACKOFF_MS = 50;
+  private static final long IDLE_MS = 500;
+
+  private final VideoSpool spool;
+  private final RtpSession session;
+  private final H264RtpPacketizer packetizer = new H264RtpPacketizer();
+  private RtpStream stream;
+  private volatile long rateBps;
+  private volatile boolean paused = true;
+  private volatile boolean running;
+  private Thread thread;
+  private volatile long bytesUploaded;
+
+  public SpoolUploader(VideoSpool spool, RtpSession session) {
+    this.spool = spool;
+    this.session = session;
+  }
+
+  public void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    thread = new Thread(this::run, "SpoolUploader");
+    thread.setPriority(Thread.MIN_PRIORITY);
+    thread.start();
+  }
+
+  public void stop() {
+    running = false;
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        thread.join();
+      } catch (InterruptedException ignored) {
+      }
+      thread = null;
+    }
+  }
+
+  // 上行不可用时暂停, 否则补传的包同样会丢失
+  public void setPaused(boolean paused) {
+    this.paused = paused;
+  }
+
+  // 补传速率, 0 表示暂不补传
+  public void setRate(long bitsPerSecond) {
+    this.rateBps = bitsPerSecond;
+  }
+
+  public boolean isIdle() {
+    return paused || spool.isEmpty();
+  }
+
+  private void run() {
+    try {
+      while (running) {
+        long rate = rateBps;
+        if (paused || rate <= 0 || !session.isStarted()) {
+          Thread.sleep(IDLE_MS);
+          continue;
+        }
+        if (session.getQueueSize() > MAX_QUEUE_SIZE) {
+          Thread.sleep(BACKOFF_MS);
+          continue;
+        }
+        VideoSpool.Record record = spool.poll();
+        if (record == null) {
+          Thread.sleep(IDLE_MS);
+          continue;
+        }
+        send(record);
+        bytesUploaded += record.data.length;
+        // 按字节数换算成这一段数据在限定速率下应占用的时间
+        Thread.sleep(record.data.length * 8L * 1000 / rate);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void send(VideoSpool.Record record) {
+    if (stream == null) {
+      stream = session.createStream();
+      packetizer.setCallback((nalu, type, isKeyFrame, presentationTimeUs, marking) ->
+          stream.sendNalu(nalu, type, isKeyFrame, presentationTimeUs, marking));
+      Log.i(TAG, "uploading spooled video on " + stream);
+    }
+    packetizer.consume(ByteBuffer.wrap(record.data), record.presentationTimeUs);
+  }
+
+  @Override
+  public String toString() {
+    return spool
+        + " uploaded=" + bytesUploaded / 1024 + "KB"
+        + " rate=" + rateBps / 1000 + "kbps"
+        + (paused ? " (paused)" : "");
+  }
+}
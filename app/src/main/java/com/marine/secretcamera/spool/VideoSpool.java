@@ -0,0 +1,256 @@
+package com.marine.secretcamera.spool;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+// 断网期间的编码数据暂存区: 一个固定大小、内存映射的环形文件。
+//  上行不可用时编码器输出的每个 access unit 写成一条记录追加到写指针处,
+//  空间不够时从读指针处整段丢弃最早的 GOP（丢到下一个 CONFIG / KEY 记录为止）, 保证剩下的数据仍然可以解码;
+//  恢复联网后 SpoolUploader 从读指针处依次取出记录补传。
+//  读写指针保存在文件头中, 进程重启后没有传完的数据可以继续上传。
+// 文件格式:
+//  [头部 HEADER_SIZE 字节] magic | capacity | readPos | writePos | used
+//  [数据区 capacity 字节]  记录: length(4) | type(1) | ptsUs(8) | payload(length)
+//  数据区末尾放不下一条记录时写入 length = -1（剩余空间不足记录头时省略）, 读写都从 0 重新开始。
+public class VideoSpool {
+  private static final String TAG = "VideoSpool";
+
+  public static final byte TYPE_CONFIG = 1;
+  public static final byte TYPE_KEY = 2;
+  public static final byte TYPE_DELTA = 3;
+
+  private static final int MAGIC = 0x53504f4c; // "SPOL"
+  private static final int HEADER_SIZE = 64;
+  private static final int RECORD_HEADER_SIZE = 4 + 1 + 8;
+  private static final int WRAP_MARKER = -1;
+
+  private static final int OFFSET_MAGIC = 0;
+  private static final int OFFSET_CAPACITY = 4;
+  private static final int OFFSET_READ = 8;
+  private static final int OFFSET_WRITE = 16;
+  private static final int OFFSET_USED = 24;
+
+  // 读出的一条记录, payload 为 Annex-B 格式
+  public static class Record {
+    public byte type;
+    public long presentationTimeUs;
+    public byte[] data;
+  }
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer buffer;
+  private final int capacity;
+
+  // 以下状态都在 this 上同步
+  private int readPos;
+  private int writePos;
+  // 读指针到写指针之间占用的字节数, 包括环尾浪费的空间
+  private int used;
+  private long recordsDropped;
+  // 丢到了 GOP 中间（整个环装不下一个 GOP）或者刚开始暂存时, 在下一个关键帧之前的帧都无法解码
+  private boolean waitingForKey = true;
+  private long bytesSpooled;
+
+  public VideoSpool(File path, int capacity) throws IOException {
+    File dir = path.getParentFile();
+    if (dir != null && !dir.exists() && !dir.mkdirs()) {
+      throw new IOException("cannot create " + dir);
+    }
+    this.capacity = capacity;
+    file = new RandomAccessFile(path, "rw");
+    file.setLength(HEADER_SIZE + (long) capacity);
+    buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity);
+    if (buffer.getInt(OFFSET_MAGIC) == MAGIC && buffer.getInt(OFFSET_CAPACITY) == capacity) {
+      readPos = (int) buffer.getLong(OFFSET_READ);
+      writePos = (int) buffer.getLong(OFFSET_WRITE);
+      used = (int) buffer.getLong(OFFSET_USED);
+      if (!isValid()) {
+        Log.w(TAG, "corrupted spool header, discarding");
+        reset();
+      } else if (used > 0) {
+        Log.i(TAG, "resuming spool with " + used + " bytes pending");
+      }
+    } else {
+      reset();
+    }
+  }
+
+  private boolean isValid() {
+    return readPos >= 0 && readPos < capacity && writePos >= 0 && writePos <= capacity
+        && used >= 0 && used <= capacity;
+  }
+
+  private void reset() {
+    readPos = 0;
+    writePos = 0;
+    used = 0;
+    buffer.putInt(OFFSET_MAGIC, MAGIC);
+    buffer.putInt(OFFSET_CAPACITY, capacity);
+    saveHeader();
+  }
+
+  private void saveHeader() {
+    buffer.putLong(OFFSET_READ, readPos);
+    buffer.putLong(OFFSET_WRITE, writePos);
+    buffer.putLong(OFFSET_USED, used);
+  }
+
+  // 追加一条记录; 单条记录超过容量的一半时直接丢弃
+  public synchronized boolean write(byte type, long presentationTimeUs, ByteBuffer data) {
+    int length = data.remaining();
+    int size = RECORD_HEADER_SIZE + length;
+    if (type == TYPE_DELTA && waitingForKey) {
+      recordsDropped++;
+      return false;
+    }
+    if (size > capacity / 2) {
+      recordsDropped++;
+      waitingForKey = true;
+      return false;
+    }
+    if (type == TYPE_KEY) {
+      waitingForKey = false;
+    }
+    while (used + required(size) > capacity) {
+      dropOldestGop();
+      if (used == 0 && type == TYPE_DELTA) {
+        // 当前 GOP 也被丢掉了, 这一帧的参考帧已经不在了
+        recordsDropped++;
+        waitingForKey = true;
+        return false;
+      }
+    }
+    if (capacity - writePos < size) {
+      used += capacity - writePos;
+      if (capacity - writePos >= RECORD_HEADER_SIZE) {
+        buffer.putInt(HEADER_SIZE + writePos, WRAP_MARKER);
+      }
+      writePos = 0;
+    }
+    int p = HEADER_SIZE + writePos;
+    buffer.putInt(p, length);
+    buffer.put(p + 4, type);
+    buffer.putLong(p + 5, presentationTimeUs);
+    ByteBuffer dst = buffer.duplicate();
+    dst.position(p + RECORD_HEADER_SIZE);
+    dst.put(data.duplicate());
+    writePos += size;
+    used += size;
+    bytesSpooled += length;
+    saveHeader();
+    return true;
+  }
+
+  // 写入 size 字节实际需要占用的空间（可能要跳过环尾）
+  private int required(int size) {
+    int tail = capacity - writePos;
+    return tail < size ? tail + size : size;
+  }
+
+  // 取出最早的一条记录, 没有时返回 null
+  public synchronized Record poll() {
+    if (!skipWrap()) {
+      return null;
+    }
+    int p = HEADER_SIZE + readPos;
+    int length = buffer.getInt(p);
+    if (length < 0 || RECORD_HEADER_SIZE + length > used) {
+      Log.w(TAG, "corrupted record at " + readPos + ", discarding spool");
+      reset();
+      return null;
+    }
+    Record record = new Record();
+    record.type = buffer.get(p + 4);
+    record.presentationTimeUs = buffer.getLong(p + 5);
+    record.data = new byte[length];
+    ByteBuffer src = buffer.duplicate();
+    src.position(p + RECORD_HEADER_SIZE);
+    src.get(record.data);
+    advance(RECORD_HEADER_SIZE + length);
+    saveHeader();
+    return record;
+  }
+
+  // 读指针停在环尾时跳回开头; 返回是否还有记录
+  private boolean skipWrap() {
+    if (used == 0) {
+      if (readPos != 0 || writePos != 0) {
+        readPos = 0;
+        writePos = 0;
+      }
+      return false;
+    }
+    int tail = capacity - readPos;
+    if (tail < RECORD_HEADER_SIZE || buffer.getInt(HEADER_SIZE + readPos) == WRAP_MARKER) {
+      used -= tail;
+      readPos = 0;
+    }
+    return used > 0;
+  }
+
+  private void advance(int size) {
+    readPos += size;
+    used -= size;
+  }
+
+  // 丢弃最早的一条记录, 然后继续丢弃直到下一个 GOP 的开头
+  private boolean dropOldestGop() {
+    if (!skipWrap()) {
+      return false;
+    }
+    dropOne();
+    while (skipWrap()) {
+      byte type = buffer.get(HEADER_SIZE + readPos + 4);
+      if (type == TYPE_CONFIG || type == TYPE_KEY) {
+        break;
+      }
+      dropOne();
+    }
+    saveHeader();
+    return true;
+  }
+
+  private void dropOne() {
+    advance(RECORD_HEADER_SIZE + buffer.getInt(HEADER_SIZE + readPos));
+    recordsDropped++;
+  }
+
+  // 开始新的一段暂存, 在下一个 CONFIG / KEY 记录之前的 DELTA 都会被丢弃
+  public synchronized void startSegment() {
+    waitingForKey = true;
+  }
+
+  public synchronized boolean isEmpty() {
+    return used == 0;
+  }
+
+  public synchronized int getUsedBytes() {
+    return used;
+  }
+
+  public synchronized void clear() {
+    reset();
+  }
+
+  public void close() {
+    buffer.force();
+    try {
+      file.close();
+    } catch (IOException e) {
+      Log.w(TAG, "failed to close spool", e);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "used=" + used / 1024 + "KB/" + capacity / 1024 + "KB"
+        + " spooled=" + bytesSpooled / 1024 + "KB"
+        + " dropped=" + recordsDropped;
+  }
+}
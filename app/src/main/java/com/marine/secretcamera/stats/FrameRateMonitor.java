@@ -0,0 +1,125 @@
+package com.marine.secretcamera.stats;
+
+import android.util.Log;
+
+// 逐帧检查采集与编码是否跟得上目标帧率:
+//  相机每完成一帧（SENSOR_TIMESTAMP）、编码器每输出一帧（presentationTimeUs, 与传感器时间同源）各记一次,
+//  相邻两帧的间隔超过期望间隔的 1.5 倍就按间隔推算中间丢了几帧;
+//  同时按帧自身的时间戳每秒统计一次实际帧率。
+// 会话重建、切换帧率时调用 onDiscontinuity, 中间的空档不计入丢帧。
+public class FrameRateMonitor {
+  private static final String TAG = "FrameRateMonitor";
+  private static final long WINDOW_NS = 1_000_000_000L;
+  // 每隔多少个统计窗口打印一次
+  private static final int LOG_INTERVAL_WINDOWS = 10;
+
+  private static class Series {
+    long frames;
+    long dropped;
+    long lastTimestampNs;
+    long windowStartNs;
+    int windowFrames;
+    float fps;
+
+    // 返回是否完成了一个统计窗口
+    boolean onFrame(long timestampNs, long expectedIntervalNs) {
+      frames++;
+      if (lastTimestampNs > 0 && expectedIntervalNs > 0) {
+        long interval = timestampNs - lastTimestampNs;
+        if (interval * 2 > expectedIntervalNs * 3) {
+          dropped += (interval + expectedIntervalNs / 2) / expectedIntervalNs - 1;
+        }
+      }
+      lastTimestampNs = timestampNs;
+      if (windowStartNs == 0) {
+        windowStartNs = timestampNs;
+        windowFrames = 0;
+        return false;
+      }
+      windowFrames++;
+      long elapsed = timestampNs - windowStartNs;
+      if (elapsed < WINDOW_NS) {
+        return false;
+      }
+      fps = windowFrames * 1e9f / elapsed;
+      windowStartNs = timestampNs;
+      windowFrames = 0;
+      return true;
+    }
+
+    void discontinuity() {
+      lastTimestampNs = 0;
+      windowStartNs = 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.1ffps frames=%d dropped=%d", fps, frames, dropped);
+    }
+  }
+
+  private final Series captured = new Series();
+  private final Series encoded = new Series();
+  private long captureIntervalNs;
+  private long encodeIntervalNs;
+  // onCaptureFailed / onCaptureBufferLost 的次数
+  private long captureFailures;
+  private int windows;
+
+  // 相机输出的帧率与送进编码器的帧率（画面静止抽帧时两者不同）
+  public synchronized void setExpectedFps(int captureFps, int encodeFps) {
+    long captureInterval = captureFps > 0 ? WINDOW_NS / captureFps : 0;
+    long encodeInterval = encodeFps > 0 ? WINDOW_NS / encodeFps : 0;
+    if (captureInterval == captureIntervalNs && encodeInterval == encodeIntervalNs) {
+      return;
+    }
+    captureIntervalNs = captureInterval;
+    encodeIntervalNs = encodeInterval;
+    captured.discontinuity();
+    encoded.discontinuity();
+  }
+
+  public synchronized void onDiscontinuity() {
+    captured.discontinuity();
+    encoded.discontinuity();
+  }
+
+  // 相机线程
+  public synchronized void onFrameCaptured(long sensorTimestampNs) {
+    if (captured.onFrame(sensorTimestampNs, captureIntervalNs) && ++windows % LOG_INTERVAL_WINDOWS == 0) {
+      Log.i(TAG, toString());
+    }
+  }
+
+  public synchronized void onCaptureFailed() {
+    captureFailures++;
+  }
+
+  // 编码线程: 每个非配置帧输出时调用
+  public synchronized void onFrameEncoded(long presentationTimeUs) {
+    encoded.onFrame(presentationTimeUs * 1000, encodeIntervalNs);
+  }
+
+  public synchronized float getCaptureFps() {
+    return captured.fps;
+  }
+
+  public synchronized float getEncodeFps() {
+    return encoded.fps;
+  }
+
+  public synchronized long getCaptureDrops() {
+    return captured.dropped + captureFailures;
+  }
+
+  public synchronized long getEncodeDrops() {
+    return encoded.dropped;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "frames: capture " + captured
+        + " failed=" + captureFailures
+        + " | encode " + encoded;
+  }
+}
@@ -0,0 +1,144 @@
+package com.marine.secretcamera.stats;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Arrays;
+
+// 统计 "镜头到网络"（glass-to-packet）延迟:
+//  相机在 onCaptureCompleted 的结果中给出每一帧的 SENSOR_TIMESTAMP（纳秒），
+//  编码器输出的 presentationTimeUs 与 Surface 上的时间戳同源，
+//  即 presentationTimeUs == SENSOR_TIMESTAMP / 1000。
+//  当一帧的最后一个 RTP 包发送完毕时，用当前时间减去传感器时间戳，就得到这一帧的端到端延迟。
+public class LatencyTracker {
+  private static final String TAG = "LatencyTracker";
+
+  // 环形缓冲区，只需要覆盖编码器内部排队的帧数即可
+  private static final int CAPACITY = 64;
+  // 传感器时间戳与 PTS 的匹配容差（微秒）
+  private static final long MATCH_TOLERANCE_US = 1_000;
+  // 每隔多少帧打印一次汇总
+  private static final int LOG_INTERVAL_FRAMES = 150;
+
+  public interface OnFrameLatencyListener {
+    void onFrameLatency(long presentationTimeUs, long latencyNs);
+  }
+
+  private final long[] sensorTimestampsNs = new long[CAPACITY];
+  private int writeIndex;
+
+  // SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME 时与 elapsedRealtimeNanos 同源，
+  // 否则（UNKNOWN）与 System.nanoTime 同源
+  private boolean realtimeTimestampSource;
+
+  private long capturedFrames;
+  private long sentFrames;
+  private long unmatchedFrames;
+  private long lastLatencyNs;
+  private long maxLatencyNs;
+  // 指数滑动平均，权重 1/16
+  private long avgLatencyNs;
+
+  private OnFrameLatencyListener listener;
+
+  public synchronized void setRealtimeTimestampSource(boolean realtime) {
+    this.realtimeTimestampSource = realtime;
+  }
+
+  public synchronized void setListener(OnFrameLatencyListener listener) {
+    this.listener = listener;
+  }
+
+  // 相机线程: 每一帧的采集结果返回时调用
+  public synchronized void onFrameCaptured(long sensorTimestampNs) {
+    sensorTimestampsNs[writeIndex] = sensorTimestampNs;
+    writeIndex = (writeIndex + 1) % CAPACITY;
+    capturedFrames++;
+  }
+
+  // 编码线程: 一帧的所有 NALU 都已经交给 RtpSession 发送之后调用
+  public void onFrameSent(long presentationTimeUs) {
+    OnFrameLatencyListener l;
+    long latencyNs;
+    synchronized (this) {
+      long sensorTimestampNs = findSensorTimestamp(presentationTimeUs);
+      if (sensorTimestampNs < 0) {
+        // 没匹配到（例如相机会话刚重建），PTS 本身就是传感器时间，仍然可以直接使用
+        unmatchedFrames++;
+        sensorTimestampNs = presentationTimeUs * 1000;
+      }
+      latencyNs = now() - sensorTimestampNs;
+      if (latencyNs < 0) {
+        return;
+      }
+      sentFrames++;
+      lastLatencyNs = latencyNs;
+      maxLatencyNs = Math.max(maxLatencyNs, latencyNs);
+      avgLatencyNs = avgLatencyNs == 0 ? latencyNs : avgLatencyNs + (latencyNs - avgLatencyNs) / 16;
+      l = listener;
+
+      if (sentFrames % LOG_INTERVAL_FRAMES == 0) {
+        Log.i(TAG, toString());
+      }
+    }
+    if (l != null) {
+      l.onFrameLatency(presentationTimeUs, latencyNs);
+    }
+  }
+
+  private long findSensorTimestamp(long presentationTimeUs) {
+    // 从最新写入的位置往回找，最近的帧最可能匹配
+    for (int i = 1; i <= CAPACITY; i++) {
+      long ts = sensorTimestampsNs[(writeIndex - i + CAPACITY) % CAPACITY];
+      if (ts != 0 && Math.abs(ts / 1000 - presentationTimeUs) <= MATCH_TOLERANCE_US) {
+        return ts;
+      }
+    }
+    return -1;
+  }
+
+  private long now() {
+    return realtimeTimestampSource ? SystemClock.elapsedRealtimeNanos() : System.nanoTime();
+  }
+
+  public synchronized long getLastLatencyNs() {
+    return lastLatencyNs;
+  }
+
+  public synchronized long getAverageLatencyNs() {
+    return avgLatencyNs;
+  }
+
+  public synchronized long getMaxLatencyNs() {
+    return maxLatencyNs;
+  }
+
+  public synchronized long getCapturedFrames() {
+    return capturedFrames;
+  }
+
+  public synchronized long getSentFrames() {
+    return sentFrames;
+  }
+
+  public synchronized void reset() {
+    Arrays.fill(sensorTimestampsNs, 0);
+    writeIndex = 0;
+    capturedFrames = 0;
+    sentFrames = 0;
+    unmatchedFrames = 0;
+    lastLatencyNs = 0;
+    maxLatencyNs = 0;
+    avgLatencyNs = 0;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "glass-to-packet latency: last=" + lastLatencyNs / 1_000_000 + "ms"
+        + " avg=" + avgLatencyNs / 1_000_000 + "ms"
+        + " max=" + maxLatencyNs / 1_000_000 + "ms"
+        + " captured=" + capturedFrames
+        + " sent=" + sentFrames
+        + " unmatched=" + unmatchedFrames;
+  }
+}
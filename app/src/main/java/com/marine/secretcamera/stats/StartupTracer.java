@@ -0,0 +1,64 @@
+package com.marine.secretcamera.stats;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// 记录推流启动的各个阶段相对于启动时刻（冷启动或者从热待机开始推流）的耗时,
+// 最终得到 time-to-first-RTP-packet, 作为每个版本都要跟踪的启动指标。
+// 各阶段同时用 android.os.Trace 打点, 可以在 systrace / Perfetto 中看到并行情况。
+public class StartupTracer {
+  private static final String TAG = "StartupTracer";
+
+  public static final String START = "start";
+  public static final String SOCKET_READY = "socket_ready";
+  public static final String ENCODER_READY = "encoder_ready";
+  public static final String CAMERA_OPENED = "camera_opened";
+  public static final String SESSION_CONFIGURED = "session_configured";
+  public static final String FIRST_RTP_PACKET = "first_rtp_packet";
+
+  private long startMs;
+  private long timeToFirstPacketMs = -1;
+  private final Map<String, Long> phases = new LinkedHashMap<>();
+
+  public synchronized void begin() {
+    startMs = SystemClock.elapsedRealtime();
+    timeToFirstPacketMs = -1;
+    phases.clear();
+    phases.put(START, 0L);
+  }
+
+  // 每个阶段只记录第一次, 重复调用会被忽略
+  public synchronized void mark(String phase) {
+    if (startMs == 0 || phases.containsKey(phase)) {
+      return;
+    }
+    long elapsed = SystemClock.elapsedRealtime() - startMs;
+    phases.put(phase, elapsed);
+    Log.i(TAG, phase + " +" + elapsed + "ms");
+    if (FIRST_RTP_PACKET.equals(phase)) {
+      timeToFirstPacketMs = elapsed;
+      Log.i(TAG, "time-to-first-packet: " + this);
+    }
+  }
+
+  public synchronized long getTimeToFirstPacketMs() {
+    return timeToFirstPacketMs;
+  }
+
+  public synchronized Map<String, Long> getPhases() {
+    return new LinkedHashMap<>(phases);
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, Long> entry : phases.entrySet()) {
+      if (sb.length() > 0) sb.append(", ");
+      sb.append(entry.getKey()).append('=').append(entry.getValue()).append("ms");
+    }
+    return sb.toString();
+  }
+}
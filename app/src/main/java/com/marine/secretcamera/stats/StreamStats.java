@@ -0,0 +1,95 @@
+package com.marine.secretcamera.stats;
+
+import com.marine.secretcamera.encoder.EncoderConfig;
+import com.marine.secretcamera.rtp.RtpSession;
+import com.marine.secretcamera.spool.SpoolUploader;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+// 推流统计的汇总入口, 各个模块把自己的状态写到这里, 由界面或日志读取
+public class StreamStats {
+  private final LatencyTracker latencyTracker = new LatencyTracker();
+  private final StartupTracer startupTracer = new StartupTracer();
+  private final FrameRateMonitor frameRateMonitor = new FrameRateMonitor();
+  private volatile EncoderConfig encoderConfig;
+  // simulcast 低分辨率层, 没有开启时为 null
+  private volatile EncoderConfig simulcastEncoderConfig;
+  private volatile RtpSession rtpSession;
+  // 断网暂存与补传的状态, 没有启用时为 null
+  private volatile SpoolUploader spoolUploader;
+
+  // 只保留最近的若干条调节记录
+  private static final int MAX_GOVERNOR_DECISIONS = 20;
+  private final Deque<String> governorDecisions = new ArrayDeque<>();
+  private volatile String governorState;
+
+  public LatencyTracker getLatencyTracker() {
+    return latencyTracker;
+  }
+
+  public StartupTracer getStartupTracer() {
+    return startupTracer;
+  }
+
+  public FrameRateMonitor getFrameRateMonitor() {
+    return frameRateMonitor;
+  }
+
+  public EncoderConfig getEncoderConfig() {
+    return encoderConfig;
+  }
+
+  public void setEncoderConfig(EncoderConfig encoderConfig) {
+    this.encoderConfig = encoderConfig;
+  }
+
+  public EncoderConfig getSimulcastEncoderConfig() {
+    return simulcastEncoderConfig;
+  }
+
+  public void setSimulcastEncoderConfig(EncoderConfig simulcastEncoderConfig) {
+    this.simulcastEncoderConfig = simulcastEncoderConfig;
+  }
+
+  public void setRtpSession(RtpSession rtpSession) {
+    this.rtpSession = rtpSession;
+  }
+
+  public void setSpoolUploader(SpoolUploader spoolUploader) {
+    this.spoolUploader = spoolUploader;
+  }
+
+  public String getGovernorState() {
+    return governorState;
+  }
+
+  public void setGovernorState(String governorState) {
+    this.governorState = governorState;
+  }
+
+  public synchronized void recordGovernorDecision(String decision) {
+    if (governorDecisions.size() >= MAX_GOVERNOR_DECISIONS) {
+      governorDecisions.removeFirst();
+    }
+    governorDecisions.addLast(System.currentTimeMillis() + " " + decision);
+  }
+
+  public synchronized List<String> getGovernorDecisions() {
+    return new ArrayList<>(governorDecisions);
+  }
+
+  @Override
+  public String toString() {
+    return "encoder: " + encoderConfig + "\n"
+        + "simulcast: " + simulcastEncoderConfig + "\n"
+        + "rtp: " + rtpSession + "\n"
+        + "spool: " + spoolUploader + "\n"
+        + "startup: " + startupTracer + "\n"
+        + "governor: " + governorState + "\n"
+        + frameRateMonitor + "\n"
+        + latencyTracker;
+  }
+}
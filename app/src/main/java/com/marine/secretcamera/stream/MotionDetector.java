@@ -0,0 +1,209 @@
+package com.marine.secretcamera.stream;
+
+import android.graphics.ImageFormat;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Surface;
+
+import java.nio.ByteBuffer;
+
+// 基于帧差的运动检测, 用来在画面静止时降低推流的帧率与码率。
+//  capture session 额外输出一路很小的 YUV ImageReader, 只读取 Y 平面;
+//  每 ANALYSIS_INTERVAL_MS 取一帧, 按固定网格采样成 GRID_WIDTH x GRID_HEIGHT 的亮度图,
+//  与上一张比较: 减去整体亮度变化（自动曝光）后差值超过 PIXEL_THRESHOLD 的格子比例超过 MOTION_RATIO 即认为有运动。
+//  检测到运动立即回调; 连续 IDLE_AFTER_MS 没有运动才回调静止, 避免来回切换。
+// 分析在单独的线程中进行, 采样缓冲区复用, 不在每一帧分配内存。
+public class MotionDetector {
+  private static final String TAG = "MotionDetector";
+
+  // 分析流的最小尺寸, 实际使用相机支持的、不小于它的最小 YUV 尺寸
+  private static final int MIN_ANALYSIS_WIDTH = 160;
+  private static final int MIN_ANALYSIS_HEIGHT = 90;
+  static final int GRID_WIDTH = 64;
+  static final int GRID_HEIGHT = 36;
+  private static final long ANALYSIS_INTERVAL_MS = 200;
+  static final int PIXEL_THRESHOLD = 24;
+  static final float MOTION_RATIO = 0.01f;
+  static final long IDLE_AFTER_MS = 10_000;
+
+  public interface OnMotionListener {
+    // 在分析线程中回调
+    void onMotionChanged(boolean motion);
+  }
+
+  private final OnMotionListener listener;
+  private final Size size;
+  private HandlerThread thread;
+  private ImageReader imageReader;
+
+  // 只在分析线程访问
+  private byte[] previous = new byte[GRID_WIDTH * GRID_HEIGHT];
+  private byte[] current = new byte[GRID_WIDTH * GRID_HEIGHT];
+  private boolean hasPrevious;
+  private long lastAnalysisMs;
+  private final Gate gate = new Gate();
+  private volatile float lastRatio;
+
+  public MotionDetector(StreamConfigurationMap map, OnMotionListener listener) {
+    this.listener = listener;
+    this.size = chooseSize(map);
+  }
+
+  private static Size chooseSize(StreamConfigurationMap map) {
+    Size best = null;
+    Size[] sizes = map != null ? map.getOutputSizes(ImageFormat.YUV_420_888) : null;
+    if (sizes != null) {
+      for (Size s : sizes) {
+        if (s.getWidth() < MIN_ANALYSIS_WIDTH || s.getHeight() < MIN_ANALYSIS_HEIGHT) continue;
+        if (best == null || s.getWidth() * s.getHeight() < best.getWidth() * best.getHeight()) {
+          best = s;
+        }
+      }
+    }
+    return best != null ? best : new Size(320, 240);
+  }
+
+  public void start() {
+    if (imageReader != null) {
+      return;
+    }
+    thread = new HandlerThread("MotionDetector");
+    thread.start();
+    Handler handler = new Handler(thread.getLooper());
+    imageReader = ImageReader.newInstance(size.getWidth(), size.getHeight(),
+        ImageFormat.YUV_420_888, 2);
+    imageReader.setOnImageAvailableListener(this::onImageAvailable, handler);
+    hasPrevious = false;
+    gate.reset(SystemClock.elapsedRealtime());
+    Log.i(TAG, "analysis stream " + size);
+  }
+
+  public void stop() {
+    if (imageReader != null) {
+      imageReader.close();
+      imageReader = null;
+    }
+    if (thread != null) {
+      thread.quitSafely();
+      thread = null;
+    }
+  }
+
+  public Surface getSurface() {
+    return imageReader != null ? imageReader.getSurface() : null;
+  }
+
+  public boolean isMotion() {
+    return gate.isMotion();
+  }
+
+  private void onImageAvailable(ImageReader reader) {
+    Image image = reader.acquireLatestImage();
+    if (image == null) {
+      return;
+    }
+    try {
+      long now = SystemClock.elapsedRealtime();
+      if (now - lastAnalysisMs < ANALYSIS_INTERVAL_MS) {
+        return;
+      }
+      lastAnalysisMs = now;
+      sample(image.getPlanes()[0], image.getWidth(), image.getHeight());
+    } finally {
+      image.close();
+    }
+    if (!hasPrevious) {
+      hasPrevious = true;
+      swap();
+      return;
+    }
+    float ratio = diffRatio(current, previous);
+    lastRatio = ratio;
+    swap();
+
+    if (gate.update(ratio, SystemClock.elapsedRealtime())) {
+      listener.onMotionChanged(gate.isMotion());
+    }
+  }
+
+  // 把 Y 平面按网格采样到 current
+  private void sample(Image.Plane plane, int width, int height) {
+    ByteBuffer y = plane.getBuffer();
+    int rowStride = plane.getRowStride();
+    int pixelStride = plane.getPixelStride();
+    for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+      int row = (gy * height / GRID_HEIGHT) * rowStride;
+      for (int gx = 0; gx < GRID_WIDTH; gx++) {
+        current[gy * GRID_WIDTH + gx] = y.get(row + (gx * width / GRID_WIDTH) * pixelStride);
+      }
+    }
+  }
+
+  // 两张采样图中变化的格子比例, 不依赖 Android 类, 便于在 JVM 单元测试中验证
+  static float diffRatio(byte[] current, byte[] previous) {
+    int n = current.length;
+    long sumCurrent = 0;
+    long sumPrevious = 0;
+    for (int i = 0; i < n; i++) {
+      sumCurrent += current[i] & 0xFF;
+      sumPrevious += previous[i] & 0xFF;
+    }
+    // 自动曝光造成的整体亮度变化不算运动
+    int offset = (int) ((sumCurrent - sumPrevious) / n);
+    int changed = 0;
+    for (int i = 0; i < n; i++) {
+      int d = (current[i] & 0xFF) - (previous[i] & 0xFF) - offset;
+      if (d > PIXEL_THRESHOLD || d < -PIXEL_THRESHOLD) {
+        changed++;
+      }
+    }
+    return (float) changed / n;
+  }
+
+  // 运动 / 静止的切换: 变化比例达到 MOTION_RATIO 立即回到运动, 连续 IDLE_AFTER_MS 没有运动才切到静止
+  static class Gate {
+    private volatile boolean motion = true;
+    private long lastMotionMs;
+
+    void reset(long nowMs) {
+      motion = true;
+      lastMotionMs = nowMs;
+    }
+
+    // 返回状态是否发生了变化
+    boolean update(float ratio, long nowMs) {
+      if (ratio >= MOTION_RATIO) {
+        lastMotionMs = nowMs;
+        if (!motion) {
+          motion = true;
+          return true;
+        }
+      } else if (motion && nowMs - lastMotionMs >= IDLE_AFTER_MS) {
+        motion = false;
+        return true;
+      }
+      return false;
+    }
+
+    boolean isMotion() {
+      return motion;
+    }
+  }
+
+  private void swap() {
+    byte[] t = previous;
+    previous = current;
+    current = t;
+  }
+
+  @Override
+  public String toString() {
+    return (gate.isMotion() ? "motion" : "idle") + String.format(" diff=%.3f", lastRatio);
+  }
+}
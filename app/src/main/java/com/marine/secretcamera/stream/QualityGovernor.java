@@ -0,0 +1,208 @@
+package com.marine.secretcamera.stream;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.util.Log;
+
+import com.marine.secretcamera.stats.StreamStats;
+
+// 温控 / 电量感知的画质调节器。
+// 设备装在外壳里 7x24 小时推流时很容易过热降频, 1080p30 跑二十分钟左右编码器就会跟不上。
+// 这里定期检查 PowerManager 的温控状态与温度余量（headroom）以及电池状态,
+// 在系统开始降频之前按 VideoTier.LADDER 逐级降低档位（先码率, 再帧率, 最后分辨率）并关闭预览;
+// 情况好转后需要连续多次检查都正常才升回一级, 避免来回抖动。
+public class QualityGovernor {
+  private static final String TAG = "QualityGovernor";
+
+  // getThermalHeadroom 不能频繁调用, 10 秒检查一次
+  private static final long EVALUATE_INTERVAL_MS = 10_000;
+  // 预测 30 秒后的温度余量
+  private static final int HEADROOM_FORECAST_SECONDS = 30;
+  // headroom 达到 1.0 时系统会开始降频
+  private static final float HEADROOM_STEP_DOWN = 0.85f;
+  private static final float HEADROOM_PREVIEW_OFF = 0.75f;
+  private static final float HEADROOM_STEP_UP = 0.6f;
+  // 连续多少次检查都正常才升一级
+  private static final int STEP_UP_STABLE_COUNT = 6;
+  private static final int LOW_BATTERY_PERCENT = 20;
+  // 电量不足时限制在 720p15（VideoTier.LADDER 中的下标）
+  private static final int LOW_BATTERY_LEVEL = 3;
+
+  private final Context context;
+  private final StreamPipeline pipeline;
+  private final StreamStats streamStats;
+  private final PowerManager powerManager;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+
+  // 当前档位在 VideoTier.LADDER 中的下标, 0 为最高档
+  private int level;
+  private boolean previewEnabled = true;
+  private int stableCount;
+  private boolean running;
+
+  private PowerManager.OnThermalStatusChangedListener thermalListener;
+
+  public QualityGovernor(Context context, StreamPipeline pipeline) {
+    this.context = context.getApplicationContext();
+    this.pipeline = pipeline;
+    this.streamStats = pipeline.getStats();
+    this.powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+  }
+
+  public void start() {
+    if (running) {
+      return;
+    }
+    running = true;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+      // 温控状态突变时立即重新评估, 不必等到下一个周期
+      thermalListener = status -> handler.post(this::evaluate);
+      powerManager.addThermalStatusListener(thermalListener);
+    }
+    handler.post(evaluateTask);
+  }
+
+  public void stop() {
+    running = false;
+    handler.removeCallbacks(evaluateTask);
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+        && powerManager != null && thermalListener != null) {
+      powerManager.removeThermalStatusListener(thermalListener);
+      thermalListener = null;
+    }
+  }
+
+  private final Runnable evaluateTask = new Runnable() {
+    @Override
+    public void run() {
+      if (!running) {
+        return;
+      }
+      evaluate();
+      handler.postDelayed(this, EVALUATE_INTERVAL_MS);
+    }
+  };
+
+  private void evaluate() {
+    if (!running) {
+      return;
+    }
+    int thermalStatus = getThermalStatus();
+    float headroom = getThermalHeadroom();
+    BatteryState battery = readBattery();
+
+    boolean hot = thermalStatus >= PowerManager.THERMAL_STATUS_MODERATE
+        || (!Float.isNaN(headroom) && headroom >= HEADROOM_STEP_DOWN);
+    boolean warm = thermalStatus >= PowerManager.THERMAL_STATUS_LIGHT
+        || (!Float.isNaN(headroom) && headroom >= HEADROOM_PREVIEW_OFF);
+    boolean cool = thermalStatus == PowerManager.THERMAL_STATUS_NONE
+        && (Float.isNaN(headroom) || headroom < HEADROOM_STEP_UP);
+    boolean lowBattery = !battery.charging && battery.percent >= 0
+        && battery.percent < LOW_BATTERY_PERCENT;
+
+    int newLevel = level;
+    boolean newPreview = previewEnabled;
+    String reason = null;
+
+    if (hot) {
+      // 每次只降一级, 下一次检查时如果仍然过热会继续降
+      stableCount = 0;
+      newPreview = false;
+      if (level < VideoTier.LADDER.length - 1) {
+        newLevel = level + 1;
+      }
+      reason = "thermal";
+    } else if (lowBattery && level < LOW_BATTERY_LEVEL) {
+      // 电量不足且没有充电, 直接限制在低功耗档位
+      stableCount = 0;
+      newPreview = false;
+      newLevel = LOW_BATTERY_LEVEL;
+      reason = "battery";
+    } else if (warm) {
+      // 还没到需要降档的程度, 先关掉预览减轻 GPU 负担
+      stableCount = 0;
+      newPreview = false;
+      reason = "warm";
+    } else if (cool) {
+      stableCount++;
+      if (stableCount >= STEP_UP_STABLE_COUNT) {
+        stableCount = 0;
+        // 电量不足时不升过低功耗档位
+        int minLevel = lowBattery ? LOW_BATTERY_LEVEL : 0;
+        if (level > minLevel) {
+          newLevel = level - 1;
+          reason = "recovered";
+        } else if (!previewEnabled && !lowBattery) {
+          newPreview = true;
+          reason = "recovered";
+        }
+      }
+    } else {
+      stableCount = 0;
+    }
+
+    String state = "thermal=" + thermalStatus
+        + " headroom=" + headroom
+        + " battery=" + battery.percent + "%" + (battery.charging ? "(charging)" : "")
+        + " tier=" + VideoTier.LADDER[newLevel]
+        + " preview=" + newPreview;
+    if (reason != null && (newLevel != level || newPreview != previewEnabled)) {
+      Log.i(TAG, "decision(" + reason + "): " + state);
+      streamStats.recordGovernorDecision(reason + ": " + state);
+    }
+    streamStats.setGovernorState(state);
+
+    if (newLevel != level) {
+      level = newLevel;
+      pipeline.setTier(VideoTier.LADDER[level]);
+    }
+    if (newPreview != previewEnabled) {
+      previewEnabled = newPreview;
+      pipeline.setPreviewEnabled(previewEnabled);
+    }
+  }
+
+  private int getThermalStatus() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q && powerManager != null) {
+      return powerManager.getCurrentThermalStatus();
+    }
+    return PowerManager.THERMAL_STATUS_NONE;
+  }
+
+  // 不支持时返回 NaN
+  private float getThermalHeadroom() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R && powerManager != null) {
+      return powerManager.getThermalHeadroom(HEADROOM_FORECAST_SECONDS);
+    }
+    return Float.NaN;
+  }
+
+  private static class BatteryState {
+    int percent = -1;
+    boolean charging;
+  }
+
+  // ACTION_BATTERY_CHANGED 是粘性广播, 传入 null receiver 可以直接读到最近一次的值
+  private BatteryState readBattery() {
+    BatteryState state = new BatteryState();
+    Intent intent = context.registerReceiver(null,
+        new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (intent == null) {
+      return state;
+    }
+    int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+    int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+    if (level >= 0 && scale > 0) {
+      state.percent = level * 100 / scale;
+    }
+    int plugged = intent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+    state.charging = plugged != 0;
+    return state;
+  }
+}
@@ -0,0 +1,300 @@
+package com.marine.secretcamera.stream;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureRequest;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.util.Range;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+
+import com.marine.secretcamera.encoder.EncoderConfig;
+import com.marine.secretcamera.encoder.EncoderProfile;
+import com.marine.secretcamera.encoder.EncoderSelector;
+import com.marine.secretcamera.encoder.VideoEncoder;
+import com.marine.secretcamera.rtp.RtpHeaderExtensions;
+import com.marine.secretcamera.rtp.RtpStream;
+
+import java.io.IOException;
+import java.util.Collections;
+
+// 与主摄像头同时推流的第二个摄像头（例如前置）。
+//  有自己的相机线程、CameraDevice、capture session 与编码器, 只输出到编码器, 没有预览;
+//  RtpStream 来自主管线的 RtpSession, 与主摄像头共用 socket 与发送线程（pacer）。
+//  分辨率 / 码率由 StreamPipeline 统一分配, 这里只负责执行; 出错时回调 onFailure（在本摄像头的线程中）。
+class SecondaryCamera {
+  private static final String TAG = "SecondaryCamera";
+
+  private final Context context;
+  private final CameraManager cameraManager;
+  private final String cameraId;
+  private final RtpStream rtpStream;
+  private final VideoEncoder encoder;
+  private final EncoderProfile profile;
+  private final Runnable onFailure;
+
+  private HandlerThread thread;
+  private volatile Handler handler;
+  // 以下状态只在本摄像头的线程中修改
+  private CameraDevice cameraDevice;
+  private CameraCaptureSession session;
+  private Surface encoderSurface;
+  private Range<Integer>[] fpsRanges;
+  private int sensorOrientation;
+  private boolean frontFacing;
+  private VideoTier tier;
+  private boolean streaming;
+
+  SecondaryCamera(Context context, CameraManager cameraManager, String cameraId,
+                  RtpStream rtpStream, VideoEncoder encoder, EncoderProfile profile,
+                  Runnable onFailure) {
+    this.context = context;
+    this.cameraManager = cameraManager;
+    this.cameraId = cameraId;
+    this.rtpStream = rtpStream;
+    this.encoder = encoder;
+    this.profile = profile;
+    this.onFailure = onFailure;
+  }
+
+  String getCameraId() {
+    return cameraId;
+  }
+
+  void start(VideoTier tier, boolean streaming) {
+    if (thread != null) {
+      return;
+    }
+    thread = new HandlerThread("SecondaryCamera-" + cameraId);
+    thread.start();
+    Handler h = new Handler(thread.getLooper());
+    handler = h;
+    h.post(() -> {
+      this.tier = tier;
+      this.streaming = streaming;
+      try {
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        fpsRanges = characteristics.get(
+            CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        Integer orientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+        sensorOrientation = orientation != null ? orientation : 0;
+        Integer facing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        frontFacing = facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT;
+        encoder.setEncoderCapabilities(EncoderSelector.getInstance(context)
+            .select(tier.width, tier.height, tier.fps));
+        encoderSurface = encoder.prepare(tier.width, tier.height, tier.fps, tier.bitrate, profile);
+      } catch (CameraAccessException | IOException | RuntimeException e) {
+        Log.e(TAG, "failed to prepare camera " + cameraId, e);
+        onFailure.run();
+        return;
+      }
+      openCamera();
+    });
+  }
+
+  void stop() {
+    Handler h = handler;
+    if (h == null) {
+      return;
+    }
+    handler = null;
+    h.post(() -> {
+      closeSession();
+      if (cameraDevice != null) {
+        cameraDevice.close();
+        cameraDevice = null;
+      }
+      encoder.release();
+      encoderSurface = null;
+    });
+    thread.quitSafely();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Log.e(TAG, "Interrupted while quitting camera thread", e);
+    }
+    thread = null;
+  }
+
+  void setStreaming(boolean streaming) {
+    post(() -> {
+      this.streaming = streaming;
+      startRepeatingRequest();
+      if (streaming) {
+        encoder.requestKeyFrame();
+      }
+    });
+  }
+
+  void setBitrate(int bitrate) {
+    post(() -> {
+      EncoderConfig config = encoder.getConfig();
+      if (config != null && config.bitrate != bitrate) {
+        encoder.setBitrate(bitrate);
+      }
+    });
+  }
+
+  // 分辨率变化时需要关闭会话、重新 configure 编码器后重建会话
+  void setTier(VideoTier newTier) {
+    post(() -> {
+      VideoTier old = tier;
+      tier = newTier;
+      EncoderConfig config = encoder.getConfig();
+      if (config == null || newTier.equals(old)) {
+        return;
+      }
+      if (newTier.sameSize(old)) {
+        encoder.setFrameRate(newTier.fps);
+        startRepeatingRequest();
+        return;
+      }
+      closeSession();
+      encoder.reconfigure(newTier.width, newTier.height, newTier.fps, newTier.bitrate);
+      createSession();
+    });
+  }
+
+  void requestKeyFrame() {
+    encoder.requestKeyFrame();
+  }
+
+  void setDeviceRotation(int degrees) {
+    post(() -> {
+      // 前置摄像头的画面是镜像的, 传感器方向与屏幕旋转的关系和后置相反
+      int rotation = frontFacing
+          ? (sensorOrientation + degrees) % 360
+          : (sensorOrientation - degrees + 360) % 360;
+      rtpStream.setVideoOrientation(
+          RtpHeaderExtensions.videoOrientation(rotation, !frontFacing, false));
+    });
+  }
+
+  private void post(Runnable r) {
+    Handler h = handler;
+    if (h != null) {
+      h.post(r);
+    }
+  }
+
+  private void openCamera() {
+    if (ContextCompat.checkSelfPermission(context,
+        Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+      return;
+    }
+    try {
+      cameraManager.openCamera(cameraId, stateCallback, handler);
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.e(TAG, "Error opening camera " + cameraId, e);
+      onFailure.run();
+    }
+  }
+
+  private final CameraDevice.StateCallback stateCallback = new CameraDevice.StateCallback() {
+    @Override
+    public void onOpened(@NonNull CameraDevice camera) {
+      cameraDevice = camera;
+      createSession();
+    }
+
+    @Override
+    public void onDisconnected(@NonNull CameraDevice camera) {
+      camera.close();
+      cameraDevice = null;
+    }
+
+    @Override
+    public void onError(@NonNull CameraDevice camera, int error) {
+      Log.e(TAG, "camera " + cameraId + " error " + error);
+      camera.close();
+      cameraDevice = null;
+      onFailure.run();
+    }
+  };
+
+  private void createSession() {
+    if (cameraDevice == null || encoderSurface == null || session != null) {
+      return;
+    }
+    try {
+      cameraDevice.createCaptureSession(Collections.singletonList(encoderSurface),
+          new CameraCaptureSession.StateCallback() {
+            @Override
+            public void onConfigured(@NonNull CameraCaptureSession s) {
+              session = s;
+              startRepeatingRequest();
+              encoder.requestKeyFrame();
+            }
+
+            @Override
+            public void onConfigureFailed(@NonNull CameraCaptureSession s) {
+              // 两个摄像头同时出流超出了 HAL 的能力（例如分辨率超过并发保证的 720p）
+              Log.e(TAG, "failed to configure session for camera " + cameraId);
+              onFailure.run();
+            }
+          }, handler);
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "failed to create session", e);
+    }
+  }
+
+  private void closeSession() {
+    if (session != null) {
+      session.close();
+      session = null;
+    }
+  }
+
+  private void startRepeatingRequest() {
+    if (session == null || cameraDevice == null) {
+      return;
+    }
+    try {
+      if (!streaming) {
+        session.stopRepeating();
+        return;
+      }
+      CaptureRequest.Builder builder =
+          cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+      builder.addTarget(encoderSurface);
+      builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+      builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+      Range<Integer> fpsRange = chooseFpsRange(tier.fps);
+      if (fpsRange != null) {
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+      }
+      session.setRepeatingRequest(builder.build(), null, handler);
+    } catch (CameraAccessException | IllegalStateException e) {
+      Log.e(TAG, "failed to start repeating request", e);
+    }
+  }
+
+  private Range<Integer> chooseFpsRange(int fps) {
+    if (fpsRanges == null) {
+      return null;
+    }
+    Range<Integer> best = null;
+    for (Range<Integer> range : fpsRanges) {
+      if (range.getUpper() != fps) continue;
+      if (best == null || range.getLower() > best.getLower()) {
+        best = range;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public String toString() {
+    return "camera " + cameraId + ": " + encoder.getConfig() + " " + rtpStream;
+  }
+}
@@ -0,0 +1,1622 @@
+package com.marine.secretcamera.stream;
+
+import android.Manifest;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCaptureSession;
+import android.hardware.camera2.CameraConstrainedHighSpeedCaptureSession;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraDevice;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CaptureFailure;
+import android.hardware.camera2.CaptureRequest;
+import android.hardware.camera2.CaptureResult;
+import android.hardware.camera2.TotalCaptureResult;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.MediaCodec;
+import android.os.Handler;
+import android.os.Build;
+import android.os.HandlerThread;
+import android.os.Trace;
+import android.util.Base64;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
+
+import com.marine.secretcamera.R;
+import com.marine.secretcamera.bwe.NetworkBandwidthCache;
+import com.marine.secretcamera.encoder.EncoderCapabilities;
+import com.marine.secretcamera.encoder.EncoderConfig;
+import com.marine.secretcamera.encoder.EncoderProfile;
+import com.marine.secretcamera.encoder.EncoderSelector;
+import com.marine.secretcamera.encoder.VideoEncoder;
+import com.marine.secretcamera.rtp.RtpHeaderExtensions;
+import com.marine.secretcamera.rtp.RtpSession;
+import com.marine.secretcamera.rtp.RtpStream;
+import com.marine.secretcamera.rtp.SrtpTransformer;
+import com.marine.secretcamera.spool.SpoolUploader;
+import com.marine.secretcamera.spool.VideoSpool;
+import com.marine.secretcamera.stats.StartupTracer;
+import com.marine.secretcamera.stats.StreamStats;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// 采集 -> 编码 -> RTP 推流的完整管线。
+//  相机相关的状态只在相机线程（cameraHandler）上修改;
+//  编码器与 rtpSession 在相机重启之间保持存活, 只在 release() 时释放;
+//  setTier() 可以在推流过程中切换分辨率 / 帧率 / 码率档位, RTP 的 SSRC、序列号与时间戳基准不变;
+//  开启 simulcast 后同一个 capture session 同时输出到两个编码器, 两路各用一个 SSRC,
+//  共用 rtpSession 的 socket 与发送线程。
+//  开启多摄像头后另一个摄像头（SecondaryCamera）同样用自己的编码器与 SSRC 推流, 共用 socket 与 pacer;
+//  两路平分码率, 分辨率按编码器的总处理能力降档。
+//  高帧率模式（60 / 120fps）优先用普通会话 + TEMPLATE_RECORD, 做不到时改用 constrained high-speed 会话。
+public class StreamPipeline {
+  private static final String TAG = "StreamPipeline";
+  // L1T2: 增强层帧没有被参考, 拥塞时丢掉即可把帧率减半
+  private static final int TEMPORAL_LAYERS = 2;
+  // 带宽受限时 simulcast 低层最多占用的比例
+  private static final float SIMULCAST_LOW_SHARE = 0.25f;
+  private static final int MIN_ENCODER_BITRATE = 100_000;
+  // 启动探测的速率, 覆盖所有档位（含 simulcast）需要的码率
+  private static final long[] PROBE_RATES = {500_000, 1_000_000, 2_000_000, 4_000_000};
+  private static final long PROBE_TIMEOUT_MS = 1500;
+  // 探测结果出来之前编码器使用的保守码率
+  private static final int PROBING_START_BITRATE = 600_000;
+  // 断网暂存文件大小, 4Mbps 时大约两分钟
+  private static final int SPOOL_CAPACITY = 64 * 1024 * 1024;
+  private static final String SPOOL_FILE = "spool/video.ring";
+  // 没有带宽估计时的补传速率
+  private static final long SPOOL_DEFAULT_UPLOAD_BITRATE = 500_000;
+  // 画面静止时编码器只收到这个帧率的画面, 码率降到档位码率的这个比例
+  private static final int IDLE_FPS = 5;
+  private static final float IDLE_BITRATE_FRACTION = 0.15f;
+  // 系统只保证并发的摄像头各自能以 720p 出流
+  private static final int MULTI_CAMERA_MAX_WIDTH = 1280;
+  private static final int MULTI_CAMERA_MAX_HEIGHT = 720;
+
+  private final Context context;
+  private CameraDevice cameraDevice;
+  private CameraCaptureSession cameraCaptureSession;
+  private String cameraId;
+  private CameraManager cameraManager;
+  private Range<Integer>[] availableFpsRanges;
+  private volatile int sensorOrientation;
+  private StreamConfigurationMap streamConfigurationMap;
+  // 摄像头是否支持 constrained high-speed 会话
+  private volatile boolean highSpeedCapable;
+  // 屏幕相对自然方向的旋转角度（Surface.ROTATION_* * 90）
+  private volatile int deviceRotation;
+  private HandlerThread cameraThread;
+  private volatile Handler cameraHandler;
+  private Surface previewSurface;
+  private Surface encoderSurface;
+  private Surface lowEncoderSurface;
+  private final RtpSession rtpSession;
+  private final RtpStream mainStream;
+  private final RtpStream lowStream;
+  private final VideoEncoder videoEncoder;
+  // simulcast 低分辨率层, 只在开启 simulcast 时创建 MediaCodec
+  private final VideoEncoder lowEncoder;
+  private final StreamStats streamStats = new StreamStats();
+  // 推流默认使用低延迟档位, 编码器不支持的键会被自动跳过
+  private final EncoderProfile encoderProfile = EncoderProfile.LOW_LATENCY;
+  // 启动阶段并行执行 socket 初始化与编码器创建
+  private final ExecutorService startupExecutor = Executors.newFixedThreadPool(2);
+
+  private volatile VideoTier tier = VideoTier.HD_1080P_30;
+  // setTier 请求的档位; 多摄像头或高帧率模式下实际使用的 tier 与它不同
+  private volatile VideoTier requestedTier = VideoTier.HD_1080P_30;
+  // 为 false 时重复请求只输出到编码器 Surface, 相机不再为预览渲染画面
+  private volatile boolean previewEnabled = true;
+  private volatile boolean headless;
+  // 为 false 时处于热待机: 摄像头、编码器、capture session 与 socket 都已就绪, 只是不向编码器送帧
+  private volatile boolean streaming;
+  private volatile boolean simulcastEnabled;
+  // 由 transport-wide feedback 得到的带宽估计, 0 表示还没有收到反馈
+  private volatile long bandwidthEstimate;
+  // 正在进行启动带宽探测
+  private volatile boolean probing;
+  private final NetworkBandwidthCache bandwidthCache;
+  // 以下两个字段只在相机线程访问
+  private boolean screenOn = true;
+  // 当前 capture session 是否包含预览 Surface
+  private boolean sessionHasPreview;
+  // 当前 capture session 是否包含 simulcast 低层的编码器 Surface
+  private boolean sessionHasLow;
+  // 运动检测: 开启后会话多一路小尺寸 YUV 输出; 以下状态只在相机线程修改
+  private volatile boolean motionGatingEnabled;
+  private MotionDetector motionDetector;
+  private boolean sessionHasAnalysis;
+  // 高帧率模式的目标帧率, 0 表示关闭
+  private volatile int highFrameRate;
+  // 当前会话是否为 constrained high-speed 会话, 只在相机线程访问
+  private boolean sessionHighSpeed;
+  // 每次创建或关闭会话时递增, 只在相机线程访问。StateCallback 按创建时的代数区分,
+  // 已经被取代的会话回调不能再按当前的 session* 标志降级功能, 也不能覆盖 cameraCaptureSession
+  private int sessionGeneration;
+  // 已经发起创建、还没有回调的会话
+  private boolean sessionPending;
+  private volatile boolean sceneIdle;
+  private boolean screenReceiverRegistered;
+  private final QualityGovernor qualityGovernor;
+  private final UplinkMonitor uplinkMonitor;
+  // 在 startupExecutor 中创建, 打开失败时为 null（不启用暂存）
+  private volatile VideoSpool spool;
+  private volatile SpoolUploader spoolUploader;
+  // 多摄像头: secondaryCamera 只在相机线程创建 / 释放, 第二路的 SSRC 在多次开关之间保持不变
+  private volatile boolean multiCameraEnabled;
+  private volatile SecondaryCamera secondaryCamera;
+  private volatile RtpStream secondaryStream;
+  // 编码器每秒能处理的像素数, 多路编码时按它分配分辨率
+  private volatile long encoderPixelRate;
+
+  public StreamPipeline(Context context) {
+    this.context = context.getApplicationContext();
+    rtpSession = new RtpSession();
+    mainStream = rtpSession.createStream();
+    lowStream = rtpSession.createStream();
+    videoEncoder = new VideoEncoder(mainStream);
+    videoEncoder.setTemporalLayers(TEMPORAL_LAYERS);
+    lowEncoder = new VideoEncoder(lowStream);
+    lowEncoder.setTemporalLayers(TEMPORAL_LAYERS);
+    streamStats.setRtpSession(rtpSession);
+    bandwidthCache = NetworkBandwidthCache.getInstance(context);
+    rtpSession.setOnBandwidthEstimateListener(bitsPerSecond -> {
+      bandwidthEstimate = bitsPerSecond;
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(this::updateTargetBitrate);
+      }
+    });
+    // 切换到新的 ingest 节点后, 它要从带 SPS/PPS 的关键帧开始解码
+    rtpSession.setOnEndpointChangedListener(endpoint -> {
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(this::requestKeyFrames);
+      }
+    });
+    videoEncoder.setLatencyTracker(streamStats.getLatencyTracker());
+    videoEncoder.setFrameRateMonitor(streamStats.getFrameRateMonitor());
+    videoEncoder.setStartupTracer(streamStats.getStartupTracer());
+    qualityGovernor = new QualityGovernor(context, this);
+    uplinkMonitor = new UplinkMonitor(context, this::onUplinkChanged);
+  }
+
+  public StreamStats getStats() {
+    return streamStats;
+  }
+
+  public VideoTier getTier() {
+    return tier;
+  }
+
+  public interface OnPreviewSurfaceListener {
+    // 在相机线程中回调（管线还没有启动时在调用线程中回调）;
+    // attached 表示新的 capture session 是否输出到这个预览 Surface（headless 或 Surface 无效时为 false）
+    void onPreviewSurfaceSwitched(Surface surface, boolean attached);
+  }
+
+  // 预览 Surface 变化时（页面回到前台 / 切到后台）只重建 capture session, 摄像头与编码器保持不变。
+  // 传入 null 即进入无预览模式, 只向编码器 Surface 输出。
+  // 切换在相机线程中异步进行, 不阻塞调用方（通常是主线程）, 完成后通过 listener 通知。
+  // surfaceDestroyed 返回之后相机可能还会向旧 Surface 输出几帧, 这些帧会被丢弃, 随后的重建会把它移出会话。
+  public void setPreviewSurface(Surface surface, @Nullable OnPreviewSurfaceListener listener) {
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      previewSurface = surface;
+      if (listener != null) {
+        listener.onPreviewSurfaceSwitched(surface, isPreviewAttached(surface));
+      }
+      return;
+    }
+    handler.post(() -> {
+      if (previewSurface != surface) {
+        previewSurface = surface;
+        rebuildCaptureSession();
+      }
+      if (listener != null) {
+        listener.onPreviewSurfaceSwitched(surface, isPreviewAttached(surface));
+      }
+    });
+  }
+
+  private boolean isPreviewAttached(Surface surface) {
+    return !headless && surface != null && surface.isValid();
+  }
+
+  // 无预览（headless）模式: capture session 中只保留编码器 Surface,
+  // 相机 HAL 与 GPU 不再合成预览画面, 适用于没人看屏幕的安装场景
+  public void setHeadless(boolean headless) {
+    if (this.headless == headless) {
+      return;
+    }
+    this.headless = headless;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::rebuildCaptureSession);
+    }
+  }
+
+  public boolean isHeadless() {
+    return headless;
+  }
+
+  // simulcast: 额外编码一路 360p, 接收端按自己的带宽选择订阅哪一层。
+  // 低层编码器在后台线程创建, 就绪后重建 capture session 把它的 Surface 加进来;
+  // 设备不支持同时运行两个编码器时会自动关闭。
+  public void setSimulcastEnabled(boolean enabled) {
+    if (simulcastEnabled == enabled) {
+      return;
+    }
+    simulcastEnabled = enabled;
+    updateTargetBitrate();
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      return;
+    }
+    if (enabled && !lowEncoder.isPrepared()) {
+      startupExecutor.execute(this::prepareLowEncoder);
+    } else {
+      handler.post(this::rebuildCaptureSession);
+    }
+  }
+
+  // 编码器始终按传感器方向编码, 由接收端根据视频方向扩展（CVO）旋转画面,
+  // 屏幕旋转时不需要重新 configure 编码器, 也不需要 GPU 旋转每一帧
+  public void setDeviceRotation(int degrees) {
+    deviceRotation = degrees;
+    updateVideoOrientation();
+  }
+
+  private void updateVideoOrientation() {
+    // 后置摄像头: 需要顺时针旋转 (传感器方向 - 屏幕旋转) 度才能正着显示
+    int rotation = (sensorOrientation - deviceRotation + 360) % 360;
+    int cvo = RtpHeaderExtensions.videoOrientation(rotation, true, false);
+    mainStream.setVideoOrientation(cvo);
+    lowStream.setVideoOrientation(cvo);
+    SecondaryCamera secondary = secondaryCamera;
+    if (secondary != null) {
+      secondary.setDeviceRotation(deviceRotation);
+    }
+  }
+
+  public boolean isSimulcastEnabled() {
+    return simulcastEnabled;
+  }
+
+  // 关闭后只发送时间基础层, 不需要重新编码, 帧率立即减半
+  public void setEnhancementLayersEnabled(boolean enabled) {
+    int maxLayer = enabled ? Integer.MAX_VALUE : 0;
+    mainStream.setMaxTemporalLayer(maxLayer);
+    lowStream.setMaxTemporalLayer(maxLayer);
+    RtpStream secondary = secondaryStream;
+    if (secondary != null) {
+      secondary.setMaxTemporalLayer(maxLayer);
+    }
+  }
+
+  // 多摄像头同时推流（Android 11 以上, 且系统报告主摄像头可以与另一个摄像头并发）。
+  // 优先选择前置摄像头; 编码器实例数不够时不开启。开启后两路的分辨率最高 720p。
+  public void setMultiCameraEnabled(boolean enabled) {
+    if (multiCameraEnabled == enabled) {
+      return;
+    }
+    multiCameraEnabled = enabled;
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      return;
+    }
+    if (enabled) {
+      startupExecutor.execute(this::prepareSecondaryCamera);
+    } else {
+      handler.post(this::stopSecondaryCamera);
+    }
+  }
+
+  // 按推流请求协商的 RTP 头部扩展 ID（URI -> ID）, 见 RtpHeaderExtensions.negotiate。
+  // 返回 false 表示 ID 无效, 此时保持原来的设置
+  public boolean setRtpExtensions(Map<String, Integer> ids) {
+    try {
+      rtpSession.getHeaderExtensions().negotiate(ids);
+      return true;
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "invalid RTP header extensions " + ids, e);
+      return false;
+    }
+  }
+
+  // 推流请求中携带的 SRTP 主密钥: suite 为 SrtpTransformer.Suite 的名字,
+  // key 为 base64(主密钥 || 主盐), 与 SDES 的 inline 格式相同; 两者都为 null 时发送明文 RTP。
+  // 返回 false 表示密钥无效, 调用方不应该继续推流。
+  public boolean setSrtpKey(String suite, String key) {
+    if (suite == null && key == null) {
+      rtpSession.setSrtp(null);
+      return true;
+    }
+    byte[] material = null;
+    try {
+      SrtpTransformer.Suite s = SrtpTransformer.Suite.valueOf(suite);
+      material = Base64.decode(key, Base64.DEFAULT);
+      if (material.length != s.keyLength + s.saltLength) {
+        throw new GeneralSecurityException("bad key length " + material.length + " for " + s);
+      }
+      rtpSession.setSrtp(new SrtpTransformer(s,
+          Arrays.copyOf(material, s.keyLength),
+          Arrays.copyOfRange(material, s.keyLength, material.length)));
+    } catch (GeneralSecurityException | IllegalArgumentException | NullPointerException e) {
+      Log.e(TAG, "invalid SRTP key", e);
+      return false;
+    } finally {
+      if (material != null) {
+        Arrays.fill(material, (byte) 0);
+      }
+    }
+    // 接收端从新密钥的第一个关键帧开始解码
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::requestKeyFrames);
+    }
+    return true;
+  }
+
+  public boolean isMultiCameraEnabled() {
+    return multiCameraEnabled;
+  }
+
+  // 高帧率模式: fps 为 60 或 120, 0 关闭。与多摄像头互斥（多摄像头时忽略）。
+  // 普通会话能以该帧率输出当前分辨率时使用 TEMPLATE_RECORD 与固定的 AE 帧率范围;
+  // 否则改用 constrained high-speed 会话, 分辨率取该帧率下支持的、不超过当前档位的最大尺寸,
+  // 此时会话只输出到编码器（没有预览、simulcast 低层与运动检测）。都不支持时保持原档位。
+  public void setHighFrameRate(int fps) {
+    if (highFrameRate == fps) {
+      return;
+    }
+    highFrameRate = fps;
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      // 下一次 start() 时按摄像头能力换算档位
+      return;
+    }
+    handler.post(() -> applyTier(effectiveTier(requestedTier)));
+  }
+
+  public int getHighFrameRate() {
+    return highFrameRate;
+  }
+
+  // 相邻帧更相似, 码率按帧率增量的一半增加
+  private VideoTier highFrameRateTier(VideoTier requested, int fps) {
+    int bitrate = (int) ((long) requested.bitrate * (requested.fps + fps) / (2L * requested.fps));
+    if (canStreamRegular(requested.width, requested.height, fps)
+        && encoderSupports(requested.width, requested.height, fps)) {
+      return new VideoTier(requested.width, requested.height, fps, bitrate);
+    }
+    Size size = chooseHighSpeedSize(requested, fps);
+    if (size != null) {
+      return new VideoTier(size.getWidth(), size.getHeight(), fps, bitrate);
+    }
+    Log.w(TAG, fps + "fps is not supported at " + requested);
+    return null;
+  }
+
+  // 普通会话: AE 有上限等于 fps 的范围, 且编码器 Surface 在这个尺寸下的最小帧间隔允许
+  private boolean canStreamRegular(int width, int height, int fps) {
+    if (chooseFpsRange(fps) == null) {
+      return false;
+    }
+    StreamConfigurationMap map = streamConfigurationMap;
+    if (map == null) {
+      return true;
+    }
+    try {
+      // 0 表示 HAL 没有给出, 以 AE 帧率范围为准
+      long minFrameDurationNs = map.getOutputMinFrameDuration(MediaCodec.class,
+          new Size(width, height));
+      return minFrameDurationNs <= 1_000_000_000L / fps;
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  private boolean encoderSupports(int width, int height, int fps) {
+    EncoderCapabilities caps = EncoderSelector.getInstance(context).select(width, height, fps);
+    return caps == null || caps.supports(width, height, fps);
+  }
+
+  // 不超过请求尺寸、摄像头和编码器都能跑满 fps 的最大 high-speed 尺寸
+  private Size chooseHighSpeedSize(VideoTier requested, int fps) {
+    StreamConfigurationMap map = streamConfigurationMap;
+    if (!highSpeedCapable || map == null) {
+      return null;
+    }
+    Size best = null;
+    for (Size size : map.getHighSpeedVideoSizes()) {
+      if (size.getWidth() > requested.width || size.getHeight() > requested.height) continue;
+      if (chooseHighSpeedFpsRange(size, fps) == null) continue;
+      if (!encoderSupports(size.getWidth(), size.getHeight(), fps)) continue;
+      if (best == null || size.getWidth() * size.getHeight() > best.getWidth() * best.getHeight()) {
+        best = size;
+      }
+    }
+    return best;
+  }
+
+  // 录制用固定范围 [fps, fps], 没有时退到上限等于 fps 的范围
+  private Range<Integer> chooseHighSpeedFpsRange(Size size, int fps) {
+    StreamConfigurationMap map = streamConfigurationMap;
+    if (map == null) {
+      return null;
+    }
+    Range<Integer>[] ranges;
+    try {
+      ranges = map.getHighSpeedVideoFpsRangesFor(size);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    Range<Integer> best = null;
+    for (Range<Integer> range : ranges) {
+      if (range.getUpper() != fps) continue;
+      if (best == null || range.getLower() > best.getLower()) {
+        best = range;
+      }
+    }
+    return best;
+  }
+
+  // 档位需要 constrained high-speed 会话: 开启了高帧率模式, 普通会话做不到而 high-speed 会话可以
+  private boolean needsHighSpeedSession(VideoTier t) {
+    return highFrameRate > 0 && t.fps > VideoEncoder.HIGH_FRAME_RATE_THRESHOLD
+        && highSpeedCapable
+        && !canStreamRegular(t.width, t.height, t.fps)
+        && chooseHighSpeedFpsRange(new Size(t.width, t.height), t.fps) != null;
+  }
+
+  // 普通帧率与高帧率之间切换时编码器要按新的 KEY_OPERATING_RATE 重新 configure
+  private static boolean needsReconfigure(EncoderConfig config, VideoTier t) {
+    return config.width != t.width || config.height != t.height
+        || (config.fps != t.fps
+            && Math.max(config.fps, t.fps) > VideoEncoder.HIGH_FRAME_RATE_THRESHOLD);
+  }
+
+  // 后台线程: 找到可以并发的摄像头并检查编码器能力, 然后回到相机线程打开它
+  private void prepareSecondaryCamera() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+      Log.w(TAG, "concurrent cameras require Android 11");
+      multiCameraEnabled = false;
+      return;
+    }
+    String partner = null;
+    try {
+      partner = findConcurrentCamera();
+    } catch (CameraAccessException | RuntimeException e) {
+      Log.e(TAG, "failed to query concurrent cameras", e);
+    }
+    if (partner == null) {
+      Log.w(TAG, "no camera can stream concurrently with " + cameraId);
+      multiCameraEnabled = false;
+      return;
+    }
+    VideoTier top = VideoTier.BY_PIXEL_RATE[0];
+    EncoderCapabilities caps = EncoderSelector.getInstance(context)
+        .select(top.width, top.height, top.fps);
+    int needed = simulcastEnabled ? 3 : 2;
+    if (caps != null && caps.maxInstances > 0 && caps.maxInstances < needed) {
+      Log.w(TAG, caps.name + " supports only " + caps.maxInstances + " instances, need " + needed);
+      multiCameraEnabled = false;
+      return;
+    }
+    encoderPixelRate = encoderPixelRate(caps);
+    String id = partner;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(() -> startSecondaryCamera(id));
+    }
+  }
+
+  private String findConcurrentCamera() throws CameraAccessException {
+    if (cameraManager == null || cameraId == null) {
+      return null;
+    }
+    String partner = null;
+    for (Set<String> ids : cameraManager.getConcurrentCameraIds()) {
+      if (!ids.contains(cameraId)) continue;
+      for (String id : ids) {
+        if (id.equals(cameraId)) continue;
+        Integer facing = cameraManager.getCameraCharacteristics(id)
+            .get(CameraCharacteristics.LENS_FACING);
+        if (facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+          return id;
+        }
+        if (partner == null) {
+          partner = id;
+        }
+      }
+    }
+    return partner;
+  }
+
+  // 编码器能处理的最高档位的像素率, 没有能力信息时按最高档计算
+  private static long encoderPixelRate(EncoderCapabilities caps) {
+    if (caps != null) {
+      for (VideoTier t : VideoTier.BY_PIXEL_RATE) {
+        if (caps.supports(t.width, t.height, t.fps)) {
+          return pixelRate(t);
+        }
+      }
+    }
+    return pixelRate(VideoTier.BY_PIXEL_RATE[0]);
+  }
+
+  private static long pixelRate(VideoTier t) {
+    return (long) t.width * t.height * t.fps;
+  }
+
+  // 实际使用的档位: 多摄像头时按编码器能力降档, 否则在高帧率模式下换成对应的高帧率档位
+  private VideoTier effectiveTier(VideoTier requested) {
+    if (secondaryCamera != null) {
+      return multiCameraTier(requested);
+    }
+    int fps = highFrameRate;
+    if (fps > requested.fps) {
+      VideoTier hfr = highFrameRateTier(requested, fps);
+      if (hfr != null) {
+        return hfr;
+      }
+    }
+    return requested;
+  }
+
+  // 多路编码时每个摄像头实际使用的档位: 不超过 720p, 所有编码器的像素率之和不超过编码器能力
+  private VideoTier multiCameraTier(VideoTier requested) {
+    long budget = encoderPixelRate;
+    VideoTier low = simulcastEnabled ? requested.simulcastLow() : null;
+    if (low != null) {
+      budget -= pixelRate(low);
+    }
+    if (fitsMultiCamera(requested, budget)) {
+      return requested;
+    }
+    for (VideoTier t : VideoTier.BY_PIXEL_RATE) {
+      if (t.width <= requested.width && t.fps <= requested.fps && fitsMultiCamera(t, budget)) {
+        return t;
+      }
+    }
+    return VideoTier.BY_PIXEL_RATE[VideoTier.BY_PIXEL_RATE.length - 1];
+  }
+
+  private static boolean fitsMultiCamera(VideoTier t, long pixelRateBudget) {
+    return t.width <= MULTI_CAMERA_MAX_WIDTH && t.height <= MULTI_CAMERA_MAX_HEIGHT
+        && pixelRate(t) * 2 <= pixelRateBudget;
+  }
+
+  // 相机线程
+  private void startSecondaryCamera(String id) {
+    if (!multiCameraEnabled || secondaryCamera != null || cameraHandler == null) {
+      return;
+    }
+    if (ContextCompat.checkSelfPermission(context,
+        Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+      return;
+    }
+    if (secondaryStream == null) {
+      secondaryStream = rtpSession.createStream();
+      secondaryStream.setMaxTemporalLayer(mainStream.getMaxTemporalLayer());
+    }
+    VideoEncoder encoder = new VideoEncoder(secondaryStream);
+    encoder.setTemporalLayers(TEMPORAL_LAYERS);
+    SecondaryCamera secondary = new SecondaryCamera(context, cameraManager, id, secondaryStream,
+        encoder, encoderProfile, this::onSecondaryCameraFailed);
+    secondaryCamera = secondary;
+    // 先把主摄像头降到多路档位, 再按同一档位打开第二个摄像头
+    applyTier(effectiveTier(requestedTier));
+    secondary.start(tier, streaming);
+    secondary.setDeviceRotation(deviceRotation);
+    updateTargetBitrate();
+    Log.i(TAG, "streaming camera " + id + " alongside " + cameraId + " at " + tier);
+  }
+
+  // 相机线程: 关闭第二个摄像头, 主摄像头恢复到请求的档位
+  private void stopSecondaryCamera() {
+    SecondaryCamera secondary = secondaryCamera;
+    if (secondary == null) {
+      return;
+    }
+    secondaryCamera = null;
+    secondary.stop();
+    applyTier(effectiveTier(requestedTier));
+    updateTargetBitrate();
+  }
+
+  // 在第二个摄像头的线程中回调
+  private void onSecondaryCameraFailed() {
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      return;
+    }
+    handler.post(() -> {
+      Log.w(TAG, "disabling multi-camera streaming");
+      multiCameraEnabled = false;
+      stopSecondaryCamera();
+    });
+  }
+
+  // 画面静止一段时间后降到 IDLE_FPS 与 IDLE_BITRATE_FRACTION, 检测到运动时立即恢复并请求关键帧。
+  // 需要重建 capture session（多一路分析输出）, 推流过程中也可以切换。
+  public void setMotionGatingEnabled(boolean enabled) {
+    if (motionGatingEnabled == enabled) {
+      return;
+    }
+    motionGatingEnabled = enabled;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::applyMotionGating);
+    }
+  }
+
+  public boolean isMotionGatingEnabled() {
+    return motionGatingEnabled;
+  }
+
+  // 相机线程
+  private void applyMotionGating() {
+    if (motionGatingEnabled && motionDetector == null) {
+      motionDetector = new MotionDetector(streamConfigurationMap, this::onMotionChanged);
+      motionDetector.start();
+    }
+    if (!motionGatingEnabled) {
+      sceneIdle = false;
+      updateTargetBitrate();
+    }
+    if (cameraCaptureSession != null && sessionHasAnalysis != motionGatingEnabled) {
+      rebuildCaptureSession();
+    }
+    if (!motionGatingEnabled && motionDetector != null) {
+      motionDetector.stop();
+      motionDetector = null;
+    }
+  }
+
+  // 在分析线程中回调
+  private void onMotionChanged(boolean motion) {
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      return;
+    }
+    handler.post(() -> {
+      if (!motionGatingEnabled || sceneIdle == !motion) {
+        return;
+      }
+      Log.i(TAG, motion ? "motion detected, resuming full rate" : "scene idle, reducing rate");
+      sceneIdle = !motion;
+      updateTargetBitrate();
+      startRepeatingRequest();
+      if (motion && streaming) {
+        requestKeyFrames();
+      }
+    });
+  }
+
+  public boolean isEnhancementLayersEnabled() {
+    return mainStream.getMaxTemporalLayer() > 0;
+  }
+
+  // 进入热待机（如果之前已经调用 startStreaming 则直接开始推流）。
+  // 并行做三件事:
+  // 开启 rtpSession（后台线程）
+  // 创建编码器（后台线程）
+  // 开启摄像头（相机线程）
+  // 摄像头打开且编码器 Surface 就绪后, 立即创建 capture session
+  public void start() {
+    if (cameraThread != null) {
+      // 已经在运行（例如刚刚拿到相机权限）, 只需要补开摄像头
+      cameraHandler.post(this::startCamera);
+      if (multiCameraEnabled) {
+        startupExecutor.execute(this::prepareSecondaryCamera);
+      }
+      return;
+    }
+    StartupTracer startupTracer = streamStats.getStartupTracer();
+    startupTracer.begin();
+    startCameraThread();
+    setCameraId();
+    tier = effectiveTier(requestedTier);
+    // 编码器与 rtpSession 在相机重启之间保持存活, 只有第一次启动时才需要创建
+    updateTargetBitrate();
+    if (!rtpSession.isStarted()) {
+      probing = true;
+      startupExecutor.execute(this::startRtpSession);
+    }
+    if (spool == null) {
+      startupExecutor.execute(this::openSpool);
+    }
+    if (videoEncoder.isPrepared()) {
+      Surface surface = videoEncoder.getInputSurface();
+      cameraHandler.post(() -> {
+        encoderSurface = surface;
+        maybeCreateCameraSession();
+      });
+    } else {
+      startupExecutor.execute(this::prepareEncoder);
+    }
+    if (simulcastEnabled) {
+      if (lowEncoder.isPrepared()) {
+        Surface lowSurface = lowEncoder.getInputSurface();
+        cameraHandler.post(() -> lowEncoderSurface = lowSurface);
+      } else {
+        startupExecutor.execute(this::prepareLowEncoder);
+      }
+    }
+    startCamera();
+    if (multiCameraEnabled) {
+      startupExecutor.execute(this::prepareSecondaryCamera);
+    }
+    qualityGovernor.start();
+    registerScreenReceiver();
+  }
+
+  // 熄屏时停止向预览输出, 亮屏后恢复; 只更新重复请求, 不重建会话
+  private final BroadcastReceiver screenReceiver = new BroadcastReceiver() {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+      boolean on = Intent.ACTION_SCREEN_ON.equals(intent.getAction());
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(() -> {
+          screenOn = on;
+          startRepeatingRequest();
+        });
+      }
+    }
+  };
+
+  private void registerScreenReceiver() {
+    if (screenReceiverRegistered) {
+      return;
+    }
+    IntentFilter filter = new IntentFilter();
+    filter.addAction(Intent.ACTION_SCREEN_ON);
+    filter.addAction(Intent.ACTION_SCREEN_OFF);
+    context.registerReceiver(screenReceiver, filter);
+    screenReceiverRegistered = true;
+  }
+
+  // 打开断网暂存文件并启动补传线程; 上一次没有传完的数据会在联网时继续补传
+  private void openSpool() {
+    VideoSpool s;
+    try {
+      s = new VideoSpool(new File(context.getFilesDir(), SPOOL_FILE), SPOOL_CAPACITY);
+    } catch (IOException e) {
+      Log.e(TAG, "failed to open spool, outages will drop video", e);
+      return;
+    }
+    SpoolUploader uploader = new SpoolUploader(s, rtpSession);
+    spool = s;
+    spoolUploader = uploader;
+    videoEncoder.setSpool(s);
+    streamStats.setSpoolUploader(uploader);
+    uploader.start();
+    // 监听放在最后, 第一次回调时暂存已经就绪
+    uplinkMonitor.start();
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::updateTargetBitrate);
+    }
+  }
+
+  // 在 ConnectivityManager 的线程中回调:
+  //  断网时编码输出转存到 spool, 补传暂停;
+  //  恢复后直播流从关键帧重新开始, 同时按限速补传断网期间的数据。
+  private void onUplinkChanged(boolean available) {
+    SpoolUploader uploader = spoolUploader;
+    if (uploader != null) {
+      uploader.setPaused(!available);
+    }
+    videoEncoder.setSpooling(!available);
+    if (available) {
+      // 换了网络时最近的 ingest 节点可能也变了
+      rtpSession.reprobeEndpoints();
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(this::requestKeyFrames);
+      }
+    }
+  }
+
+  // 从热待机切换到推流: 只需要把编码器 Surface 加入重复请求并请求一个关键帧
+  public void startStreaming() {
+    if (streaming) {
+      return;
+    }
+    streaming = true;
+    // 从这里开始统计到第一个 RTP 包的时间
+    streamStats.getStartupTracer().begin();
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(() -> {
+        startRepeatingRequest();
+        requestKeyFrames();
+        SecondaryCamera secondary = secondaryCamera;
+        if (secondary != null) {
+          secondary.setStreaming(true);
+        }
+      });
+    }
+  }
+
+  // 回到热待机, 摄像头与编码器保持打开
+  public void stopStreaming() {
+    if (!streaming) {
+      return;
+    }
+    streaming = false;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(() -> {
+        startRepeatingRequest();
+        SecondaryCamera secondary = secondaryCamera;
+        if (secondary != null) {
+          secondary.setStreaming(false);
+        }
+      });
+    }
+  }
+
+  public boolean isStreaming() {
+    return streaming;
+  }
+
+  // 运行时切换档位:
+  //  只有帧率 / 码率变化时, 更新重复请求的 AE 帧率范围并调整编码器码率, 不中断推流;
+  //  分辨率变化时, 关闭 capture session, 重新 configure 编码器后重建会话。
+  public void setTier(VideoTier newTier) {
+    requestedTier = newTier;
+    Handler handler = cameraHandler;
+    if (handler == null) {
+      // 相机没有运行, 下一次创建会话时再应用
+      tier = newTier;
+      return;
+    }
+    handler.post(() -> applyTier(effectiveTier(newTier)));
+  }
+
+  // 开关预览只需要更新重复请求的输出目标, capture session 保持不变
+  public void setPreviewEnabled(boolean enabled) {
+    if (previewEnabled == enabled) {
+      return;
+    }
+    previewEnabled = enabled;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::startRepeatingRequest);
+    }
+  }
+
+  private void applyTier(VideoTier newTier) {
+    VideoTier oldTier = tier;
+    tier = newTier;
+    SecondaryCamera secondary = secondaryCamera;
+    if (secondary != null) {
+      secondary.setTier(newTier);
+    }
+    EncoderConfig config = videoEncoder.getConfig();
+    if (config == null || newTier.equals(oldTier)) {
+      return;
+    }
+    Log.i(TAG, "switching tier " + oldTier + " -> " + newTier);
+    if (needsReconfigure(config, newTier) || needsHighSpeedSession(newTier) != sessionHighSpeed) {
+      rebuildCaptureSession();
+    } else if (config.fps != newTier.fps) {
+      videoEncoder.setFrameRate(newTier.fps);
+      startRepeatingRequest();
+    }
+    applySimulcastTier(oldTier, newTier);
+    updateTargetBitrate();
+    streamStats.setEncoderConfig(videoEncoder.getConfig());
+  }
+
+  // 低层跟随主档位调整帧率（码率由 updateTargetBitrate 统一调整）; 主档位降到 360p 时低层没有意义, 从会话中移除
+  private void applySimulcastTier(VideoTier oldTier, VideoTier newTier) {
+    EncoderConfig lowConfig = lowEncoder.getConfig();
+    VideoTier low = newTier.simulcastLow();
+    if (lowConfig == null) {
+      return;
+    }
+    if (low != null) {
+      if (lowConfig.fps != low.fps) {
+        lowEncoder.setFrameRate(low.fps);
+      }
+      streamStats.setSimulcastEncoderConfig(lowEncoder.getConfig());
+    }
+    boolean hadLow = oldTier.simulcastLow() != null;
+    if (simulcastEnabled && hadLow != (low != null) && newTier.sameSize(oldTier)) {
+      // 分辨率变化时上面已经重建过会话
+      rebuildCaptureSession();
+    }
+  }
+
+  // 编码器码率取档位码率与带宽估计中较小的一个, 发送速率按所有编码器的目标码率之和计算。
+  // 多摄像头时扣除 simulcast 低层之后的预算由两个摄像头平分（两路档位相同）。
+  // 估计值远低于档位码率时只发送时间基础层, 让每一帧分到更多的码率。
+  private void updateTargetBitrate() {
+    VideoTier t = tier;
+    VideoTier low = simulcastEnabled ? t.simulcastLow() : null;
+    long estimate = bandwidthEstimate;
+    long budget;
+    if (estimate > 0) {
+      budget = estimate;
+    } else if (probing) {
+      budget = PROBING_START_BITRATE;
+    } else {
+      budget = Long.MAX_VALUE;
+    }
+    int lowBitrate = low == null ? 0
+        : (int) Math.min(low.bitrate, (long) (budget * SIMULCAST_LOW_SHARE));
+    SecondaryCamera secondary = secondaryCamera;
+    int cameras = secondary != null ? 2 : 1;
+    int mainBitrate = (int) Math.max(MIN_ENCODER_BITRATE,
+        Math.min(t.bitrate, (budget - lowBitrate) / cameras));
+    // 运动检测只看主摄像头, 第二路不降码率
+    int secondaryBitrate = secondary != null ? mainBitrate : 0;
+    if (sceneIdle) {
+      mainBitrate = Math.max(MIN_ENCODER_BITRATE,
+          Math.min(mainBitrate, (int) (t.bitrate * IDLE_BITRATE_FRACTION)));
+      if (low != null) {
+        lowBitrate = Math.max(MIN_ENCODER_BITRATE,
+            Math.min(lowBitrate, (int) (low.bitrate * IDLE_BITRATE_FRACTION)));
+      }
+    }
+
+    EncoderConfig config = videoEncoder.getConfig();
+    if (config != null && config.bitrate != mainBitrate) {
+      videoEncoder.setBitrate(mainBitrate);
+    }
+    EncoderConfig lowConfig = lowEncoder.getConfig();
+    if (low != null && lowConfig != null && lowConfig.bitrate != lowBitrate) {
+      lowEncoder.setBitrate(lowBitrate);
+    }
+    if (secondary != null) {
+      secondary.setBitrate(secondaryBitrate);
+    }
+    // 补传只用直播之外剩余的带宽
+    long uploadBitrate;
+    if (budget == Long.MAX_VALUE) {
+      uploadBitrate = SPOOL_DEFAULT_UPLOAD_BITRATE;
+    } else {
+      uploadBitrate = Math.max(0, budget - mainBitrate - lowBitrate - secondaryBitrate);
+    }
+    SpoolUploader uploader = spoolUploader;
+    if (uploader != null) {
+      uploader.setRate(uploadBitrate);
+      if (uploader.isIdle()) {
+        uploadBitrate = 0;
+      }
+    } else {
+      uploadBitrate = 0;
+    }
+    rtpSession.setTargetBitrate(mainBitrate + lowBitrate + secondaryBitrate + uploadBitrate);
+    if (estimate > 0) {
+      setEnhancementLayersEnabled(estimate >= t.bitrate / 4);
+    }
+  }
+
+  private void requestKeyFrames() {
+    videoEncoder.requestKeyFrame();
+    if (sessionHasLow) {
+      lowEncoder.requestKeyFrame();
+    }
+    SecondaryCamera secondary = secondaryCamera;
+    if (secondary != null) {
+      secondary.requestKeyFrame();
+    }
+  }
+
+  private void startRtpSession() {
+    Trace.beginSection("rtp_session_start");
+    try {
+      // 多个候选节点时先探测 RTT 选出最近的节点, 与编码器创建、摄像头打开并行
+      rtpSession.start(Arrays.asList(context.getResources()
+          .getStringArray(R.array.ingest_endpoints)));
+      streamStats.getStartupTracer().mark(StartupTracer.SOCKET_READY);
+      // 选节点期间（最多 1.2s）编码器已经开始输出, 发送线程还不存在, 第一个关键帧与 SPS/PPS 都被丢弃了;
+      // 下一个周期性关键帧要等很久, socket 就绪后立即补一个
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(this::requestKeyFrames);
+      }
+    } catch (Exception e) {
+      Log.e(TAG, "failed to start rtp session", e);
+      probing = false;
+      return;
+    } finally {
+      Trace.endSection();
+    }
+    runStartupProbe();
+  }
+
+  // 启动带宽探测, 用结果决定编码器的初始码率。
+  // 同一个网络上探测过时先用缓存的结果开始推流, 但网络标识可能在不同网络之间重复, 仍然探测一次确认。
+  // 探测与编码器创建、摄像头打开并行进行, 结果出来之前编码器先用保守的 PROBING_START_BITRATE。
+  private void runStartupProbe() {
+    String network = bandwidthCache.getCurrentNetworkKey();
+    long cached = network != null ? bandwidthCache.get(network) : -1;
+    if (cached > 0) {
+      Log.i(TAG, "starting from cached bandwidth " + cached / 1000 + "kbps for " + network);
+      rtpSession.setInitialBandwidth(cached);
+      if (bandwidthEstimate <= 0) {
+        bandwidthEstimate = cached;
+      }
+      probing = false;
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(this::updateTargetBitrate);
+      }
+    }
+    long estimate = -1;
+    Trace.beginSection("bandwidth_probe");
+    try {
+      estimate = rtpSession.probe(PROBE_RATES, PROBE_TIMEOUT_MS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      Trace.endSection();
+    }
+    Log.i(TAG, "startup probe on " + network + ": " + estimate / 1000 + "kbps");
+    if (estimate > 0 && network != null) {
+      bandwidthCache.put(network, estimate);
+    }
+    // 探测结果比缓存更可信, 覆盖用缓存设置的起点
+    if (estimate > 0 && (bandwidthEstimate <= 0 || cached > 0)) {
+      bandwidthEstimate = estimate;
+    }
+    // 没有得到结果（对端不回传反馈）时退回按档位码率推流
+    probing = false;
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      handler.post(this::updateTargetBitrate);
+    }
+  }
+
+  // 在后台线程中创建编码器, 完成后回到相机线程检查是否可以创建 capture session
+  private void prepareEncoder() {
+    Trace.beginSection("encoder_prepare");
+    try{
+      VideoTier t = tier;
+      // 第一次启动时会枚举并缓存所有编码器, 之后直接读缓存
+      EncoderSelector encoderSelector = EncoderSelector.getInstance(context);
+      EncoderCapabilities selected = encoderSelector.select(t.width, t.height, t.fps);
+      videoEncoder.setEncoderCapabilities(selected);
+      Surface surface = videoEncoder.prepare(
+          t.width,
+          t.height,
+          t.fps,
+          t.bitrate,
+          encoderProfile);
+      streamStats.setEncoderConfig(videoEncoder.getConfig());
+      if (selected != null && !selected.name.equals(videoEncoder.getConfig().codecName)) {
+        // 缓存中的编码器已经无法创建, 下次启动重新探测
+        encoderSelector.invalidate();
+      }
+      streamStats.getStartupTracer().mark(StartupTracer.ENCODER_READY);
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(() -> {
+          encoderSurface = surface;
+          // 编码器按档位码率创建, 在第一帧之前调整到带宽允许的码率
+          updateTargetBitrate();
+          maybeCreateCameraSession();
+        });
+      }
+    }catch (IOException e) {
+      Log.e(TAG, "init encoder failed");
+    } finally {
+      Trace.endSection();
+    }
+  }
+
+  // 在后台线程中创建 simulcast 低层编码器, 失败时（例如设备只允许一个硬件编码器实例）关闭 simulcast
+  private void prepareLowEncoder() {
+    Trace.beginSection("simulcast_encoder_prepare");
+    try {
+      VideoTier t = tier;
+      VideoTier low = t.simulcastLow();
+      if (low == null) {
+        low = new VideoTier(VideoTier.SIMULCAST_LOW_WIDTH, VideoTier.SIMULCAST_LOW_HEIGHT,
+            t.fps, VideoTier.SIMULCAST_LOW_BITRATE);
+      }
+      EncoderSelector encoderSelector = EncoderSelector.getInstance(context);
+      lowEncoder.setEncoderCapabilities(encoderSelector.select(low.width, low.height, low.fps));
+      Surface surface = lowEncoder.prepare(
+          low.width,
+          low.height,
+          low.fps,
+          low.bitrate,
+          encoderProfile);
+      streamStats.setSimulcastEncoderConfig(lowEncoder.getConfig());
+      Handler handler = cameraHandler;
+      if (handler != null) {
+        handler.post(() -> {
+          lowEncoderSurface = surface;
+          updateTargetBitrate();
+          if (simulcastEnabled) {
+            rebuildCaptureSession();
+          }
+        });
+      }
+    } catch (IOException | RuntimeException e) {
+      Log.e(TAG, "failed to prepare simulcast encoder", e);
+      simulcastEnabled = false;
+      updateTargetBitrate();
+    } finally {
+      Trace.endSection();
+    }
+  }
+
+  private void setCameraId() {
+    try {
+      cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+      for (String id : cameraManager.getCameraIdList()) {
+        CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(id);
+        Integer facing = cameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
+        if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+          cameraId = id;
+          // 传感器时间戳的时钟源决定了计算延迟时用哪个时钟作为 "现在"
+          Integer timestampSource =
+              cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+          streamStats.getLatencyTracker().setRealtimeTimestampSource(timestampSource != null
+              && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME);
+          availableFpsRanges = cameraCharacteristics.get(
+              CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+          streamConfigurationMap = cameraCharacteristics.get(
+              CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+          int[] capabilities = cameraCharacteristics.get(
+              CameraCharacteristics.REQUEST_AVAILABLE_CAPABILITIES);
+          highSpeedCapable = false;
+          if (capabilities != null) {
+            for (int capability : capabilities) {
+              if (capability == CameraCharacteristics
+                  .REQUEST_AVAILABLE_CAPABILITIES_CONSTRAINED_HIGH_SPEED_VIDEO) {
+                highSpeedCapable = true;
+              }
+            }
+          }
+          Integer orientation = cameraCharacteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+          sensorOrientation = orientation != null ? orientation : 0;
+          updateVideoOrientation();
+          break;
+        }
+      }
+    } catch (Exception e) {
+      Log.e(TAG, "Error getting camera ID", e);
+    }
+  }
+
+  private void startCamera() {
+    if (cameraManager == null || cameraId == null) {
+      return;
+    }
+    if (cameraHandler == null) {
+      return;
+    }
+    if (cameraDevice != null) {
+      return;
+    }
+    //  检查并确保已经有 CAMERA 权限；没有则直接返回, 由界面负责请求权限。
+    if (ContextCompat.checkSelfPermission(context,
+        Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+      return;
+    }
+
+    //  调用 cameraManager.openCamera(...) 并传入 cameraHandler。
+    try {
+      cameraManager.openCamera(cameraId, cameraStateCallback, cameraHandler);
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Error opening camera", e);
+    }
+  }
+
+  private final CameraDevice.StateCallback cameraStateCallback =
+      new CameraDevice.StateCallback() {
+        @Override
+        public void onOpened(@NonNull CameraDevice camera) {
+          cameraDevice = camera;
+          streamStats.getStartupTracer().mark(StartupTracer.CAMERA_OPENED);
+          // start() 之前打开的运动门控, 在第一个 capture session 之前创建分析流
+          applyMotionGating();
+          maybeCreateCameraSession();
+        }
+
+        //  在 onDisconnected / onError 中关闭并释放 cameraDevice。
+        @Override
+        public void onDisconnected(@NonNull CameraDevice camera) {
+          // 会话随设备一起失效, 重新打开后才能再创建
+          closeCaptureSession();
+          camera.close();
+          cameraDevice = null;
+        }
+
+        @Override
+        public void onError(@NonNull CameraDevice camera, int error) {
+          Log.e(TAG, "Error when opening camera");
+          closeCaptureSession();
+          camera.close();
+          cameraDevice = null;
+        }
+      };
+
+  // 只在相机线程调用: 摄像头与编码器 Surface 都准备好之后才创建 capture session
+  private void maybeCreateCameraSession() {
+    if (cameraDevice == null || encoderSurface == null || cameraCaptureSession != null
+        || sessionPending) {
+      return;
+    }
+    // 档位的分辨率（或高帧率设置）与编码器当前的配置不一致时, 先重新 configure 编码器
+    EncoderConfig config = videoEncoder.getConfig();
+    VideoTier t = tier;
+    if (config != null && needsReconfigure(config, t)) {
+      videoEncoder.reconfigure(t.width, t.height, t.fps, t.bitrate);
+      streamStats.setEncoderConfig(videoEncoder.getConfig());
+      // reconfigure 使用档位码率, 重新按带宽估计调整
+      updateTargetBitrate();
+    }
+    createCameraSession();
+  }
+
+  // 相机线程: 按当前的预览 Surface 与 headless 设置重新建立 capture session
+  private void rebuildCaptureSession() {
+    closeCaptureSession();
+    maybeCreateCameraSession();
+  }
+
+  private void createCameraSession() {
+    sessionGeneration++;
+    sessionPending = true;
+    sessionHighSpeed = needsHighSpeedSession(tier);
+    if (sessionHighSpeed) {
+      createHighSpeedSession();
+      return;
+    }
+    // 添加两个输出源, 分别是用于预览的 previewSurface, 与用于编码的 encoderSurface
+    // encoder 会监听 encoderSurface, 零拷贝地从中取出视频流数据
+    // headless 或者没有有效的预览 Surface 时只添加 encoderSurface
+    List<Surface> outputs = new ArrayList<>();
+    boolean withPreview = !headless && previewSurface != null && previewSurface.isValid();
+    if (withPreview) {
+      outputs.add(previewSurface);
+    }
+    outputs.add(encoderSurface);
+    sessionHasPreview = withPreview;
+    // 主档位不高于 360p 时不需要低层
+    boolean withLow = simulcastEnabled && lowEncoderSurface != null
+        && tier.simulcastLow() != null;
+    if (withLow) {
+      outputs.add(lowEncoderSurface);
+    }
+    sessionHasLow = withLow;
+    boolean withAnalysis = motionGatingEnabled && motionDetector != null
+        && motionDetector.getSurface() != null;
+    if (withAnalysis) {
+      outputs.add(motionDetector.getSurface());
+    }
+    sessionHasAnalysis = withAnalysis;
+
+    try {
+      //  createCaptureSession(List<Surface> outputs,
+      //  CameraCaptureSession.StateCallback callback,
+      //  Handler handler)
+      cameraDevice.createCaptureSession(
+          outputs,
+          newSessionStateCallback(sessionGeneration),
+          cameraHandler
+      );
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "failed to create session");
+      sessionPending = false;
+    }
+  }
+
+  // constrained high-speed 会话最多两个同尺寸的输出, 这里只输出到编码器
+  private void createHighSpeedSession() {
+    sessionHasPreview = false;
+    sessionHasLow = false;
+    sessionHasAnalysis = false;
+    try {
+      cameraDevice.createConstrainedHighSpeedCaptureSession(
+          Collections.singletonList(encoderSurface),
+          newSessionStateCallback(sessionGeneration),
+          cameraHandler
+      );
+    } catch (CameraAccessException | IllegalArgumentException e) {
+      Log.e(TAG, "failed to create high-speed session", e);
+      sessionPending = false;
+    }
+  }
+
+  // 回调与 createCameraSession 在同一个相机线程, 用创建时的代数判断是否还是当前会话
+  private CameraCaptureSession.StateCallback newSessionStateCallback(int generation) {
+    return new CameraCaptureSession.StateCallback() {
+      @Override
+      public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+        if (generation != sessionGeneration) {
+          return;
+        }
+        sessionPending = false;
+        Log.e(TAG, "failed to configure capture session");
+        if (sessionHasLow) {
+          // 相机不支持同时输出到三个 Surface（预览 + 两个编码器）, 退回单路
+          Log.w(TAG, "disabling simulcast, retrying without the low layer");
+          simulcastEnabled = false;
+          updateTargetBitrate();
+          maybeCreateCameraSession();
+        } else if (sessionHasAnalysis) {
+          Log.w(TAG, "disabling motion gating, retrying without the analysis stream");
+          motionGatingEnabled = false;
+          applyMotionGating();
+          maybeCreateCameraSession();
+        } else if (sessionHighSpeed) {
+          Log.w(TAG, "disabling high frame rate, retrying with a regular session");
+          highFrameRate = 0;
+          tier = effectiveTier(requestedTier);
+          maybeCreateCameraSession();
+          updateTargetBitrate();
+        }
+      }
+
+      //  在 onConfigured 中保存 cameraCaptureSession，
+      //  配置自动对焦等参数并调用 setRepeatingRequest(...) 开始预览流。
+      @Override
+      public void onConfigured(@NonNull CameraCaptureSession session) {
+        if (generation != sessionGeneration) {
+          // 创建期间会话已经被关闭或重建, 这个会话没有人再用
+          session.close();
+          return;
+        }
+        sessionPending = false;
+        //  CameraCaptureSession 表示一个活跃的相机捕获会话，
+        //  负责管理从相机设备到多个输出 Surface（如 TextureView、ImageReader 等）的数据流，
+        //  并执行 CaptureRequest。
+        cameraCaptureSession = session;
+        streamStats.getStartupTracer().mark(StartupTracer.SESSION_CONFIGURED);
+        // 会话重建期间的空档不算丢帧
+        streamStats.getFrameRateMonitor().onDiscontinuity();
+        startRepeatingRequest();
+        // 复用编码器时, 相机重启后第一帧之前的参考帧已经失效, 立即请求关键帧
+        if (streaming) {
+          requestKeyFrames();
+        }
+      }
+    };
+  }
+
+  private void startRepeatingRequest() {
+    if (cameraCaptureSession == null || cameraDevice == null) {
+      return;
+    }
+    boolean withPreview = sessionHasPreview && previewEnabled && screenOn;
+    boolean burstIdle = streaming && sceneIdle && !sessionHighSpeed;
+    streamStats.getFrameRateMonitor().setExpectedFps(tier.fps,
+        burstIdle ? Math.min(IDLE_FPS, tier.fps) : tier.fps);
+    try {
+      if (sessionHighSpeed) {
+        startHighSpeedRequest();
+        return;
+      }
+      if (!withPreview && !streaming) {
+        // 待机且没有预览: 会话保持配置好但不出帧, 开始推流时只需要 setRepeatingRequest
+        cameraCaptureSession.stopRepeating();
+        return;
+      }
+      // CaptureRequest.Builder 用于构造一个捕获请求
+      // 高帧率时 TEMPLATE_RECORD 的 AE 会按目标帧率限制曝光时间, TEMPLATE_PREVIEW 可能降帧
+      int template = tier.fps > VideoEncoder.HIGH_FRAME_RATE_THRESHOLD
+          ? CameraDevice.TEMPLATE_RECORD : CameraDevice.TEMPLATE_PREVIEW;
+      CaptureRequest.Builder builder = cameraDevice.createCaptureRequest(template);
+      if (withPreview) {
+        builder.addTarget(previewSurface);
+      }
+      if (streaming) {
+        builder.addTarget(encoderSurface);
+        if (sessionHasLow) {
+          builder.addTarget(lowEncoderSurface);
+        }
+        if (sessionHasAnalysis) {
+          builder.addTarget(motionDetector.getSurface());
+        }
+      }
+
+      builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
+      builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
+      Range<Integer> fpsRange = chooseFpsRange(tier.fps);
+      if (fpsRange != null) {
+        builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+      }
+
+      if (burstIdle) {
+        // 画面静止: 用 burst 抽帧, 每 fps / IDLE_FPS 帧里只有第一帧送给编码器,
+        // 分析流与预览仍然按完整帧率出帧
+        List<CaptureRequest> burst = new ArrayList<>();
+        burst.add(builder.build());
+        builder.removeTarget(encoderSurface);
+        if (sessionHasLow) {
+          builder.removeTarget(lowEncoderSurface);
+        }
+        CaptureRequest skipped = builder.build();
+        for (int i = 1; i < Math.max(1, tier.fps / IDLE_FPS); i++) {
+          burst.add(skipped);
+        }
+        cameraCaptureSession.setRepeatingBurst(burst, captureCallback, cameraHandler);
+        return;
+      }
+      // 讲这个捕获请求发送到 session
+      cameraCaptureSession.setRepeatingRequest(builder.build(), captureCallback, cameraHandler);
+    } catch (CameraAccessException | IllegalArgumentException e) {
+      Log.e(TAG, "failed to start preview");
+    }
+  }
+
+  // constrained high-speed 会话只接受 createHighSpeedRequestList 生成的 burst,
+  // 每个请求都必须带上同一个 AE 帧率范围
+  private void startHighSpeedRequest() throws CameraAccessException {
+    if (!streaming) {
+      cameraCaptureSession.stopRepeating();
+      return;
+    }
+    CaptureRequest.Builder builder =
+        cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_RECORD);
+    builder.addTarget(encoderSurface);
+    Range<Integer> fpsRange = chooseHighSpeedFpsRange(new Size(tier.width, tier.height), tier.fps);
+    if (fpsRange != null) {
+      builder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE, fpsRange);
+    }
+    List<CaptureRequest> burst = ((CameraConstrainedHighSpeedCaptureSession) cameraCaptureSession)
+        .createHighSpeedRequestList(builder.build());
+    cameraCaptureSession.setRepeatingBurst(burst, captureCallback, cameraHandler);
+  }
+
+  // 优先选择上限等于目标帧率的固定范围 [fps, fps], 其次是上限等于目标帧率的范围
+  private Range<Integer> chooseFpsRange(int fps) {
+    if (availableFpsRanges == null) {
+      return null;
+    }
+    Range<Integer> best = null;
+    for (Range<Integer> range : availableFpsRanges) {
+      if (range.getUpper() != fps) continue;
+      if (best == null || range.getLower() > best.getLower()) {
+        best = range;
+      }
+    }
+    return best;
+  }
+
+  // 记录每一帧的 SENSOR_TIMESTAMP, 与编码器输出的 presentationTimeUs 匹配后得到镜头到网络的延迟
+  private final CameraCaptureSession.CaptureCallback captureCallback =
+      new CameraCaptureSession.CaptureCallback() {
+        @Override
+        public void onCaptureCompleted(@NonNull CameraCaptureSession session,
+                                       @NonNull CaptureRequest request,
+                                       @NonNull TotalCaptureResult result) {
+          Long sensorTimestamp = result.get(CaptureResult.SENSOR_TIMESTAMP);
+          if (sensorTimestamp != null) {
+            streamStats.getLatencyTracker().onFrameCaptured(sensorTimestamp);
+            streamStats.getFrameRateMonitor().onFrameCaptured(sensorTimestamp);
+          }
+        }
+
+        @Override
+        public void onCaptureFailed(@NonNull CameraCaptureSession session,
+                                    @NonNull CaptureRequest request,
+                                    @NonNull CaptureFailure failure) {
+          streamStats.getFrameRateMonitor().onCaptureFailed();
+        }
+
+        @Override
+        public void onCaptureBufferLost(@NonNull CameraCaptureSession session,
+                                        @NonNull CaptureRequest request,
+                                        @NonNull Surface target, long frameNumber) {
+          streamStats.getFrameRateMonitor().onCaptureFailed();
+        }
+      };
+
+  private void startCameraThread() {
+    // CameraThread 的三个组件 Thread, Handler, Looper
+    cameraThread = new HandlerThread("CameraThread");
+    cameraThread.start();
+    cameraHandler = new Handler(cameraThread.getLooper());
+  }
+
+  private void closeCaptureSession() {
+    // 还在创建中的会话回调到来时会被丢弃
+    sessionGeneration++;
+    sessionPending = false;
+    if (cameraCaptureSession != null) {
+      cameraCaptureSession.close();
+      cameraCaptureSession = null;
+    }
+  }
+
+  //  stopCamera() 负责停止重复请求、关闭 cameraCaptureSession、关闭 cameraDevice，并停止后台线程。
+  //  编码器与 rtpSession 不在这里释放, 这样旋转、切后台之后推流可以无缝继续。
+  public void stopCamera() {
+    Handler handler = cameraHandler;
+    if (handler != null) {
+      // 相机状态只在相机线程修改
+      handler.post(() -> {
+        closeCaptureSession();
+        if (cameraDevice != null) {
+          cameraDevice.close();
+          cameraDevice = null;
+        }
+        encoderSurface = null;
+        lowEncoderSurface = null;
+        // 第二个摄像头连同它的编码器一起关闭, 下次 start() 时按 multiCameraEnabled 重新打开
+        SecondaryCamera secondary = secondaryCamera;
+        if (secondary != null) {
+          secondaryCamera = null;
+          secondary.stop();
+        }
+      });
+    }
+
+    if (cameraThread != null) {
+      cameraThread.quitSafely();
+      try {
+        cameraThread.join();
+        cameraThread = null;
+        cameraHandler = null;
+      } catch (InterruptedException e) {
+        Log.e(TAG, "Interrupted while quitting camera thread", e);
+      }
+    }
+  }
+
+  // 释放整个管线: 编码器（包括 persistent input surface）与 rtpSession
+  public void release() {
+    qualityGovernor.stop();
+    uplinkMonitor.stop();
+    MotionDetector detector = motionDetector;
+    if (screenReceiverRegistered) {
+      context.unregisterReceiver(screenReceiver);
+      screenReceiverRegistered = false;
+    }
+    stopCamera();
+    if (detector != null) {
+      detector.stop();
+      motionDetector = null;
+    }
+    // 记下收敛后的带宽估计, 下次在同一个网络上启动时直接使用
+    String network = bandwidthCache.getCurrentNetworkKey();
+    if (network != null && bandwidthEstimate > 0) {
+      bandwidthCache.put(network, bandwidthEstimate);
+    }
+    startupExecutor.shutdown();
+    videoEncoder.release();
+    lowEncoder.release();
+    SpoolUploader uploader = spoolUploader;
+    if (uploader != null) {
+      uploader.stop();
+    }
+    VideoSpool s = spool;
+    if (s != null) {
+      s.close();
+    }
+    rtpSession.stop();
+  }
+}
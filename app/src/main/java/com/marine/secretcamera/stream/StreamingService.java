@@ -0,0 +1,293 @@
+package com.marine.secretcamera.stream;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.ForegroundServiceStartNotAllowedException;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import androidx.annotation.Nullable;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.marine.secretcamera.R;
+import com.marine.secretcamera.device.DeviceInfo;
+import com.marine.secretcamera.device.DeviceManager;
+import com.marine.secretcamera.net.SignalingClient;
+import com.marine.secretcamera.pojo.WebSocketEnvelop;
+
+// 推流前台服务, 持有 采集 -> 编码 -> RTP 的整条管线, 生命周期与界面解耦。
+//  ACTION_STANDBY: 进入热待机, 摄像头、编码器、socket 都准备好但不推流
+//  ACTION_START_STREAMING: 开始推流, 从热待机切换只需要更新重复请求
+//  ACTION_STOP_STREAMING: 回到热待机
+//  ACTION_SHUTDOWN: 释放管线并停止服务
+// 推流请求（push_request）由服务自己在信令连接上接收, 页面不在时热待机也能直接开始推流;
+// 页面通过 bindService 拿到 StreamPipeline, 只负责提供预览 Surface 和发出控制指令。
+public class StreamingService extends Service {
+  private static final String TAG = "StreamingService";
+
+  public static final String ACTION_STANDBY = "com.marine.secretcamera.action.STANDBY";
+  public static final String ACTION_START_STREAMING =
+      "com.marine.secretcamera.action.START_STREAMING";
+  public static final String ACTION_STOP_STREAMING =
+      "com.marine.secretcamera.action.STOP_STREAMING";
+  public static final String ACTION_SHUTDOWN = "com.marine.secretcamera.action.SHUTDOWN";
+  private static final String CHANNEL_ID = "streaming";
+  private static final int NOTIFICATION_ID = 1;
+
+  private final IBinder binder = new LocalBinder();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private StreamPipeline pipeline;
+  // ACTION_SHUTDOWN 之后管线已经释放; 页面还绑定着时服务不会销毁, 下一条指令重新创建管线
+  private boolean released;
+
+  public class LocalBinder extends Binder {
+    public StreamingService getService() {
+      return StreamingService.this;
+    }
+  }
+
+  // 向服务发送控制指令; 没有相机权限时前台服务无法以 camera 类型启动, 直接忽略
+  public static boolean sendAction(Context context, String action) {
+    return send(context, new Intent(context, StreamingService.class).setAction(action));
+  }
+
+  private static boolean send(Context context, Intent intent) {
+    if (ContextCompat.checkSelfPermission(context, Manifest.permission.CAMERA)
+        != PackageManager.PERMISSION_GRANTED) {
+      Log.w(TAG, "camera permission not granted, ignoring " + intent.getAction());
+      return false;
+    }
+    try {
+      ContextCompat.startForegroundService(context, intent);
+      return true;
+    } catch (IllegalStateException e) {
+      if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S
+          && e instanceof ForegroundServiceStartNotAllowedException) {
+        Log.w(TAG, "not allowed to start foreground service from background, ignoring "
+            + intent.getAction(), e);
+        return false;
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    pipeline = new StreamPipeline(this);
+    // 信令连接是进程共用的; 服务被系统重启时没有页面去连接, 这里也连一次（已连接时只更新上线信息）
+    SignalingClient client = SignalingClient.getInstance();
+    client.registerHandler(SignalingClient.TYPE_PUSH_REQUEST,
+        WebSocketEnvelop.PushRequestData.class, pushRequestHandler);
+    client.connect(getString(R.string.signaling_url),
+        DeviceManager.getInstace(this).getDeviceInfo());
+  }
+
+  @Override
+  public int onStartCommand(Intent intent, int flags, int startId) {
+    String action = intent != null ? intent.getAction() : ACTION_STANDBY;
+    if (ACTION_SHUTDOWN.equals(action)) {
+      // 页面绑定着服务时 stopSelf 不会触发 onDestroy, 这里先释放摄像头、编码器与 socket
+      releasePipeline();
+      stopForeground(true);
+      stopSelf();
+      return START_NOT_STICKY;
+    }
+
+    if (released) {
+      pipeline = new StreamPipeline(this);
+      released = false;
+    }
+    startForegroundWithNotification();
+    // start() 是幂等的, 已经在运行时不会重复创建
+    pipeline.start();
+    if (ACTION_START_STREAMING.equals(action)) {
+      pipeline.startStreaming();
+    } else if (ACTION_STOP_STREAMING.equals(action)) {
+      pipeline.stopStreaming();
+    }
+    updateNotification();
+    // 被系统杀掉后重启时 intent 为 null, 回到热待机
+    return START_STICKY;
+  }
+
+  // 在信令连接的读线程中回调, 切到主线程处理, 与 onStartCommand 在同一个线程
+  private final SignalingClient.MessageHandler<WebSocketEnvelop.PushRequestData>
+      pushRequestHandler = data -> {
+        if (data != null) {
+          mainHandler.post(() -> handlePushRequest(data));
+        }
+      };
+
+  private void handlePushRequest(WebSocketEnvelop.PushRequestData data) {
+    DeviceInfo me = DeviceManager.getInstace(this).getDeviceInfo();
+    if (!me.deviceId.equals(data.getTargetDeviceId())) {
+      return;
+    }
+    Long expireAt = data.getExpireAt();
+    if (expireAt == null || System.currentTimeMillis() > expireAt) {
+      Log.w(TAG, "received expired push request from " + data.getFromDeviceId());
+      return;
+    }
+    // 明文信令上收到的密钥已经暴露, 不能再用来保护媒体
+    if (data.getSrtpKey() != null && !SignalingClient.getInstance().isSecure()) {
+      Log.w(TAG, "refusing SRTP key received over unencrypted signaling from "
+          + data.getFromDeviceId());
+      showToast("信令连接未加密, 已拒绝带 SRTP 密钥的推流请求");
+      replyToPushRequest(data, me, WebSocketEnvelop.PushResponseData.REASON_INSECURE_SIGNALING);
+      return;
+    }
+    // ACTION_SHUTDOWN 之后服务已经不在前台, 不能在后台重新打开摄像头
+    if (released) {
+      Log.w(TAG, "service shut down, ignoring push request from " + data.getFromDeviceId());
+      replyToPushRequest(data, me, WebSocketEnvelop.PushResponseData.REASON_SERVICE_UNAVAILABLE);
+      return;
+    }
+    // 请求没有带 SRTP 参数时（都为 null）发送明文 RTP
+    if (!pipeline.setSrtpKey(data.getSrtpSuite(), data.getSrtpKey())) {
+      Log.w(TAG, "refusing to stream with an invalid SRTP key");
+      replyToPushRequest(data, me, WebSocketEnvelop.PushResponseData.REASON_INVALID_KEY);
+      return;
+    }
+    // 与 SRTP 参数一样在开始推流之前生效, 第一个包就带上协商好的扩展
+    if (data.getRtpExtensions() != null && !pipeline.setRtpExtensions(data.getRtpExtensions())) {
+      replyToPushRequest(data, me, WebSocketEnvelop.PushResponseData.REASON_INVALID_EXTENSIONS);
+      return;
+    }
+    // todo: 这里可以弹一个对话框，询问用户是否接受推流请求
+    applyOptions(data);
+    pipeline.start();
+    pipeline.startStreaming();
+    updateNotification();
+    replyToPushRequest(data, me, null);
+    showToast("收到来自设备 " + data.getFromDeviceId() + " 的推流请求");
+  }
+
+  // 推流请求中的可选项, 为 null 的保持当前设置; 在 start() 之前应用时首次启动直接按这些选项打开
+  private void applyOptions(WebSocketEnvelop.PushRequestData data) {
+    if (data.getSimulcast() != null) {
+      pipeline.setSimulcastEnabled(data.getSimulcast());
+    }
+    if (data.getMotionGating() != null) {
+      pipeline.setMotionGatingEnabled(data.getMotionGating());
+    }
+    if (data.getMultiCamera() != null) {
+      pipeline.setMultiCameraEnabled(data.getMultiCamera());
+    }
+    Integer fps = data.getHighFrameRate();
+    if (fps != null) {
+      if (fps == 0 || fps == 60 || fps == 120) {
+        pipeline.setHighFrameRate(fps);
+      } else {
+        Log.w(TAG, "ignoring unsupported high frame rate " + fps);
+      }
+    }
+    if (data.getHeadless() != null) {
+      pipeline.setHeadless(data.getHeadless());
+    }
+  }
+
+  // 告诉请求方是否开始推流; reason 为 null 表示接受。
+  // 信令断开时回复先进入离线队列, 重新连上后发出
+  private static void replyToPushRequest(WebSocketEnvelop.PushRequestData request, DeviceInfo me,
+                                         String reason) {
+    WebSocketEnvelop.PushResponseData response = new WebSocketEnvelop.PushResponseData();
+    response.setTargetDeviceId(request.getFromDeviceId());
+    response.setFromDeviceId(me.deviceId);
+    response.setAccepted(reason == null);
+    response.setReason(reason);
+    SignalingClient.getInstance().send(SignalingClient.TYPE_PUSH_RESPONSE, response);
+  }
+
+  private void showToast(String text) {
+    Toast.makeText(this, text, Toast.LENGTH_LONG).show();
+  }
+
+  @Nullable
+  @Override
+  public IBinder onBind(Intent intent) {
+    return binder;
+  }
+
+  @Override
+  public void onDestroy() {
+    super.onDestroy();
+    mainHandler.removeCallbacksAndMessages(null);
+    SignalingClient.getInstance()
+        .unregisterHandler(SignalingClient.TYPE_PUSH_REQUEST, pushRequestHandler);
+    releasePipeline();
+  }
+
+  private void releasePipeline() {
+    if (released) {
+      return;
+    }
+    pipeline.stopStreaming();
+    pipeline.release();
+    released = true;
+  }
+
+  // 关闭之后再启动会换成新的管线, 页面每次使用时都从这里取, 不要长期持有
+  public StreamPipeline getPipeline() {
+    return pipeline;
+  }
+
+  private void startForegroundWithNotification() {
+    Notification notification = buildNotification();
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      startForeground(NOTIFICATION_ID, notification,
+          ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA);
+    } else {
+      startForeground(NOTIFICATION_ID, notification);
+    }
+  }
+
+  private void updateNotification() {
+    NotificationManager manager = getSystemService(NotificationManager.class);
+    if (manager != null) {
+      manager.notify(NOTIFICATION_ID, buildNotification());
+    }
+  }
+
+  private Notification buildNotification() {
+    createChannel();
+    Intent shutdown = new Intent(this, StreamingService.class).setAction(ACTION_SHUTDOWN);
+    PendingIntent shutdownIntent = PendingIntent.getService(
+        this, 0, shutdown, PendingIntent.FLAG_IMMUTABLE | PendingIntent.FLAG_UPDATE_CURRENT);
+    return new NotificationCompat.Builder(this, CHANNEL_ID)
+        .setSmallIcon(R.drawable.ic_launcher_foreground)
+        .setContentTitle(getString(R.string.app_name))
+        .setContentText(pipeline != null && pipeline.isStreaming() ? "正在推流" : "待机中")
+        .setOngoing(true)
+        .setPriority(NotificationCompat.PRIORITY_LOW)
+        .addAction(0, "停止", shutdownIntent)
+        .build();
+  }
+
+  private void createChannel() {
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+      return;
+    }
+    NotificationManager manager = getSystemService(NotificationManager.class);
+    if (manager == null || manager.getNotificationChannel(CHANNEL_ID) != null) {
+      return;
+    }
+    NotificationChannel channel = new NotificationChannel(
+        CHANNEL_ID, "推流", NotificationManager.IMPORTANCE_LOW);
+    manager.createNotificationChannel(channel);
+  }
+}
@@ -0,0 +1,77 @@
+package com.marine.secretcamera.stream;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+// 监听系统默认网络, 没有可用网络时通知管线进入暂存（spool）模式。
+// 回调在 ConnectivityManager 的线程中执行。
+public class UplinkMonitor {
+  private static final String TAG = "UplinkMonitor";
+
+  public interface OnUplinkChangedListener {
+    void onUplinkChanged(boolean available);
+  }
+
+  private final ConnectivityManager connectivityManager;
+  private final OnUplinkChangedListener listener;
+  private boolean registered;
+  private volatile boolean available = true;
+
+  public UplinkMonitor(Context context, OnUplinkChangedListener listener) {
+    this.connectivityManager =
+        (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    this.listener = listener;
+  }
+
+  public void start() {
+    if (registered || connectivityManager == null) {
+      return;
+    }
+    // 注册时如果已经有默认网络会立即回调 onAvailable
+    available = connectivityManager.getActiveNetwork() != null;
+    connectivityManager.registerDefaultNetworkCallback(callback);
+    registered = true;
+    if (!available) {
+      listener.onUplinkChanged(false);
+    }
+  }
+
+  public void stop() {
+    if (!registered) {
+      return;
+    }
+    connectivityManager.unregisterNetworkCallback(callback);
+    registered = false;
+  }
+
+  public boolean isAvailable() {
+    return available;
+  }
+
+  private void update(boolean nowAvailable) {
+    if (available == nowAvailable) {
+      return;
+    }
+    available = nowAvailable;
+    Log.i(TAG, "uplink " + (nowAvailable ? "available" : "lost"));
+    listener.onUplinkChanged(nowAvailable);
+  }
+
+  private final ConnectivityManager.NetworkCallback callback =
+      new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(@NonNull Network network) {
+          update(true);
+        }
+
+        @Override
+        public void onLost(@NonNull Network network) {
+          // 默认网络切换（Wi-Fi -> 移动网络）时新网络的 onAvailable 会紧接着到来
+          update(false);
+        }
+      };
+}
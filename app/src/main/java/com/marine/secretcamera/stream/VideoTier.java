@@ -0,0 +1,67 @@
+package com.marine.secretcamera.stream;
+
+// 推流的分辨率 / 帧率 / 码率档位。
+// 码率控制器在持续拥塞时可以降到更低的档位, 而不是在 1080p 下把每一帧的码率饿死。
+public class VideoTier {
+  public static final VideoTier HD_1080P_30 = new VideoTier(1920, 1080, 30, 2_000_000);
+  public static final VideoTier HD_1080P_30_REDUCED = new VideoTier(1920, 1080, 30, 1_300_000);
+  public static final VideoTier HD_1080P_15 = new VideoTier(1920, 1080, 15, 1_000_000);
+  public static final VideoTier HD_720P_30 = new VideoTier(1280, 720, 30, 1_200_000);
+  public static final VideoTier HD_720P_15 = new VideoTier(1280, 720, 15, 700_000);
+  public static final VideoTier SD_360P_15 = new VideoTier(640, 360, 15, 300_000);
+
+  // simulcast 低分辨率层, 帧率跟随主档位（同一个 capture session 出帧）
+  public static final int SIMULCAST_LOW_WIDTH = 640;
+  public static final int SIMULCAST_LOW_HEIGHT = 360;
+  public static final int SIMULCAST_LOW_BITRATE = 400_000;
+
+  // 温控降档的顺序, 从高到低: 先降码率, 再降帧率, 最后才降分辨率
+  public static final VideoTier[] LADDER =
+      {HD_1080P_30, HD_1080P_30_REDUCED, HD_1080P_15, HD_720P_15, SD_360P_15};
+  // 按编码负载（像素率）从高到低, 按编码器能力选择档位时使用
+  public static final VideoTier[] BY_PIXEL_RATE = {HD_1080P_30, HD_720P_30, HD_720P_15, SD_360P_15};
+
+  public final int width;
+  public final int height;
+  public final int fps;
+  public final int bitrate;
+
+  public VideoTier(int width, int height, int fps, int bitrate) {
+    this.width = width;
+    this.height = height;
+    this.fps = fps;
+    this.bitrate = bitrate;
+  }
+
+  // 与主档位配套的 simulcast 低层; 主档位本身不高于低层分辨率时返回 null
+  public VideoTier simulcastLow() {
+    if (width <= SIMULCAST_LOW_WIDTH || height <= SIMULCAST_LOW_HEIGHT) {
+      return null;
+    }
+    return new VideoTier(SIMULCAST_LOW_WIDTH, SIMULCAST_LOW_HEIGHT, fps,
+        Math.min(SIMULCAST_LOW_BITRATE, bitrate / 2));
+  }
+
+  public boolean sameSize(VideoTier other) {
+    return other != null && width == other.width && height == other.height;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (!(o instanceof VideoTier)) return false;
+    VideoTier that = (VideoTier) o;
+    return width == that.width && height == that.height
+        && fps == that.fps && bitrate == that.bitrate;
+  }
+
+  @Override
+  public int hashCode() {
+    return ((width * 31 + height) * 31 + fps) * 31 + bitrate;
+  }
+
+  @Override
+  public String toString() {
+    return width + "x" + height + "@" + fps + " " + bitrate / 1000 + "kbps";
+  }
+}
@@ -1,20 +1,17 @@
 package com.marine.secretcamera.ui.camera;
 
 import android.Manifest;
+import android.content.ComponentName;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
-import android.hardware.camera2.CameraAccessException;
-import android.hardware.camera2.CameraCaptureSession;
-import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraDevice;
-import android.hardware.camera2.CameraManager;
-import android.hardware.camera2.CaptureRequest;
+import android.hardware.display.DisplayManager;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.HandlerThread;
-import android.util.Log;
+import android.os.IBinder;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
+import android.widget.Toast;
 
 import androidx.activity.EdgeToEdge;
 import androidx.activity.result.ActivityResultLauncher;
@@ -27,25 +24,72 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.marine.secretcamera.R;
-import com.marine.secretcamera.encoder.VideoEncoder;
-import com.marine.secretcamera.rtp.RtpSession;
-
-import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import com.marine.secretcamera.stats.StreamStats;
+import com.marine.secretcamera.stream.StreamPipeline;
+import com.marine.secretcamera.stream.StreamingService;
 
 public class CameraActivity extends AppCompatActivity {
   private SurfaceView surfaceView;
-  private CameraDevice cameraDevice;
-  private CameraCaptureSession cameraCaptureSession;
-  private String cameraId;
-  private CameraManager cameraManager;
-  private HandlerThread cameraThread;
-  private Handler cameraHandler;
+  // 采集 -> 编码 -> RTP 推流的管线由 StreamingService 持有, 页面只负责权限与预览 Surface;
+  // 服务关闭后再启动会换成新的管线, 所以只持有服务, 每次通过 getStreamPipeline 取管线
+  private StreamingService streamingService;
   private Surface previewSurface;
-  private Surface encoderSurface;
-  private RtpSession rtpSession;
-  private VideoEncoder videoEncoder;
+  private boolean bound;
+
+  private final ServiceConnection serviceConnection = new ServiceConnection() {
+    @Override
+    public void onServiceConnected(ComponentName name, IBinder service) {
+      streamingService = ((StreamingService.LocalBinder) service).getService();
+      StreamPipeline streamPipeline = streamingService.getPipeline();
+      updateDeviceRotation();
+      if (previewSurface != null && previewSurface.isValid()) {
+        streamPipeline.setPreviewSurface(previewSurface, previewListener);
+      }
+    }
+
+    @Override
+    public void onServiceDisconnected(ComponentName name) {
+      streamingService = null;
+    }
+  };
+
+  // 清单中声明了 configChanges, 旋转屏幕时页面不会重建, 预览 Surface 与推流都不中断;
+  // 90° 与 270° 之间的翻转不会产生配置变化, 所以监听的是显示器而不是 onConfigurationChanged
+  private final DisplayManager.DisplayListener displayListener =
+      new DisplayManager.DisplayListener() {
+        @Override
+        public void onDisplayAdded(int displayId) {
+        }
+
+        @Override
+        public void onDisplayRemoved(int displayId) {
+        }
+
+        @Override
+        public void onDisplayChanged(int displayId) {
+          updateDeviceRotation();
+        }
+      };
+
+  // 画面不做旋转, 通过 RTP 视频方向扩展告诉接收端当前的屏幕方向
+  private void updateDeviceRotation() {
+    StreamPipeline streamPipeline = getStreamPipeline();
+    if (streamPipeline != null) {
+      streamPipeline.setDeviceRotation(
+          getWindowManager().getDefaultDisplay().getRotation() * 90);
+    }
+  }
+
+  // 在相机线程中回调; 无预览模式下页面是黑的, 提示用户推流仍在进行
+  private final StreamPipeline.OnPreviewSurfaceListener previewListener = (surface, attached) -> {
+    if (surface != null && !attached) {
+      runOnUiThread(() -> {
+        if (!isFinishing()) {
+          Toast.makeText(this, "无预览模式, 画面只推流不显示", Toast.LENGTH_SHORT).show();
+        }
+      });
+    }
+  };
 
   // requestPermissions(String[] permissions, int requestCode)
   //requestPermissions(new String[]{Manifest.permission.CAMERA}, 1);
@@ -59,10 +103,7 @@ public class CameraActivity extends AppCompatActivity {
             if (!isGranted) {
               finish();
             } else {
-              Surface surface = surfaceView.getHolder().getSurface();
-              if(surface != null && surface.isValid()) {
-                startCamera(cameraId);
-              }
+              StreamingService.sendAction(this, StreamingService.ACTION_START_STREAMING);
             }
           }
       );
@@ -70,7 +111,13 @@ public class CameraActivity extends AppCompatActivity {
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    closeCamera();
+    getSystemService(DisplayManager.class).unregisterDisplayListener(displayListener);
+    // 页面销毁后推流继续在前台服务中运行
+    if (bound) {
+      unbindService(serviceConnection);
+      bound = false;
+    }
+    streamingService = null;
   }
 
   @Override
@@ -92,11 +139,13 @@ public class CameraActivity extends AppCompatActivity {
       // 如果没有相机权限, 请求
       // todo 在这里请求到相机权限之后, 屏幕黑屏
       cameraPermissionLauncher.launch(Manifest.permission.CAMERA);
+    } else {
+      StreamingService.sendAction(this, StreamingService.ACTION_START_STREAMING);
     }
-    rtpSession = new RtpSession();
+    bound = bindService(new Intent(this, StreamingService.class),
+        serviceConnection, BIND_AUTO_CREATE);
+    getSystemService(DisplayManager.class).registerDisplayListener(displayListener, null);
 
-    videoEncoder = new VideoEncoder(rtpSession);
-    // videoEncoder.setRtpSession(rtpSession);
     surfaceView = findViewById(R.id.surfaceView);
     SurfaceHolder holder = surfaceView.getHolder();
     holder.addCallback(surfaceCallback);
@@ -107,207 +156,34 @@ public class CameraActivity extends AppCompatActivity {
     public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
     }
 
-    // 在 surface 创建完成的回调中做两件事:
-    // 开启 rtpSession
-    // 开启摄像头
+    // 在 surface 创建完成的回调中把预览 Surface 交给推流管线
     @Override
     public void surfaceCreated(@NonNull SurfaceHolder holder) {
-      startCameraThread();
-      setCameraId();
       holder.setFixedSize(1920,  1080);
-      try {
-        rtpSession.start("192.168.191.128", 5000, 30);
-//        rtpSession.start("47.108.73.56", 5000, 30);
-      } catch (Exception e) {
-        Log.e("CameraActivity", "failed to start rtp session");
-        throw new RuntimeException(e);
-      }
-      // 永远只应该在surfaceCreated()中进入startCamera();
-      // 永远应该在进入startCamera()之前检查权限
-      if (ContextCompat.checkSelfPermission(CameraActivity.this,
-          Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
-        startCamera(cameraId);
+      previewSurface = holder.getSurface();
+      StreamPipeline streamPipeline = getStreamPipeline();
+      if (streamPipeline != null) {
+        streamPipeline.setPreviewSurface(previewSurface, previewListener);
       }
     }
 
+    // 页面切到后台时不停止推流, 只切换到无预览模式
     @Override
     public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
-      closeCamera();
-    }
-  };
-
-  private void setCameraId() {
-    try {
-      cameraManager = (CameraManager) getSystemService(CAMERA_SERVICE);
-      for (String id : cameraManager.getCameraIdList()) {
-        CameraCharacteristics cameraCharacteristics = cameraManager.getCameraCharacteristics(id);
-        Integer facing = cameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-        if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
-          cameraId = id;
-          break;
-        }
+      previewSurface = null;
+      StreamPipeline streamPipeline = getStreamPipeline();
+      if (streamPipeline != null) {
+        streamPipeline.setPreviewSurface(null, null);
       }
-    } catch (Exception e) {
-      Log.e("CameraActivity", "Error getting camera ID", e);
-    }
-  }
-
-  private void startCamera(String cameraId) {
-    if (cameraManager == null) {
-      return;
-    }
-    if (cameraHandler == null) {
-      return;
-    }
-    if (cameraDevice != null) {
-      return;
-    }
-    //  检查并确保已经有 CAMERA 权限；没有则发起请求并返回。
-    if (ContextCompat.checkSelfPermission(CameraActivity.this,
-        Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-      return;
-    }
-
-    //  调用 cameraManager.openCamera(...) 并传入 cameraHandler。
-    try {
-      cameraManager.openCamera(cameraId, cameraStateCallback, cameraHandler);
-    } catch (CameraAccessException e) {
-      Log.e("CameraActivity", "Error opening camera", e);
     }
-  }
-
-
-  private final CameraDevice.StateCallback cameraStateCallback =
-      new CameraDevice.StateCallback() {
-        //  在 CameraDevice.StateCallback.onOpened 中保存 cameraDevice，
-        //  创建 CaptureRequest.Builder（TEMPLATE_PREVIEW），将预览 Surface 加入目标。
-        @Override
-        public void onOpened(@NonNull CameraDevice camera) {
-          cameraDevice = camera;
-
-          try{
-            encoderSurface = videoEncoder.prepare(
-                1920,
-                1080,
-                30,
-                2000000);
-          }catch (IOException e) {
-            Log.e("CameraActivity", "init encoder failed");
-            return;
-          }
-
-          createCameraSession();
-        }
-
-        //  在 onDisconnected / onError 中关闭并释放 cameraDevice。
-        @Override
-        public void onDisconnected(@NonNull CameraDevice camera) {
-          cameraDevice.close();
-          cameraDevice = null;
-        }
-
-        @Override
-        public void onError(@NonNull CameraDevice camera, int error) {
-          Log.e("CameraActivity", "Error when opening camera");
-          camera.close();
-          cameraDevice = null;
-        }
-      };
-
-  private void createCameraSession() {
-    //  获取用于预览的 Surface（从 SurfaceView 的 SurfaceHolder）。
-    previewSurface = surfaceView.getHolder().getSurface();
-    if (previewSurface == null) {
-      return;
-    }
-    // 添加两个输出源, 分别是用于预览的 previewSurface, 与用于编码的 encoderSurface
-    // encoder 会监听 encoderSurface, 零拷贝地从中取出视频流数据
-    List<Surface> outputs = new ArrayList<>();
-    outputs.add(previewSurface);
-    outputs.add(encoderSurface);
-
-    try {
-      //  createCaptureSession(List<Surface> outputs,
-      //  CameraCaptureSession.StateCallback callback,
-      //  Handler handler)
-      cameraDevice.createCaptureSession(
-          outputs,
-          sessionStateCallback,
-          cameraHandler
-      );
-    } catch (CameraAccessException e) {
-      Log.e("CameraActivity", "failed to create session");
-    }
-  }
-
-  private final CameraCaptureSession.StateCallback sessionStateCallback =
-      new CameraCaptureSession.StateCallback() {
-        @Override
-        public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-        }
-
-        //  调用 cameraDevice.createCaptureSession(...)，
-        //  在 onConfigured 中保存 cameraCaptureSession，
-        //  配置自动对焦等参数并调用 setRepeatingRequest(...) 开始预览流。
-        @Override
-        public void onConfigured(@NonNull CameraCaptureSession session) {
-          //  CameraCaptureSession 表示一个活跃的相机捕获会话，
-          //  负责管理从相机设备到多个输出 Surface（如 TextureView、ImageReader 等）的数据流，
-          //  并执行 CaptureRequest。
-          cameraCaptureSession = session;
-          try {
-            // CaptureRequest.Builder 用于构造一个捕获请求
-            CaptureRequest.Builder builder =
-                cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            builder.addTarget(previewSurface);
-            builder.addTarget(encoderSurface);
-
-            builder.set(CaptureRequest.CONTROL_AE_MODE, CaptureRequest.CONTROL_AE_MODE_ON);
-            builder.set(CaptureRequest.CONTROL_AWB_MODE, CaptureRequest.CONTROL_AWB_MODE_AUTO);
-
-            // 讲这个捕获请求发送到 session
-            cameraCaptureSession.setRepeatingRequest(builder.build(), null, cameraHandler);
-          } catch (CameraAccessException e) {
-            Log.e("CameraActivity", "failed to start preview");
-          }
-        }
-      };
+  };
 
-  private void startCameraThread() {
-    // CameraThread 的三个组件 Thread, Handler, Looper
-    cameraThread = new HandlerThread("CameraThread");
-    cameraThread.start();
-    cameraHandler = new Handler(cameraThread.getLooper());
+  public StreamPipeline getStreamPipeline() {
+    return streamingService != null ? streamingService.getPipeline() : null;
   }
 
-  //  closeCamera() 负责停止重复请求、关闭 cameraCaptureSession、关闭 cameraDevice，并停止后台线程。
-  private void closeCamera() {
-    if (cameraCaptureSession != null) {
-      cameraCaptureSession.close();
-      cameraCaptureSession = null;
-    }
-
-    if (cameraDevice != null) {
-      cameraDevice.close();
-      cameraDevice = null;
-    }
-
-    if (cameraThread != null) {
-      cameraThread.quitSafely();
-      try {
-        cameraThread.join();
-        cameraThread = null;
-        cameraHandler = null;
-      } catch (InterruptedException e) {
-        Log.e("CameraActivity", "Interrupted while quitting camera thread", e);
-      }
-    }
-    if(videoEncoder != null) {
-      videoEncoder.stop();
-      videoEncoder = null;
-    }
-    if (rtpSession != null) {
-      rtpSession.stop();
-    }
+  public StreamStats getStreamStats() {
+    StreamPipeline streamPipeline = getStreamPipeline();
+    return streamPipeline != null ? streamPipeline.getStats() : null;
   }
-}
\ No newline at end of file
+}
@@ -6,19 +6,47 @@ import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.marine.secretcamera.R;
 import com.marine.secretcamera.device.DeviceInfo;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 
+// 设备列表。submitList 后在后台线程用 DiffUtil 计算差异, 只刷新变化的行;
+// 每个 deviceId 对应一个固定的 item id, 上下线时其余行不会重新绑定。
 public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.ViewHolder> {
 
-  private final List<DeviceInfo> devices;
+  private static final DiffUtil.ItemCallback<DeviceInfo> DIFF_CALLBACK =
+      new DiffUtil.ItemCallback<DeviceInfo>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull DeviceInfo oldItem, @NonNull DeviceInfo newItem) {
+          return Objects.equals(oldItem.deviceId, newItem.deviceId);
+        }
 
-  public DeviceAdapter(List<DeviceInfo> devices) {
-    this.devices = devices;
+        @Override
+        public boolean areContentsTheSame(@NonNull DeviceInfo oldItem,
+                                          @NonNull DeviceInfo newItem) {
+          return Objects.equals(oldItem.deviceName, newItem.deviceName);
+        }
+      };
+
+  private final AsyncListDiffer<DeviceInfo> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+  // deviceId -> stable id, 只增不减, 设备离线再上线时沿用原来的 id
+  private final Map<String, Long> stableIds = new HashMap<>();
+
+  public DeviceAdapter() {
+    setHasStableIds(true);
+  }
+
+  // 只在主线程调用; list 提交之后不能再修改
+  public void submitList(List<DeviceInfo> devices) {
+    differ.submitList(devices);
   }
 
   @NonNull
@@ -31,13 +59,24 @@ public class DeviceAdapter extends RecyclerView.Adapter<DeviceAdapter.ViewHolder
 
   @Override
   public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
-    DeviceInfo device = devices.get(position);
+    DeviceInfo device = differ.getCurrentList().get(position);
     holder.tvDeviceName.setText(device.deviceName != null ? device.deviceName : device.deviceId);
   }
 
   @Override
   public int getItemCount() {
-    return devices.size();
+    return differ.getCurrentList().size();
+  }
+
+  @Override
+  public long getItemId(int position) {
+    String deviceId = differ.getCurrentList().get(position).deviceId;
+    Long id = stableIds.get(deviceId);
+    if (id == null) {
+      id = (long) stableIds.size();
+      stableIds.put(deviceId, id);
+    }
+    return id;
   }
 
   public static class ViewHolder extends RecyclerView.ViewHolder {
@@ -8,46 +8,31 @@ import android.util.Log;
 import android.widget.Button;
 import android.widget.Toast;
 
-import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import androidx.swiperefreshlayout.widget.SwipeRefreshLayout;
 
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 import com.marine.secretcamera.R;
 import com.marine.secretcamera.device.DeviceInfo;
 import com.marine.secretcamera.device.DeviceManager;
-import com.marine.secretcamera.net.OkHttpManager;
-import com.marine.secretcamera.pojo.WebSocketEnvelop;
+import com.marine.secretcamera.device.DevicePresenceModel;
+import com.marine.secretcamera.net.DeviceListFetcher;
+import com.marine.secretcamera.net.SignalingClient;
+import com.marine.secretcamera.pojo.PresenceEvent;
+import com.marine.secretcamera.stream.StreamingService;
 import com.marine.secretcamera.ui.camera.CameraActivity;
 
-import java.io.IOException;
-import java.lang.reflect.Type;
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-
-import okhttp3.Call;
-import okhttp3.Callback;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
-import okhttp3.WebSocket;
-import okhttp3.WebSocketListener;
-import okio.ByteString;
 
 public class DeviceListActivity extends AppCompatActivity {
   private final Handler mainHandler = new Handler(Looper.getMainLooper());
-  private static final String WS_URL = "ws://47.108.73.56:8080/ws";
-  private WebSocket websocket;
-  private final ArrayList<DeviceInfo> deviceInfos = new ArrayList<>();
+  private final DevicePresenceModel presenceModel = new DevicePresenceModel();
+  // 一批增量事件只提交一次列表
+  private boolean submitPending;
   private DeviceAdapter deviceAdapter;
   private SwipeRefreshLayout swipeRefreshLayout;
-  private final Gson gson = new Gson();
+  private DeviceListFetcher deviceListFetcher;
 
   // private OkHttpClient client;
 
@@ -67,13 +52,17 @@ public class DeviceListActivity extends AppCompatActivity {
     recyclerView.setLayoutManager(new LinearLayoutManager(this));
 
     // 初始化 adapter，先使用空数据
-    deviceAdapter = new DeviceAdapter(deviceInfos);
+    deviceAdapter = new DeviceAdapter();
     recyclerView.setAdapter(deviceAdapter);
 
+    deviceListFetcher = new DeviceListFetcher(this, fetchListener);
     swipeRefreshLayout.setOnRefreshListener(this::fetchDeviceInfos);
 
     // 上线
-    connectWebSocket();
+    connectSignaling();
+
+    // 推流服务进入热待机, 由服务接收推流请求并立即开始推流
+    StreamingService.sendAction(this, StreamingService.ACTION_STANDBY);
 
     Button btnStartPush = findViewById(R.id.btnStartPush);
     btnStartPush.setOnClickListener(v -> {
@@ -86,130 +75,81 @@ public class DeviceListActivity extends AppCompatActivity {
     fetchDeviceInfos();
   }
 
-  private void connectWebSocket() {
-    DeviceInfo me  = DeviceManager.getInstace(this).getDeviceInfo();
-    Request request = new Request.Builder().url(WS_URL).build();
-    websocket = OkHttpManager.getInstance().newWebSocket(request, new WebSocketListener() {
-      @Override
-      public void onOpen(@NonNull WebSocket webSocket, @NonNull Response response) {
-        Map<String, Object> map = new HashMap<>();
-        map.put("type", "goOnline");
-        map.put("data", me);
-        websocket.send(gson.toJson(map));
-      }
-
-      @Override
-      public void onMessage(@NonNull WebSocket webSocket, @NonNull String text) {
-        Log.d("DeviceListActivity", " onMessage: " + text);
-        WebSocketEnvelop envelop = gson.fromJson(text, WebSocketEnvelop.class);
-        if (!"push_request".equals(envelop.getType())) {
-          return;
-        }
-        if (envelop.getData() == null) return;
-        DeviceInfo me = DeviceManager.getInstace(DeviceListActivity.this).getDeviceInfo();
-        if (!me.deviceId.equals(envelop.getData().getTargetDeviceId())) {
-          return;
-        }
-        Long expireAt = envelop.getData().getExpireAt();
-        if (System.currentTimeMillis() > expireAt) {
-          Log.w("DeviceListActivity", "received expired message: " + text);
-          return;
-        }
-        // todo: 这里可以弹一个对话框，询问用户是否接受推流请求
-        runOnUiThread(() -> {
-          Toast.makeText(
-              DeviceListActivity.this,
-              "收到来自设备 " + envelop.getData().getFromDeviceId() + " 的推流请求",
-              Toast.LENGTH_LONG
-          ).show();
+  private void connectSignaling() {
+    DeviceInfo me = DeviceManager.getInstace(this).getDeviceInfo();
+    SignalingClient client = SignalingClient.getInstance();
+    client.registerHandler(SignalingClient.TYPE_PRESENCE, PresenceEvent.class, presenceHandler);
+    client.addOnConnectedListener(connectedListener);
+    client.connect(getString(R.string.signaling_url), me);
+  }
+
+  // 在信令连接的读线程中回调, 切到主线程更新模型
+  private final SignalingClient.MessageHandler<PresenceEvent> presenceHandler =
+      event -> {
+        if (event == null) return;
+        mainHandler.post(() -> {
+          if (presenceModel.apply(event)) {
+            scheduleSubmit();
+          }
         });
-      }
-
-      @Override
-      public void onClosed(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
-        super.onClosed(webSocket, code, reason);
-      }
-
-      @Override
-      public void onClosing(@NonNull WebSocket webSocket, int code, @NonNull String reason) {
-        super.onClosing(webSocket, code, reason);
-      }
-
-      @Override
-      public void onFailure(@NonNull WebSocket webSocket, @NonNull Throwable t, @Nullable Response response) {
-        super.onFailure(webSocket, t, response);
-      }
-
-      @Override
-      public void onMessage(@NonNull WebSocket webSocket, @NonNull ByteString bytes) {
-        super.onMessage(webSocket, bytes);
-      }
+      };
+
+  // 断线期间错过的上下线事件无法补发, 重连后重新拉取一次全量列表
+  private final SignalingClient.OnConnectedListener connectedListener = reconnected -> {
+    if (reconnected) {
+      mainHandler.post(this::fetchDeviceInfos);
+    }
+  };
+
+  private void scheduleSubmit() {
+    if (submitPending) {
+      return;
+    }
+    submitPending = true;
+    mainHandler.post(() -> {
+      submitPending = false;
+      deviceAdapter.submitList(presenceModel.snapshot());
     });
   }
 
-  private void fetchDeviceInfos() {
-    Request request = new Request.Builder()
-        .url("http://47.108.73.56:8080/api/online_devices")
-        .build();
-    OkHttpManager.getInstance().newCall(request).enqueue(new Callback() {
-      @Override
-      public void onFailure(@NonNull Call call, @NonNull IOException e) {
-        Log.e("DeviceListActivity", "Failed to fetch device info", e);
-        mainHandler.post(() -> Toast.makeText(DeviceListActivity.this, "获取设备列表失败", Toast.LENGTH_SHORT).show());
-        swipeRefreshLayout.setRefreshing(false);
-      }
-
-      @Override
-      public void onResponse(@NonNull Call call, @NonNull Response response) {
-        try {
-          if (!response.isSuccessful()) {
-            Log.e("DeviceListActivity", "server returned wrong message");
-            mainHandler.post(() -> Toast
-                .makeText(DeviceListActivity.this, "server returned wrong message", Toast.LENGTH_SHORT).show());
-            return;
-          }
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    // 连接是进程共用的, 页面销毁时只取消自己的 handler
+    SignalingClient client = SignalingClient.getInstance();
+    client.unregisterHandler(SignalingClient.TYPE_PRESENCE, presenceHandler);
+    client.removeOnConnectedListener(connectedListener);
+    mainHandler.removeCallbacksAndMessages(null);
+  }
 
-          ResponseBody body = response.body();
-          if (body == null) {
-            Log.e("DeviceListActivity", "response body is null");
-            mainHandler.post(() -> Toast.makeText(DeviceListActivity.this, "服务器响应为空", Toast.LENGTH_SHORT).show());
-            return;
-          }
+  private void fetchDeviceInfos() {
+    // 拉取期间收到的增量在全量列表到达后重放
+    presenceModel.beginFetch();
+    deviceListFetcher.refresh();
+  }
 
-          String json;
-          try {
-            json = body.string();
-          } catch (Exception e) {
-            Log.e("DeviceListActivity", "Failed to read response body", e);
-            mainHandler.post(() -> Toast.makeText(DeviceListActivity.this, "无法解析服务器响应", Toast.LENGTH_SHORT).show());
-            return;
-          } finally {
-            body.close();
-          }
+  // 在 OkHttp 的线程中回调
+  private final DeviceListFetcher.OnResultListener fetchListener =
+      new DeviceListFetcher.OnResultListener() {
+        @Override
+        public void onDevices(List<DeviceInfo> devices) {
+          mainHandler.post(() -> {
+            // 全量列表只用来重建模型, 界面仍然按差异刷新; 重建后没有变化时不提交
+            if (presenceModel.replaceAll(devices)) {
+              scheduleSubmit();
+            }
+            swipeRefreshLayout.setRefreshing(false);
+          });
+        }
 
-          Log.d("DeviceListActivity", "onResponse: " + json);
-
-          try {
-            Gson gson = new Gson();
-            Type listType = new TypeToken<List<DeviceInfo>>() {
-            }.getType();
-            final List<DeviceInfo> fetched = gson.fromJson(json, listType);
-            mainHandler.post(() -> {
-              deviceInfos.clear();
-              deviceInfos.addAll(fetched);
-              deviceAdapter.notifyDataSetChanged();
-            });
-          } catch (Exception ex) {
-            Log.e("DeviceListActivity", "Failed to parse device info", ex);
-            mainHandler.post(() -> Toast.makeText(DeviceListActivity.this, "解析设备列表失败", Toast.LENGTH_SHORT).show());
-          }
-        } catch (Exception e) {
-          Log.e("DeviceListActivity", "Failed to read response body", e);
-          mainHandler.post(() -> Toast.makeText(DeviceListActivity.this, "解析设备列表失败", Toast.LENGTH_SHORT).show());
-        } finally {
-          mainHandler.post(() -> swipeRefreshLayout.setRefreshing(false));
+        @Override
+        public void onError(Exception e) {
+          Log.e("DeviceListActivity", "Failed to fetch device info", e);
+          mainHandler.post(() -> {
+            presenceModel.endFetch();
+            Toast.makeText(DeviceListActivity.this, "获取设备列表失败", Toast.LENGTH_SHORT).show();
+            swipeRefreshLayout.setRefreshing(false);
+          });
         }
-      }
-    });
-  }
+      };
 }
@@ -0,0 +1,138 @@
+package com.marine.secretcamera.bwe;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用一个单瓶颈链路模拟器驱动 {@link DelayBasedBwe}, 按脚本改变链路带宽。
+ */
+public class DelayBasedBweTest {
+    private static final int PACKET_SIZE = 1200;
+    private static final int FPS = 30;
+    private static final long PROPAGATION_DELAY_US = 20_000;
+    private static final long FEEDBACK_INTERVAL_US = 100_000;
+    // 瓶颈队列的最大排队时间, 超过即丢包
+    private static final long MAX_QUEUE_DELAY_US = 1_000_000;
+
+    // 按脚本变化带宽的单瓶颈链路, 发送端按估计码率编码、以 2.5 倍速率平滑发送
+    private static class Simulation {
+        final DelayBasedBwe bwe = new DelayBasedBwe(1_000_000, 100_000, 5_000_000);
+        final List<PacketResult> pending = new ArrayList<>();
+        long nowUs;
+        long linkFreeUs;
+        long lastQueueDelayUs;
+        int sequence;
+
+        void run(long capacityBps, long durationUs) {
+            long endUs = nowUs + durationUs;
+            long nextFrameUs = nowUs;
+            long nextFeedbackUs = nowUs + FEEDBACK_INTERVAL_US;
+            while (nowUs < endUs) {
+                long target = bwe.getTargetBitrate();
+                int packets = (int) Math.max(1, target / FPS / 8 / PACKET_SIZE);
+                long packetIntervalUs = PACKET_SIZE * 8L * 1_000_000 / (target * 5 / 2);
+                long sendUs = nextFrameUs;
+                for (int i = 0; i < packets; i++) {
+                    send(sendUs, capacityBps);
+                    sendUs += packetIntervalUs;
+                }
+                nextFrameUs += 1_000_000 / FPS;
+                while (nextFeedbackUs <= nextFrameUs) {
+                    deliverFeedback(nextFeedbackUs);
+                    nextFeedbackUs += FEEDBACK_INTERVAL_US;
+                }
+                nowUs = nextFrameUs;
+            }
+        }
+
+        void send(long sendUs, long capacityBps) {
+            PacketResult result = new PacketResult();
+            result.sequence = sequence++ & 0xFFFF;
+            result.sendTimeUs = sendUs;
+            result.size = PACKET_SIZE;
+            long startUs = Math.max(sendUs, linkFreeUs);
+            long queueDelayUs = startUs - sendUs;
+            if (queueDelayUs <= MAX_QUEUE_DELAY_US) {
+                linkFreeUs = startUs + PACKET_SIZE * 8L * 1_000_000 / capacityBps;
+                result.received = true;
+                result.arrivalTimeUs = linkFreeUs + PROPAGATION_DELAY_US;
+                lastQueueDelayUs = queueDelayUs;
+            } else {
+                result.arrivalTimeUs = sendUs + PROPAGATION_DELAY_US;
+            }
+            pending.add(result);
+        }
+
+        void deliverFeedback(long feedbackUs) {
+            List<PacketResult> batch = new ArrayList<>();
+            while (!pending.isEmpty() && pending.get(0).arrivalTimeUs <= feedbackUs) {
+                batch.add(pending.remove(0));
+            }
+            if (!batch.isEmpty()) {
+                bwe.onFeedback(batch, feedbackUs / 1000);
+            }
+        }
+    }
+
+    @Test
+    public void rampsUpTowardsCapacity() {
+        Simulation sim = new Simulation();
+        sim.run(3_000_000, 30_000_000);
+        long target = sim.bwe.getTargetBitrate();
+        assertTrue("target " + target, target > 2_000_000 && target < 3_600_000);
+    }
+
+    @Test
+    public void backsOffQuicklyWhenBandwidthDrops() {
+        Simulation sim = new Simulation();
+        sim.run(3_000_000, 30_000_000);
+        sim.run(800_000, 5_000_000);
+        long target = sim.bwe.getTargetBitrate();
+        assertTrue("target " + target, target < 900_000);
+        // 降速之后排队延迟应该被清空, 而不是一直涨到丢包
+        sim.run(800_000, 10_000_000);
+        assertTrue("queue delay " + sim.lastQueueDelayUs, sim.lastQueueDelayUs < 200_000);
+        assertTrue("target " + sim.bwe.getTargetBitrate(),
+                sim.bwe.getTargetBitrate() > 400_000);
+    }
+
+    @Test
+    public void recoversAfterBandwidthReturns() {
+        Simulation sim = new Simulation();
+        sim.run(3_000_000, 30_000_000);
+        sim.run(800_000, 15_000_000);
+        sim.run(3_000_000, 40_000_000);
+        long target = sim.bwe.getTargetBitrate();
+        assertTrue("target " + target, target > 1_800_000);
+    }
+
+    @Test
+    public void parsesTransportFeedback() {
+        byte[] packet = {
+                (byte) 0x8F, (byte) 205, 0, 6,
+                0, 0, 0, 1,
+                0, 0, 0, 2,
+                // base sequence 10, status count 4
+                0, 10, 0, 4,
+                // reference time 1 (64ms), fb pkt count 0
+                0, 0, 1, 0,
+                // status vector, 2 bits: small, not received, large, small
+                (byte) 0xD2, (byte) 0x40,
+                // deltas: 4 * 250us, -2 * 250us (2 bytes), 8 * 250us
+                4, (byte) 0xFF, (byte) 0xFE, 8,
+        };
+        List<PacketResult> results = TransportFeedback.parse(packet, 0, packet.length);
+        assertEquals(4, results.size());
+        assertEquals(10, results.get(0).sequence);
+        assertTrue(results.get(0).received);
+        assertEquals(64_000 + 1_000, results.get(0).arrivalTimeUs);
+        assertTrue(!results.get(1).received);
+        assertEquals(64_000 + 500, results.get(2).arrivalTimeUs);
+        assertEquals(64_000 + 2_500, results.get(3).arrivalTimeUs);
+    }
+}
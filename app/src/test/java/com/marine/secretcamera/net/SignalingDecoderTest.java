@@ -0,0 +1,75 @@
+package com.marine.secretcamera.net;
+
+import com.google.gson.Gson;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * {@link SignalingDecoder} 对 type / data 不同排列顺序的解码与分发。
+ */
+public class SignalingDecoderTest {
+    public static class Named {
+        String name;
+    }
+
+    public static class Counted {
+        int count;
+    }
+
+    private final SignalingDecoder decoder = new SignalingDecoder(new Gson());
+
+    private <T> List<T> register(String type, Class<T> dataType) {
+        List<T> received = new ArrayList<>();
+        decoder.register(type, dataType, received::add);
+        return received;
+    }
+
+    @Test
+    public void decodesTypeBeforeData() {
+        List<Named> received = register("x", Named.class);
+        assertEquals("x", decoder.decode("{\"type\":\"x\",\"data\":{\"name\":\"a\"}}"));
+        assertEquals(1, received.size());
+        assertEquals("a", received.get(0).name);
+    }
+
+    @Test
+    public void decodesDataBeforeType() {
+        List<Named> received = register("x", Named.class);
+        assertEquals("x", decoder.decode("{\"data\":{\"name\":\"b\"},\"type\":\"x\"}"));
+        assertEquals(1, received.size());
+        assertEquals("b", received.get(0).name);
+    }
+
+    @Test
+    public void deliversNullWhenDataIsMissing() {
+        List<Named> received = register("x", Named.class);
+        assertEquals("x", decoder.decode("{\"type\":\"x\",\"other\":1}"));
+        assertEquals(1, received.size());
+        assertNull(received.get(0));
+    }
+
+    @Test
+    public void decodesOnceForEachAdapterOfOneType() {
+        List<Named> named = register("x", Named.class);
+        List<Counted> counted = register("x", Counted.class);
+        List<Named> namedAgain = register("x", Named.class);
+        String text = "{\"data\":{\"name\":\"c\",\"count\":3},\"type\":\"x\"}";
+        assertEquals("x", decoder.decode(text));
+        assertEquals("c", named.get(0).name);
+        assertEquals(3, counted.get(0).count);
+        assertEquals("c", namedAgain.get(0).name);
+    }
+
+    @Test
+    public void skipsDataOfUnhandledTypes() {
+        List<Named> received = register("x", Named.class);
+        assertEquals("y", decoder.decode("{\"type\":\"y\",\"data\":{\"name\":\"d\"}}"));
+        assertEquals(0, received.size());
+    }
+}
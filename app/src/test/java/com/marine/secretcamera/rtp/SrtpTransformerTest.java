@@ -0,0 +1,141 @@
+package com.marine.secretcamera.rtp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 用 RFC 3711 的密钥派生向量和 JCE 自带的 AES/CTR、AES/GCM 作为参照检查 {@link SrtpTransformer}。
+ * 每个包的加密开销在 androidTest 的 SrtpTransformerBenchmark 中测量。
+ */
+public class SrtpTransformerTest {
+    private static final int PAYLOAD_SIZE = 1200;
+
+    private static byte[] hex(String s) {
+        byte[] out = new byte[s.length() / 2];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) Integer.parseInt(s.substring(i * 2, i * 2 + 2), 16);
+        }
+        return out;
+    }
+
+    private static Cipher kdf(byte[] masterKey) throws Exception {
+        Cipher kdf = Cipher.getInstance("AES/ECB/NoPadding");
+        kdf.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(masterKey, "AES"));
+        return kdf;
+    }
+
+    // RTP 头 + 一个 one-byte 头部扩展（4 字节）+ 随机负载
+    private static byte[] packet(int ssrc, int sequence, int payloadSize, long seed) {
+        byte[] p = new byte[RtpPacket.MAX_SIZE];
+        p[0] = (byte) 0x90;
+        p[1] = 96;
+        p[2] = (byte) (sequence >> 8);
+        p[3] = (byte) sequence;
+        p[8] = (byte) (ssrc >> 24);
+        p[9] = (byte) (ssrc >> 16);
+        p[10] = (byte) (ssrc >> 8);
+        p[11] = (byte) ssrc;
+        p[12] = (byte) 0xBE;
+        p[13] = (byte) 0xDE;
+        p[15] = 1;
+        p[16] = 0x10;
+        byte[] payload = new byte[payloadSize];
+        new Random(seed).nextBytes(payload);
+        System.arraycopy(payload, 0, p, 20, payloadSize);
+        return p;
+    }
+
+    @Test
+    public void derivesRfc3711SessionKeys() throws Exception {
+        byte[] masterKey = hex("E1F97A0D3E018BE0D64FA32C06DE4139");
+        byte[] masterSalt = hex("0EC675AD498AFEEBB6960B3AABE6");
+        Cipher kdf = kdf(masterKey);
+        assertArrayEquals(hex("C61E7A93744F39EE10734AFE3FF7A087"),
+                SrtpTransformer.derive(kdf, masterSalt, 0, 16));
+        assertArrayEquals(hex("30CBBC08863D8C85D49DB34A9AE1"),
+                SrtpTransformer.derive(kdf, masterSalt, 2, 14));
+        assertArrayEquals(hex("CEBE321F6FF7716B6FD4AB49AF256A156D38BAA4"),
+                SrtpTransformer.derive(kdf, masterSalt, 1, 20));
+    }
+
+    @Test
+    public void aesCmMatchesReferenceCtrAndHmac() throws Exception {
+        byte[] masterKey = hex("E1F97A0D3E018BE0D64FA32C06DE4139");
+        byte[] masterSalt = hex("0EC675AD498AFEEBB6960B3AABE6");
+        SrtpTransformer srtp = new SrtpTransformer(
+                SrtpTransformer.Suite.AES_CM_128_HMAC_SHA1_80, masterKey, masterSalt);
+        int ssrc = 0xCAFEBABE;
+        // 65535 之后回绕到 0, 第二个包的 ROC 为 1
+        int[] sequences = {65535, 0};
+        int[] rocs = {0, 1};
+        Cipher kdf = kdf(masterKey);
+        byte[] key = SrtpTransformer.derive(kdf, masterSalt, 0, 16);
+        byte[] salt = SrtpTransformer.derive(kdf, masterSalt, 2, 14);
+        byte[] authKey = SrtpTransformer.derive(kdf, masterSalt, 1, 20);
+        for (int i = 0; i < sequences.length; i++) {
+            byte[] plain = packet(ssrc, sequences[i], PAYLOAD_SIZE, i);
+            byte[] p = plain.clone();
+            int length = srtp.protect(p, 20 + PAYLOAD_SIZE);
+            assertEquals(20 + PAYLOAD_SIZE + 10, length);
+            assertArrayEquals(Arrays.copyOf(plain, 20), Arrays.copyOf(p, 20));
+
+            long index = ((long) rocs[i] << 16) | sequences[i];
+            byte[] iv = Arrays.copyOf(salt, 16);
+            for (int b = 0; b < 4; b++) {
+                iv[4 + b] ^= (byte) (ssrc >>> (24 - 8 * b));
+            }
+            for (int b = 0; b < 6; b++) {
+                iv[8 + b] ^= (byte) (index >>> (40 - 8 * b));
+            }
+            Cipher ctr = Cipher.getInstance("AES/CTR/NoPadding");
+            ctr.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+            byte[] decrypted = ctr.doFinal(p, 20, PAYLOAD_SIZE);
+            assertArrayEquals(Arrays.copyOfRange(plain, 20, 20 + PAYLOAD_SIZE), decrypted);
+
+            Mac mac = Mac.getInstance("HmacSHA1");
+            mac.init(new SecretKeySpec(authKey, "HmacSHA1"));
+            mac.update(p, 0, 20 + PAYLOAD_SIZE);
+            mac.update(new byte[] {0, 0, 0, (byte) rocs[i]});
+            byte[] tag = Arrays.copyOf(mac.doFinal(), 10);
+            assertArrayEquals(tag, Arrays.copyOfRange(p, 20 + PAYLOAD_SIZE, length));
+        }
+    }
+
+    @Test
+    public void gcmMatchesReferenceDecryption() throws Exception {
+        byte[] masterKey = hex("000102030405060708090A0B0C0D0E0F");
+        byte[] masterSalt = hex("A0A1A2A3A4A5A6A7A8A9AAAB");
+        SrtpTransformer srtp = new SrtpTransformer(
+                SrtpTransformer.Suite.AEAD_AES_128_GCM, masterKey, masterSalt);
+        int ssrc = 0x12345678;
+        byte[] plain = packet(ssrc, 4242, PAYLOAD_SIZE, 7);
+        byte[] p = plain.clone();
+        int length = srtp.protect(p, 20 + PAYLOAD_SIZE);
+        assertEquals(20 + PAYLOAD_SIZE + 16, length);
+
+        Cipher kdf = kdf(masterKey);
+        byte[] kdfSalt = Arrays.copyOf(masterSalt, 14);
+        byte[] key = SrtpTransformer.derive(kdf, kdfSalt, 0, 16);
+        byte[] salt = SrtpTransformer.derive(kdf, kdfSalt, 2, 12);
+        byte[] nonce = {0, 0, 0x12, 0x34, 0x56, 0x78, 0, 0, 0, 0, (byte) (4242 >> 8), (byte) 4242};
+        for (int i = 0; i < 12; i++) {
+            nonce[i] ^= salt[i];
+        }
+        Cipher gcm = Cipher.getInstance("AES/GCM/NoPadding");
+        gcm.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new GCMParameterSpec(128, nonce));
+        gcm.updateAAD(p, 0, 20);
+        byte[] decrypted = gcm.doFinal(p, 20, length - 20);
+        assertArrayEquals(Arrays.copyOfRange(plain, 20, 20 + PAYLOAD_SIZE), decrypted);
+    }
+}
@@ -0,0 +1,89 @@
+package com.marine.secretcamera.stats;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * 用合成的时间戳驱动 {@link FrameRateMonitor} 的丢帧推算与帧率统计。
+ */
+public class FrameRateMonitorTest {
+    private static final int FPS = 30;
+    private static final long INTERVAL_US = 1_000_000 / FPS;
+
+    // 从 1s 开始, 时间戳为 0 表示还没有上一帧
+    private long nowUs = 1_000_000;
+
+    private void encode(FrameRateMonitor monitor, int frames, long intervalUs) {
+        for (int i = 0; i < frames; i++) {
+            nowUs += intervalUs;
+            monitor.onFrameEncoded(nowUs);
+        }
+    }
+
+    @Test
+    public void steadyRateHasNoDrops() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        encode(monitor, 70, INTERVAL_US);
+        assertEquals(0, monitor.getEncodeDrops());
+        assertEquals(FPS, monitor.getEncodeFps(), 0.5f);
+    }
+
+    @Test
+    public void jitterBelowThresholdIsNotADrop() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        encode(monitor, 5, INTERVAL_US);
+        // 1.4 倍间隔低于 1.5 倍的阈值
+        encode(monitor, 1, INTERVAL_US * 14 / 10);
+        encode(monitor, 5, INTERVAL_US);
+        assertEquals(0, monitor.getEncodeDrops());
+    }
+
+    @Test
+    public void gapCountsMissingFrames() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        encode(monitor, 5, INTERVAL_US);
+        // 中间少了 3 帧
+        encode(monitor, 1, INTERVAL_US * 4);
+        assertEquals(3, monitor.getEncodeDrops());
+        // 2 倍间隔按四舍五入算作 1 帧
+        encode(monitor, 1, INTERVAL_US * 2);
+        assertEquals(4, monitor.getEncodeDrops());
+    }
+
+    @Test
+    public void discontinuityIsNotCountedAsDrops() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        encode(monitor, 5, INTERVAL_US);
+        monitor.onDiscontinuity();
+        encode(monitor, 1, 2_000_000);
+        encode(monitor, 5, INTERVAL_US);
+        assertEquals(0, monitor.getEncodeDrops());
+    }
+
+    @Test
+    public void changingExpectedFpsResetsInterval() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        encode(monitor, 5, INTERVAL_US);
+        // 画面静止抽帧到 5fps, 新的间隔不算丢帧
+        monitor.setExpectedFps(FPS, 5);
+        encode(monitor, 10, 200_000);
+        assertEquals(0, monitor.getEncodeDrops());
+        assertEquals(5, monitor.getEncodeFps(), 0.1f);
+    }
+
+    @Test
+    public void captureFailuresCountAsCaptureDrops() {
+        FrameRateMonitor monitor = new FrameRateMonitor();
+        monitor.setExpectedFps(FPS, FPS);
+        monitor.onCaptureFailed();
+        monitor.onCaptureFailed();
+        assertEquals(2, monitor.getCaptureDrops());
+        assertEquals(0, monitor.getEncodeDrops());
+    }
+}
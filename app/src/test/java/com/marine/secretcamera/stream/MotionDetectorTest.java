@@ -0,0 +1,93 @@
+package com.marine.secretcamera.stream;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * {@link MotionDetector} 中与 Android 无关的部分: 帧差比例与运动 / 静止的滞回切换。
+ */
+public class MotionDetectorTest {
+    private static final int CELLS = MotionDetector.GRID_WIDTH * MotionDetector.GRID_HEIGHT;
+
+    private static byte[] uniform(int luma) {
+        byte[] grid = new byte[CELLS];
+        Arrays.fill(grid, (byte) luma);
+        return grid;
+    }
+
+    @Test
+    public void globalBrightnessChangeIsNotMotion() {
+        // 自动曝光让整张画面一起变亮, 远超单个像素的阈值
+        assertEquals(0f, MotionDetector.diffRatio(uniform(140), uniform(80)), 0f);
+    }
+
+    @Test
+    public void smallPixelNoiseIsNotMotion() {
+        byte[] current = uniform(100);
+        for (int i = 0; i < CELLS; i += 2) {
+            current[i] = (byte) (100 + MotionDetector.PIXEL_THRESHOLD - 4);
+        }
+        assertEquals(0f, MotionDetector.diffRatio(current, uniform(100)), 0f);
+    }
+
+    @Test
+    public void localChangeAboveRatioIsMotion() {
+        int changed = (int) Math.ceil(CELLS * MotionDetector.MOTION_RATIO) + 6;
+        byte[] current = uniform(100);
+        for (int i = 0; i < changed; i++) {
+            current[i] = (byte) 200;
+        }
+        float ratio = MotionDetector.diffRatio(current, uniform(100));
+        assertEquals((float) changed / CELLS, ratio, 1e-6f);
+        assertTrue(ratio >= MotionDetector.MOTION_RATIO);
+    }
+
+    @Test
+    public void localChangeBelowRatioIsNotMotion() {
+        int changed = (int) (CELLS * MotionDetector.MOTION_RATIO) - 2;
+        byte[] current = uniform(100);
+        for (int i = 0; i < changed; i++) {
+            current[i] = (byte) 200;
+        }
+        assertTrue(MotionDetector.diffRatio(current, uniform(100)) < MotionDetector.MOTION_RATIO);
+    }
+
+    @Test
+    public void goesIdleOnlyAfterQuietPeriod() {
+        MotionDetector.Gate gate = new MotionDetector.Gate();
+        gate.reset(0);
+        assertTrue(gate.isMotion());
+        assertFalse(gate.update(0f, MotionDetector.IDLE_AFTER_MS - 1));
+        assertTrue(gate.isMotion());
+        assertTrue(gate.update(0f, MotionDetector.IDLE_AFTER_MS));
+        assertFalse(gate.isMotion());
+        // 已经静止时不再重复回调
+        assertFalse(gate.update(0f, MotionDetector.IDLE_AFTER_MS + 200));
+    }
+
+    @Test
+    public void motionRestartsQuietPeriod() {
+        MotionDetector.Gate gate = new MotionDetector.Gate();
+        gate.reset(0);
+        assertFalse(gate.update(MotionDetector.MOTION_RATIO, 8_000));
+        assertFalse(gate.update(0f, MotionDetector.IDLE_AFTER_MS));
+        assertTrue(gate.isMotion());
+        assertTrue(gate.update(0f, 8_000 + MotionDetector.IDLE_AFTER_MS));
+        assertFalse(gate.isMotion());
+    }
+
+    @Test
+    public void resumesImmediatelyOnMotion() {
+        MotionDetector.Gate gate = new MotionDetector.Gate();
+        gate.reset(0);
+        gate.update(0f, MotionDetector.IDLE_AFTER_MS);
+        assertFalse(gate.isMotion());
+        assertTrue(gate.update(MotionDetector.MOTION_RATIO, MotionDetector.IDLE_AFTER_MS + 200));
+        assertTrue(gate.isMotion());
+    }
+}